@@ -0,0 +1,235 @@
+package com.glean.proxy;
+
+import com.glean.proxy.metrics.ProxyMetrics.Route;
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Records every request the proxy receives as a line of JSON, without formatting or writing
+ * anything on the event loop that received it. Event loops copy a few fields into a slot of a
+ * fixed ring buffer, claimed with a single compare-and-set, and one writer thread encodes whatever
+ * slots have filled since it last looked and writes them in one batch.
+ *
+ * <p>A record that finds the buffer full is dropped rather than waiting for the writer, and
+ * counted. A sample rate below 1 records only that fraction of requests.
+ */
+public final class AccessLog {
+  private static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+  private static final int MAX_BATCH = 1024;
+  private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final Slot[] slots;
+  private final int mask;
+  private final double sampleRate;
+  private final Writer out;
+  // The next sequence number to claim, and the next to write. Sequence n lives in slot n & mask.
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+  private final LongAdder dropped = new LongAdder();
+  private final StringBuilder batch = new StringBuilder(MAX_BATCH * 128);
+  private long reportedDrops;
+  private long nextDropReportNanos;
+  private volatile boolean stopping;
+  private Thread writer;
+
+  private static final class Slot {
+    // Sequence + 1 once the record for that sequence is complete; read by the writer first.
+    volatile long published;
+    long timeMillis;
+    Route route;
+    HttpMethod method;
+    String uri;
+    SocketAddress client;
+  }
+
+  /**
+   * {@code destination} is {@code stdout} or a file to append to. {@code capacity} is rounded up
+   * to a power of two.
+   */
+  public static AccessLog create(String destination, int capacity, double sampleRate)
+      throws IOException {
+    Writer out =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                destination.equals("stdout")
+                    ? new FileOutputStream(FileDescriptor.out)
+                    : new FileOutputStream(destination, true),
+                StandardCharsets.UTF_8));
+    return new AccessLog(out, capacity, sampleRate);
+  }
+
+  @VisibleForTesting
+  AccessLog(Writer out, int capacity, double sampleRate) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+    this.slots = new Slot[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Slot();
+    }
+    this.mask = size - 1;
+    this.sampleRate = sampleRate;
+    this.out = out;
+  }
+
+  public synchronized void start() {
+    if (writer != null) {
+      return;
+    }
+    writer = new Thread(this::writeUntilStopped, "access-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Writes what has already been recorded and stops the writer. */
+  public synchronized void stop() {
+    if (writer == null) {
+      return;
+    }
+    stopping = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer = null;
+  }
+
+  /** Called on the event loop; {@code client} may be null. */
+  public void log(Route route, HttpRequest request, SocketAddress client) {
+    if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return;
+    }
+    long sequence;
+    do {
+      sequence = tail.get();
+      if (sequence - head.get() >= slots.length) {
+        dropped.increment();
+        return;
+      }
+    } while (!tail.compareAndSet(sequence, sequence + 1));
+    Slot slot = slots[(int) sequence & mask];
+    slot.timeMillis = System.currentTimeMillis();
+    slot.route = route;
+    slot.method = request.method();
+    slot.uri = request.uri();
+    slot.client = client;
+    slot.published = sequence + 1;
+  }
+
+  /** Records dropped because the buffer was full. */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  private void writeUntilStopped() {
+    nextDropReportNanos = System.nanoTime() + DROP_REPORT_INTERVAL_NANOS;
+    while (!stopping) {
+      if (writeBatch() == 0) {
+        LockSupport.parkNanos(IDLE_WAIT_NANOS);
+      }
+      reportDrops();
+    }
+    while (writeBatch() > 0) {
+      // Drain what was recorded before stopping.
+    }
+  }
+
+  /** Encodes and writes the records that are ready, up to a batch, and returns how many. */
+  @VisibleForTesting
+  int writeBatch() {
+    long next = head.get();
+    int count = 0;
+    while (count < MAX_BATCH) {
+      Slot slot = slots[(int) next & mask];
+      // Records are written in the order they were claimed, so one still being filled in holds
+      // back those after it until the next batch.
+      if (slot.published != next + 1) {
+        break;
+      }
+      encode(slot, batch);
+      slot.route = null;
+      slot.method = null;
+      slot.uri = null;
+      slot.client = null;
+      next++;
+      count++;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    head.set(next);
+    try {
+      out.append(batch);
+      out.flush();
+    } catch (IOException e) {
+      logger.warning("Failed to write access log: " + e.getMessage());
+    }
+    batch.setLength(0);
+    return count;
+  }
+
+  private void reportDrops() {
+    long now = System.nanoTime();
+    if (now - nextDropReportNanos < 0) {
+      return;
+    }
+    nextDropReportNanos = now + DROP_REPORT_INTERVAL_NANOS;
+    long drops = dropped.sum();
+    if (drops > reportedDrops) {
+      logger.warning(
+          String.format(
+              "Access log dropped %d records with its buffer full", drops - reportedDrops));
+      reportedDrops = drops;
+    }
+  }
+
+  private static void encode(Slot slot, StringBuilder out) {
+    out.append("{\"time\":\"").append(Instant.ofEpochMilli(slot.timeMillis)).append('"');
+    out.append(",\"route\":\"").append(slot.route.name().toLowerCase()).append('"');
+    out.append(",\"method\":\"").append(slot.method.name()).append('"');
+    out.append(",\"uri\":");
+    appendString(out, slot.uri);
+    out.append(",\"client\":");
+    if (slot.client instanceof InetSocketAddress address && address.getAddress() != null) {
+      out.append('"').append(address.getAddress().getHostAddress()).append('"');
+    } else if (slot.client != null) {
+      appendString(out, slot.client.toString());
+    } else {
+      out.append("null");
+    }
+    out.append("}\n");
+  }
+
+  private static void appendString(StringBuilder out, String value) {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+}
@@ -0,0 +1,378 @@
+package com.glean.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetNameResolver;
+import io.netty.resolver.dns.DnsCache;
+import io.netty.resolver.dns.DnsCacheEntry;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.littleshoot.proxy.HostResolver;
+
+/**
+ * Resolves upstream hosts with Netty's asynchronous DNS client on its own event loop, in place of
+ * LittleProxy's default blocking JDK lookup per connection.
+ *
+ * <p>Answers are cached for their record TTL and failures for {@code negativeTtl}, for at most
+ * {@code MAXIMUM_SIZE} hosts. Concurrent misses for the same host share a single query. A host that
+ * is asked for again while its entry is in the last {@code PREFETCH_FRACTION} of its lifetime is
+ * re-queried in the background, so hot hosts are never left waiting on DNS. LittleProxy resolves
+ * synchronously on a worker thread, so only a miss waits, for at most the query timeout.
+ */
+public final class CachingDnsResolver implements HostResolver {
+  private static final long MIN_TTL_SECONDS = 1;
+  private static final long MAX_TTL_SECONDS = Duration.ofHours(1).toSeconds();
+  // Hosts file entries and other answers that did not come from a DNS record.
+  private static final long DEFAULT_TTL_SECONDS = 60;
+  private static final double PREFETCH_FRACTION = 0.1;
+  private static final long MAXIMUM_SIZE = 100_000;
+  // How long the TTLs of a query are kept for an answer that is never handed out, such as one for
+  // a name with a search domain appended.
+  private static final Duration RECORDED_TTL_LIFETIME = Duration.ofMinutes(1);
+
+  private final Lookup lookup;
+  private final Ticker ticker;
+  private final long negativeTtlNanos;
+  private final long timeoutMillis;
+  private final Cache<String, Entry> cache;
+  private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  CachingDnsResolver(
+      Lookup lookup, Duration negativeTtl, Duration timeout, long maximumSize, Ticker ticker) {
+    this.lookup = lookup;
+    this.ticker = ticker;
+    this.negativeTtlNanos = negativeTtl.toNanos();
+    this.timeoutMillis = timeout.toMillis();
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+            .build();
+  }
+
+  /** Creates a resolver that queries the system's name servers with the given query timeout. */
+  public static CachingDnsResolver create(Duration negativeTtl, Duration queryTimeout) {
+    NioEventLoopGroup group =
+        new NioEventLoopGroup(1, new DefaultThreadFactory("dns-resolver", true));
+    return new CachingDnsResolver(
+        new NettyLookup(group.next(), queryTimeout),
+        negativeTtl,
+        queryTimeout,
+        MAXIMUM_SIZE,
+        Ticker.systemTicker());
+  }
+
+  @Override
+  public InetSocketAddress resolve(String host, int port) throws UnknownHostException {
+    CompletableFuture<InetAddress> address = resolveAsync(host);
+    try {
+      return new InetSocketAddress(address.get(timeoutMillis, TimeUnit.MILLISECONDS), port);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnknownHostException unknownHost) {
+        throw unknownHost;
+      }
+      throw unknownHost(host, e.getCause());
+    } catch (TimeoutException e) {
+      throw unknownHost(host, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw unknownHost(host, e);
+    }
+  }
+
+  /**
+   * Completes with the address of {@code host}, or fails with an {@link UnknownHostException}.
+   * Cached answers are returned already completed.
+   */
+  CompletableFuture<InetAddress> resolveAsync(String host) {
+    byte[] literal = NetUtil.createByteArrayFromIpAddressString(host);
+    if (literal != null) {
+      try {
+        return CompletableFuture.completedFuture(InetAddress.getByAddress(host, literal));
+      } catch (UnknownHostException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    long now = ticker.read();
+    Entry entry = cache.getIfPresent(host);
+    if (entry == null || now - entry.expiresAtNanos >= 0) {
+      return lookup(host).thenCompose(Entry::address);
+    }
+    if (entry.shouldPrefetch(now)) {
+      lookup(host);
+    }
+    return entry.address;
+  }
+
+  /**
+   * Returns resolvers for Netty bootstraps that share this cache. They complete without blocking
+   * the event loop that asks, even on a miss.
+   */
+  public AddressResolverGroup<InetSocketAddress> addressResolverGroup() {
+    return new AddressResolverGroup<>() {
+      @Override
+      protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+        return new InetNameResolver(executor) {
+          @Override
+          protected void doResolve(String host, Promise<InetAddress> promise) {
+            resolveAsync(host)
+                .whenComplete(
+                    (address, error) -> {
+                      if (error != null) {
+                        promise.tryFailure(unwrap(error));
+                      } else {
+                        promise.trySuccess(address);
+                      }
+                    });
+          }
+
+          @Override
+          protected void doResolveAll(String host, Promise<List<InetAddress>> promise) {
+            resolveAsync(host)
+                .whenComplete(
+                    (address, error) -> {
+                      if (error != null) {
+                        promise.tryFailure(unwrap(error));
+                      } else {
+                        promise.trySuccess(List.of(address));
+                      }
+                    });
+          }
+        }.asAddressResolver();
+      }
+    };
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+
+  private CompletableFuture<Entry> lookup(String host) {
+    CompletableFuture<Entry> pending = inFlight.get(host);
+    if (pending != null) {
+      return pending;
+    }
+    CompletableFuture<Entry> created = new CompletableFuture<>();
+    pending = inFlight.putIfAbsent(host, created);
+    if (pending != null) {
+      return pending;
+    }
+    lookup
+        .lookup(host)
+        .whenComplete(
+            (answer, error) -> {
+              Entry entry = answer != null ? positive(answer) : negative(host, error);
+              store(host, entry);
+              // Stored before the query is forgotten, so later callers find one or the other.
+              inFlight.remove(host, created);
+              created.complete(entry);
+            });
+    return created;
+  }
+
+  @VisibleForTesting
+  long cachedHosts() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  private void store(String host, Entry entry) {
+    if (entry.isNegative()) {
+      Entry current = cache.getIfPresent(host);
+      if (current != null && !current.isNegative() && ticker.read() - current.expiresAtNanos < 0) {
+        // A failed prefetch keeps serving the last answer until it expires.
+        return;
+      }
+    }
+    cache.put(host, entry);
+  }
+
+  private Entry positive(Answer answer) {
+    long ttlSeconds = Math.max(MIN_TTL_SECONDS, Math.min(answer.ttlSeconds(), MAX_TTL_SECONDS));
+    return new Entry(
+        CompletableFuture.completedFuture(answer.address()),
+        ticker.read(),
+        TimeUnit.SECONDS.toNanos(ttlSeconds));
+  }
+
+  private Entry negative(String host, Throwable error) {
+    UnknownHostException failure =
+        error instanceof UnknownHostException unknownHost ? unknownHost : unknownHost(host, error);
+    return new Entry(CompletableFuture.failedFuture(failure), ticker.read(), negativeTtlNanos);
+  }
+
+  private static UnknownHostException unknownHost(String host, Throwable cause) {
+    UnknownHostException failure = new UnknownHostException("Failed to resolve " + host);
+    failure.initCause(cause);
+    return failure;
+  }
+
+  private static final class Entry {
+    private final CompletableFuture<InetAddress> address;
+    private final long expiresAtNanos;
+    private final long prefetchAtNanos;
+    private final AtomicInteger hits = new AtomicInteger();
+
+    Entry(CompletableFuture<InetAddress> address, long resolvedAtNanos, long ttlNanos) {
+      this.address = address;
+      this.expiresAtNanos = resolvedAtNanos + ttlNanos;
+      this.prefetchAtNanos = expiresAtNanos - (long) (ttlNanos * PREFETCH_FRACTION);
+    }
+
+    boolean isNegative() {
+      return address.isCompletedExceptionally();
+    }
+
+    // Only hosts asked for more than once since their last answer are worth a query of their own.
+    boolean shouldPrefetch(long now) {
+      return hits.incrementAndGet() > 1 && now - prefetchAtNanos >= 0 && !isNegative();
+    }
+
+    CompletableFuture<InetAddress> address() {
+      return address;
+    }
+  }
+
+  record Answer(InetAddress address, long ttlSeconds) {}
+
+  interface Lookup {
+    CompletableFuture<Answer> lookup(String host);
+  }
+
+  /**
+   * Queries with a {@link DnsNameResolver}, which applies the hosts file, search domains and
+   * address family preference. It has no cache of its own; the cache handed to it only records the
+   * TTLs of each query so that the answer can be cached above.
+   */
+  private static final class NettyLookup implements Lookup {
+    private final DnsNameResolver resolver;
+    private final TtlRecorder ttls = new TtlRecorder(MAXIMUM_SIZE, RECORDED_TTL_LIFETIME);
+
+    NettyLookup(EventLoop eventLoop, Duration queryTimeout) {
+      this.resolver =
+          new DnsNameResolverBuilder(eventLoop)
+              .datagramChannelType(NioDatagramChannel.class)
+              .resolveCache(ttls)
+              .queryTimeoutMillis(queryTimeout.toMillis())
+              .build();
+    }
+
+    @Override
+    public CompletableFuture<Answer> lookup(String host) {
+      CompletableFuture<Answer> answer = new CompletableFuture<>();
+      resolver
+          .resolveAll(host)
+          .addListener(
+              (Future<List<InetAddress>> resolved) -> {
+                if (!resolved.isSuccess()) {
+                  ttls.forget(host);
+                  answer.completeExceptionally(resolved.cause());
+                  return;
+                }
+                List<InetAddress> addresses = resolved.getNow();
+                answer.complete(new Answer(addresses.get(0), ttls.remove(host, addresses)));
+              });
+      return answer;
+    }
+  }
+
+  /**
+   * Remembers the TTLs the resolver receives for each name it queries until the answer to that
+   * query is handed out. Names that are never asked for, such as the host with a search domain
+   * appended, expire after {@code lifetime}.
+   */
+  @VisibleForTesting
+  static final class TtlRecorder implements DnsCache {
+    private final Cache<String, Map<InetAddress, Long>> ttlSeconds;
+
+    TtlRecorder(long maximumSize, Duration lifetime) {
+      this.ttlSeconds =
+          CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(lifetime).build();
+    }
+
+    /** Returns the lowest TTL of {@code addresses} in the answer for {@code host}. */
+    long remove(String host, List<InetAddress> addresses) {
+      Map<InetAddress, Long> recorded = ttlSeconds.asMap().remove(key(host));
+      long ttl = Long.MAX_VALUE;
+      for (InetAddress address : addresses) {
+        Long addressTtl = recorded != null ? recorded.get(address) : null;
+        ttl = Math.min(ttl, addressTtl != null ? addressTtl : DEFAULT_TTL_SECONDS);
+      }
+      return ttl;
+    }
+
+    void forget(String host) {
+      ttlSeconds.invalidate(key(host));
+    }
+
+    private static String key(String hostname) {
+      return hostname.endsWith(".") ? hostname.substring(0, hostname.length() - 1) : hostname;
+    }
+
+    @Override
+    public void clear() {
+      ttlSeconds.invalidateAll();
+    }
+
+    @Override
+    public boolean clear(String hostname) {
+      return false;
+    }
+
+    @Override
+    public List<? extends DnsCacheEntry> get(String hostname, DnsRecord[] additionals) {
+      return null;
+    }
+
+    @Override
+    public DnsCacheEntry cache(
+        String hostname,
+        DnsRecord[] additionals,
+        InetAddress address,
+        long originalTtl,
+        EventLoop loop) {
+      ttlSeconds
+          .asMap()
+          .computeIfAbsent(key(hostname), name -> new ConcurrentHashMap<>())
+          .merge(address, originalTtl, Math::min);
+      return new RecordedEntry(address, null);
+    }
+
+    @Override
+    public DnsCacheEntry cache(
+        String hostname, DnsRecord[] additionals, Throwable cause, EventLoop loop) {
+      return new RecordedEntry(null, cause);
+    }
+  }
+
+  private record RecordedEntry(InetAddress address, Throwable cause) implements DnsCacheEntry {}
+}
@@ -1,67 +1,168 @@
 package com.glean.proxy;
 
+import com.google.common.net.HostAndPort;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
-import java.util.Set;
+import java.util.logging.Logger;
 import org.littleshoot.proxy.ChainedProxy;
 import org.littleshoot.proxy.ChainedProxyAdapter;
-import org.littleshoot.proxy.impl.ClientDetails;
-import java.util.logging.Logger;
 import org.littleshoot.proxy.ChainedProxyManager;
-import io.netty.handler.codec.http.HttpRequest;
-
+import org.littleshoot.proxy.impl.ClientDetails;
 
+/**
+ * Routes requests for configured data source hosts through a pool of forward proxies and
+ * everything else directly. The routing decision is compiled once: each forward proxy is a single
+ * immutable {@link ChainedProxy} with its credentials captured at startup, and the Host header is
+ * looked up in a precomputed table without splitting or copying it.
+ */
 public class ChainedProxyConfiguration {
-    private static final Logger logger = Logger.getLogger(ChainedProxyConfiguration.class.getName());
-    
-    public static ChainedProxyManager fromEnvironment() {
-        String forwardProxyHost = System.getenv("FORWARD_PROXY_HOST");
-        String forwardProxyPort = System.getenv("FORWARD_PROXY_PORT");
-        String dataSourceHostsEnv = System.getenv("FORWARD_PROXY_DATA_SOURCE_HOSTS");
-        if (forwardProxyHost == null || forwardProxyHost.isEmpty() ||
-            forwardProxyPort == null || forwardProxyPort.isEmpty() ||
-            dataSourceHostsEnv == null || dataSourceHostsEnv.isEmpty()) {
-            return (HttpRequest httpRequest,
-            Queue<ChainedProxy> chainedProxies,
-            ClientDetails clientDetails) -> {
-                chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
-            };
+  private static final Logger logger = Logger.getLogger(ChainedProxyConfiguration.class.getName());
+
+  private static final ChainedProxyManager DIRECT =
+      (httpRequest, chainedProxies, clientDetails) ->
+          chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+
+  public static ChainedProxyManager fromEnvironment() {
+    String dataSourceHosts = System.getenv("FORWARD_PROXY_DATA_SOURCE_HOSTS");
+    if (dataSourceHosts == null || dataSourceHosts.isEmpty()) {
+      return DIRECT;
+    }
+    List<InetSocketAddress> forwardProxies =
+        forwardProxyAddresses(
+            System.getenv("FORWARD_PROXY_HOSTS"),
+            System.getenv("FORWARD_PROXY_HOST"),
+            System.getenv("FORWARD_PROXY_PORT"));
+    if (forwardProxies.isEmpty()) {
+      return DIRECT;
+    }
+    ForwardProxyPool pool =
+        ForwardProxyPool.create(
+            forwardProxies,
+            System.getenv("FORWARD_PROXY_USERNAME"),
+            System.getenv("FORWARD_PROXY_PASSWORD"),
+            ForwardProxyPool.Selector.fromName(
+                System.getenv().getOrDefault("FORWARD_PROXY_SELECTION", "LEAST_OUTSTANDING"),
+                forwardProxies),
+            Duration.ofMillis(
+                Long.parseLong(
+                    System.getenv()
+                        .getOrDefault("FORWARD_PROXY_HEALTH_CHECK_INTERVAL_MS", "5000"))));
+    return create(pool, dataSourceHosts);
+  }
+
+  static ChainedProxyManager create(ForwardProxyPool pool, String dataSourceHosts) {
+    if (pool == null || dataSourceHosts == null || dataSourceHosts.isEmpty()) {
+      return DIRECT;
+    }
+    return new DataSourceRouter(HostTable.of(dataSourceHosts.split(",")), pool);
+  }
+
+  /**
+   * Parses {@code FORWARD_PROXY_HOSTS}, a comma-separated list of {@code host:port} entries, or
+   * falls back to the single {@code FORWARD_PROXY_HOST} and {@code FORWARD_PROXY_PORT}. The port
+   * of an entry defaults to {@code FORWARD_PROXY_PORT}.
+   */
+  static List<InetSocketAddress> forwardProxyAddresses(
+      String hostsList, String singleHost, String defaultPort) {
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    String hosts = hostsList != null && !hostsList.isBlank() ? hostsList : singleHost;
+    if (hosts == null || hosts.isBlank()) {
+      return addresses;
+    }
+    for (String entry : hosts.split(",")) {
+      if (entry.isBlank()) {
+        continue;
+      }
+      HostAndPort hostAndPort = HostAndPort.fromString(entry.trim());
+      if (hostAndPort.hasPort()) {
+        addresses.add(new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort()));
+      } else if (defaultPort != null && !defaultPort.isEmpty()) {
+        addresses.add(
+            new InetSocketAddress(hostAndPort.getHost(), Integer.parseInt(defaultPort)));
+      }
+    }
+    return addresses;
+  }
+
+  private record DataSourceRouter(HostTable dataSourceHosts, ForwardProxyPool forwardProxies)
+      implements ChainedProxyManager {
+    @Override
+    public void lookupChainedProxies(
+        HttpRequest httpRequest, Queue<ChainedProxy> chainedProxies, ClientDetails clientDetails) {
+      String hostHeader = httpRequest.headers().get(HttpHeaderNames.HOST);
+      if (hostHeader == null) {
+        chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+        logger.severe("No host header found, falling back to direct connection");
+        return;
+      }
+      int start = 0;
+      int end;
+      if (hostHeader.startsWith("[")) {
+        start = 1;
+        end = hostHeader.indexOf(']');
+      } else {
+        end = hostHeader.indexOf(':');
+      }
+      if (end < 0) {
+        end = hostHeader.length();
+      }
+      int hostHash = HostTable.hash(hostHeader, start, end);
+      if (dataSourceHosts.contains(hostHeader, start, end, hostHash)) {
+        forwardProxies.addChainedProxies(hostHash, chainedProxies);
+      } else {
+        chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+      }
+    }
+  }
+
+  /** Open-addressing set of hosts that can be probed with a region of a Host header. */
+  static final class HostTable {
+    private final String[] hosts;
+
+    private HostTable(String[] hosts) {
+      this.hosts = hosts;
+    }
+
+    static HostTable of(String... hosts) {
+      int capacity = Integer.highestOneBit(Math.max(1, hosts.length) * 4);
+      String[] table = new String[capacity];
+      int mask = capacity - 1;
+      for (String host : hosts) {
+        String trimmed = host.trim();
+        if (trimmed.isEmpty()) {
+          continue;
+        }
+        int slot = hash(trimmed, 0, trimmed.length()) & mask;
+        while (table[slot] != null && !table[slot].equals(trimmed)) {
+          slot = (slot + 1) & mask;
         }
-        InetSocketAddress forwardProxy = new InetSocketAddress(forwardProxyHost, Integer.parseInt(forwardProxyPort)); 
-        Set<String> dataSourceHosts = Set.of(dataSourceHostsEnv.split(","));
-        
-        ChainedProxyManager chainedProxyManager = (HttpRequest httpRequest,
-        Queue<ChainedProxy> chainedProxies,
-        ClientDetails clientDetails) -> {
-            String hostHeader = httpRequest.headers().get("Host");
-            if (hostHeader == null) {
-                chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
-                logger.severe("No host header found, falling back to direct connection");
-                return;
-            }
-            String host = hostHeader.split(":")[0];
-            
-            if (dataSourceHosts.contains(host)) {
-                chainedProxies.add(new ChainedProxyAdapter() {
-                    @Override
-                    public InetSocketAddress getChainedProxyAddress() {
-                        return forwardProxy;
-                    }
-                      
-                    @Override
-                    public String getUsername() {
-                        return System.getenv("FORWARD_PROXY_USERNAME");
-                    }
-                    
-                    @Override
-                    public String getPassword() {
-                        return System.getenv("FORWARD_PROXY_PASSWORD");
-                    }
-                });
-            } else {
-                chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
-            }
-        };
-        return chainedProxyManager;
+        table[slot] = trimmed;
+      }
+      return new HostTable(table);
+    }
+
+    boolean contains(String source, int start, int end, int hash) {
+      int length = end - start;
+      int mask = hosts.length - 1;
+      for (int slot = hash & mask; hosts[slot] != null; slot = (slot + 1) & mask) {
+        if (hosts[slot].length() == length && hosts[slot].regionMatches(0, source, start, length)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    static int hash(String source, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + source.charAt(i);
+      }
+      return h ^ (h >>> 16);
     }
+  }
 }
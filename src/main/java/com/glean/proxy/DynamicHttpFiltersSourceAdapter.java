@@ -1,19 +1,15 @@
 package com.glean.proxy;
 
-import com.glean.proxy.filters.CompositeFilter;
 import com.glean.proxy.filters.HttpNotFoundFilter;
-import com.glean.proxy.filters.InvalidCloudPlatformFilter;
 import com.glean.proxy.filters.LegacyRequestFilter;
 import com.glean.proxy.filters.LivenessCheckRequestFilter;
+import com.glean.proxy.filters.ReadinessCheckRequestFilter;
 import com.glean.proxy.filters.helpers.OnPremisesProxy;
+import com.glean.proxy.metrics.ProxyMetrics;
+import com.glean.proxy.metrics.ProxyMetrics.Route;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpRequest;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.BiFunction;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import org.littleshoot.proxy.HttpFilters;
 import org.littleshoot.proxy.HttpFiltersSourceAdapter;
 
@@ -22,70 +18,84 @@ public class DynamicHttpFiltersSourceAdapter extends HttpFiltersSourceAdapter {
   private static final Logger logger =
       Logger.getLogger(DynamicHttpFiltersSourceAdapter.class.getName());
   private final OnPremisesProxy legacyProxy = OnPremisesProxy.fromEnvironment();
-  private final String cloudPlatform = System.getenv("CLOUD_PLATFORM");
-
-  private final List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> awsFilters;
-  private final List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> gcpFilters;
-  private final List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>>
-      crossPlatformFilters;
-  private final List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> debugFilters;
+  private final FilterPlan filterPlan;
+  // Null when the access log is off.
+  private final AccessLog accessLog;
+  // Null when nothing reports established CONNECT tunnels to the filters.
+  private final TunnelEstablishedTracker tunnels;
+  private volatile boolean ready;
 
   public DynamicHttpFiltersSourceAdapter(FilterConfiguration config) {
-    awsFilters = new ArrayList<>(config.awsFilters());
-    gcpFilters = new ArrayList<>(config.gcpFilters());
-    crossPlatformFilters = new ArrayList<>(config.crossPlatformFilters());
-    debugFilters = new ArrayList<>(config.debugFilters());
+    this(config.compile(System.getenv("CLOUD_PLATFORM")));
+  }
+
+  public DynamicHttpFiltersSourceAdapter(FilterPlan filterPlan) {
+    this(filterPlan, null);
+  }
+
+  public DynamicHttpFiltersSourceAdapter(FilterPlan filterPlan, AccessLog accessLog) {
+    this(filterPlan, accessLog, null);
+  }
+
+  DynamicHttpFiltersSourceAdapter(
+      FilterPlan filterPlan, AccessLog accessLog, TunnelEstablishedTracker tunnels) {
+    this.filterPlan = filterPlan;
+    this.accessLog = accessLog;
+    this.tunnels = tunnels;
   }
 
-  // Adding a 5 MB buffer to ensure the HttpRequest is aggregated. Without this, the request may be
-  // received in chunks. This is necessary because we handle proxy-to-server connections ourselves
-  // for requests coming from the customer. By enabling aggregation, we avoid having to manually
-  // handle chunked requests. Note that the requests with size greater than 5 MB will automatically
-  // be rejected at an upper layer.
+  /** Makes {@code /readiness_check} succeed; until then it answers 503. */
+  public void markReady() {
+    ready = true;
+  }
+
+  // Requests are streamed to the server chunk by chunk rather than aggregated for every
+  // connection. The routes that forward requests themselves, legacy /proxy requests and upgraded
+  // HTTP requests, collect the body of just those requests before re-sending them; see
+  // UpgradeRequestHandler.sendUpgradedRequestAsync.
   @Override
   public int getMaximumRequestBufferSizeInBytes() {
-    return 5 * 1024 * 1024; // 5 mb
+    return 0;
   }
 
   @Override
   public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
-    logger.info("Proxying URI: " + originalRequest.uri());
-
+    ProxyMetrics metrics = filterPlan.metrics();
     if (originalRequest.uri().startsWith("/liveness_check")) {
+      record(Route.LIVENESS, originalRequest, ctx);
       return new LivenessCheckRequestFilter(originalRequest);
+    } else if (originalRequest.uri().startsWith("/readiness_check")) {
+      record(Route.READINESS, originalRequest, ctx);
+      return new ReadinessCheckRequestFilter(originalRequest, ready);
+    } else if (metrics != null && originalRequest.uri().startsWith("/proxy_metrics")) {
+      record(Route.METRICS, originalRequest, ctx);
+      return filterPlan.debugFilters(originalRequest, ctx);
     } else if (originalRequest.uri().startsWith("/proxy_debug")) {
-      List<HttpFilters> filters =
-          debugFilters.stream()
-              .map(filterConstructor -> filterConstructor.apply(originalRequest, ctx))
-              .collect(Collectors.toCollection(ArrayList::new));
-      return new CompositeFilter(originalRequest, filters);
+      record(Route.DEBUG, originalRequest, ctx);
+      return filterPlan.debugFilters(originalRequest, ctx);
     } else if (originalRequest.uri().startsWith("/proxy")) {
+      record(Route.INGRESS, originalRequest, ctx);
       if (legacyProxy != null) {
-        return new LegacyRequestFilter(originalRequest, legacyProxy);
+        return filterPlan.ingressFilters(
+            originalRequest, ctx, new LegacyRequestFilter(originalRequest, ctx, legacyProxy));
       } else {
         logger.fine("Using HttpNotFoundFilter as legacy proxy is null");
         return new HttpNotFoundFilter(originalRequest);
       }
     }
 
-    return switch (cloudPlatform) {
-      case "AWS" -> buildPlatformCompositeFilter(originalRequest, ctx, awsFilters);
-      case "GOOGLE" -> buildPlatformCompositeFilter(originalRequest, ctx, gcpFilters);
-      default ->
-          new InvalidCloudPlatformFilter(
-              originalRequest, String.format("Invalid cloud platform: %s", cloudPlatform));
-    };
+    record(Route.EGRESS, originalRequest, ctx);
+    HttpFilters filters = filterPlan.platformFilters(originalRequest, ctx);
+    return tunnels == null ? filters : tunnels.watch(originalRequest, ctx, filters);
   }
 
-  private CompositeFilter buildPlatformCompositeFilter(
-      HttpRequest originalRequest,
-      ChannelHandlerContext ctx,
-      List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> platformFilters) {
-    List<HttpFilters> filters =
-        Stream.concat(crossPlatformFilters.stream(), platformFilters.stream())
-            .map(filterConstructor -> filterConstructor.apply(originalRequest, ctx))
-            .collect(Collectors.toCollection(ArrayList::new));
-
-    return new CompositeFilter(originalRequest, filters);
+  private void record(Route route, HttpRequest originalRequest, ChannelHandlerContext ctx) {
+    ProxyMetrics metrics = filterPlan.metrics();
+    if (metrics != null) {
+      metrics.recordRequest(route);
+    }
+    if (accessLog != null) {
+      accessLog.log(route, originalRequest, ctx == null ? null : ctx.channel().remoteAddress());
+    }
   }
 }
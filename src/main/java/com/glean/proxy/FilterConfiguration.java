@@ -6,10 +6,21 @@ import com.glean.proxy.filters.GCPDisallowInternalAddressFilter;
 import com.glean.proxy.filters.IpAddressRequestFilter;
 import com.glean.proxy.filters.IpAddressRequestFilter.ALLOWED_PROXY_ADDRESS_TYPE;
 import com.glean.proxy.filters.ProxyDebugFilter;
+import com.glean.proxy.filters.RateLimitFilter;
 import com.glean.proxy.filters.UpgradeRequestFilter;
 import com.glean.proxy.filters.helpers.AllowedEgressDomains;
+import com.glean.proxy.filters.helpers.AsyncNicResolver;
+import com.glean.proxy.filters.helpers.CachedNicResolver;
+import com.glean.proxy.filters.helpers.CidrSet;
+import com.glean.proxy.filters.helpers.DenyEventAggregator;
+import com.glean.proxy.filters.helpers.ExecutorAsyncNicResolver;
+import com.glean.proxy.filters.helpers.IpRouteNicResolver;
+import com.glean.proxy.filters.helpers.NicResolver;
+import com.glean.proxy.filters.helpers.RateLimiter;
+import com.glean.proxy.filters.helpers.RoutingTableNicResolver;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpRequest;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -28,6 +39,9 @@ public record FilterConfiguration(
 
   private static final Logger logger = Logger.getLogger(FilterConfiguration.class.getName());
 
+  // Shared by every filter that denies requests, so that one summary covers all their chains.
+  private static final DenyEventAggregator denyEvents = DenyEventAggregator.fromEnvironment();
+
   private static final Map<
           String, Supplier<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>>>
       filterRegistry =
@@ -37,9 +51,11 @@ public record FilterConfiguration(
                   // AWS filters
                   AwsDisallowInternalAddressForTransitVpc.class.getSimpleName(),
                   () -> {
-                    String webhookTarget = System.getenv("WEBHOOK_TARGET");
+                    CidrSet internalAddresses =
+                        AwsDisallowInternalAddressForTransitVpc.webhookTargetAddresses(
+                            System.getenv("WEBHOOK_TARGET"));
                     return (request, ctx) ->
-                        new AwsDisallowInternalAddressForTransitVpc(request, webhookTarget);
+                        new AwsDisallowInternalAddressForTransitVpc(request, internalAddresses);
                   },
                   AwsFilterEgressTrafficByDomain.class.getSimpleName(),
                   () -> {
@@ -49,16 +65,36 @@ public record FilterConfiguration(
                         new AllowedEgressDomains(System.getenv("ALLOWED_EGRESS_DOMAINS"));
                     return (request, ctx) ->
                         new AwsFilterEgressTrafficByDomain(
-                            request, enforceAllowedEgressDomains, allowedEgressDomains);
+                            request, enforceAllowedEgressDomains, allowedEgressDomains, denyEvents);
                   },
 
                   // GCP filters
                   GCPDisallowInternalAddressFilter.class.getSimpleName(),
                   () -> {
                     String proxyType = System.getenv("PROXY_TYPE");
-                    String gkeServiceIpRange = System.getenv("GKE_SERVICE_IP_RANGE");
+                    CidrSet googleManagedRanges =
+                        CidrSet.parse(System.getenv("GKE_SERVICE_IP_RANGE"));
+                    NicResolver nicResolver = new CachedNicResolver(nicResolverFromEnvironment());
+                    if ("true".equalsIgnoreCase(System.getenv("ASYNC_NIC_RESOLUTION"))) {
+                      AsyncNicResolver asyncNicResolver =
+                          new ExecutorAsyncNicResolver(nicResolver, 4, 1000);
+                      Duration verdictTimeout =
+                          Duration.ofMillis(
+                              Long.parseLong(
+                                  System.getenv()
+                                      .getOrDefault("NIC_RESOLUTION_TIMEOUT_MS", "5000")));
+                      return (request, ctx) ->
+                          new GCPDisallowInternalAddressFilter(
+                              request,
+                              ctx,
+                              proxyType,
+                              asyncNicResolver,
+                              verdictTimeout,
+                              googleManagedRanges);
+                    }
                     return (request, ctx) ->
-                        new GCPDisallowInternalAddressFilter(request, proxyType, gkeServiceIpRange);
+                        new GCPDisallowInternalAddressFilter(
+                            request, proxyType, nicResolver, googleManagedRanges);
                   },
 
                   // Cross-platform filters
@@ -70,19 +106,35 @@ public record FilterConfiguration(
                             System.getenv("ALLOWED_PROXY_ADDRESS_TYPE"));
                     return (request, ctx) ->
                         new IpAddressRequestFilter(
-                            request, ctx, requiredIpAddress, allowedProxyAddressType);
+                            request, ctx, requiredIpAddress, allowedProxyAddressType, denyEvents);
+                  },
+                  RateLimitFilter.class.getSimpleName(),
+                  () -> {
+                    RateLimiter rateLimiter = RateLimiter.parse(System.getenv("RATE_LIMITS"));
+                    // Without limits the filter is left out of the chain instead of passing
+                    // every request.
+                    if (rateLimiter.isEmpty()) {
+                      return (request, ctx) -> null;
+                    }
+                    return (request, ctx) -> new RateLimitFilter(request, ctx, rateLimiter);
                   },
                   UpgradeRequestFilter.class.getSimpleName(),
                   () -> {
                     boolean upgradeHttpRequests =
                         "true".equalsIgnoreCase(System.getenv("UPGRADE_HTTP_REQUESTS"));
-                    return (request, ctx) -> new UpgradeRequestFilter(request, upgradeHttpRequests);
+                    return (request, ctx) ->
+                        new UpgradeRequestFilter(request, ctx, upgradeHttpRequests);
                   },
 
                   // Debug filters
                   ProxyDebugFilter.class.getSimpleName(),
                   () -> (request, ctx) -> new ProxyDebugFilter(request)));
 
+  /** Counts the requests the registered filters deny. */
+  public static DenyEventAggregator denyEvents() {
+    return denyEvents;
+  }
+
   /**
    * Can be called before creating a FilterConfiguration to add custom filters. Example usage:
    *
@@ -107,6 +159,14 @@ public record FilterConfiguration(
         buildFilters(debugFilters));
   }
 
+  /**
+   * Resolves the filter chains for the given cloud platform once, so that per-request filter
+   * construction does not need to re-evaluate the platform or concatenate filter lists.
+   */
+  public FilterPlan compile(String cloudPlatform) {
+    return FilterPlan.compile(this, cloudPlatform);
+  }
+
   public static FilterConfiguration fromEnvironment() {
     String defaultAwsFilters =
         String.join(
@@ -123,6 +183,7 @@ public record FilterConfiguration(
         String.join(
             ",",
             IpAddressRequestFilter.class.getSimpleName(),
+            RateLimitFilter.class.getSimpleName(),
             UpgradeRequestFilter.class.getSimpleName());
     String crossPlatformFiltersString =
         System.getenv().getOrDefault("CROSS_PLATFORM_FILTERS", defaultCrossPlatformFilters);
@@ -141,6 +202,19 @@ public record FilterConfiguration(
         Arrays.asList(debugFiltersString.split(",")));
   }
 
+  // Reading the routing table in-process avoids forking `ip route get` on a Netty worker thread,
+  // so it is preferred whenever /proc/net/route is available.
+  private static NicResolver nicResolverFromEnvironment() {
+    String defaultNicResolver =
+        RoutingTableNicResolver.isAvailable() ? "ROUTING_TABLE" : "IP_ROUTE";
+    String nicResolver = System.getenv().getOrDefault("NIC_RESOLVER", defaultNicResolver);
+    return switch (nicResolver) {
+      case "ROUTING_TABLE" -> new RoutingTableNicResolver(Duration.ofSeconds(5));
+      case "IP_ROUTE" -> new IpRouteNicResolver();
+      default -> throw new IllegalArgumentException("Unknown NIC_RESOLVER: " + nicResolver);
+    };
+  }
+
   private static List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> buildFilters(
       List<String> filterNames) {
     List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> filters = new ArrayList<>();
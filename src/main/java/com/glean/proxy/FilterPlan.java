@@ -0,0 +1,343 @@
+package com.glean.proxy;
+
+import com.glean.proxy.filters.CircuitBreakerDebugFilter;
+import com.glean.proxy.filters.CircuitBreakerFilter;
+import com.glean.proxy.filters.CompositeFilter;
+import com.glean.proxy.filters.DenyEventsDebugFilter;
+import com.glean.proxy.filters.EventLoopLagFilter;
+import com.glean.proxy.filters.InvalidCloudPlatformFilter;
+import com.glean.proxy.filters.MetricsFilter;
+import com.glean.proxy.filters.PhaseTimingFilter;
+import com.glean.proxy.filters.ProxyDebugFilter;
+import com.glean.proxy.filters.TopHostsDebugFilter;
+import com.glean.proxy.filters.TopHostsFilter;
+import com.glean.proxy.filters.TrafficShapingDebugFilter;
+import com.glean.proxy.filters.TrafficShapingFilter;
+import com.glean.proxy.filters.TunnelRelayFilter;
+import com.glean.proxy.filters.UpstreamTimeoutFilter;
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import com.glean.proxy.filters.helpers.DenyEventAggregator;
+import com.glean.proxy.filters.helpers.EventLoopLagMonitor;
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable;
+import com.glean.proxy.filters.helpers.TrafficClass;
+import com.glean.proxy.filters.helpers.TrafficShaper;
+import com.glean.proxy.filters.helpers.TunnelRelay;
+import com.glean.proxy.metrics.ProxyMetrics;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import org.littleshoot.proxy.HttpFilters;
+
+/**
+ * The filter chains of a {@link FilterConfiguration} resolved for a single cloud platform. Built
+ * once at startup so that creating the filters for a request only walks fixed arrays.
+ */
+public final class FilterPlan {
+  private final BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] platformFilters;
+  private final BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] debugFilters;
+  // Filters for the upstream connection itself, added after the platform filters of requests
+  // that open one. Each returns null for requests it does not apply to.
+  private final BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] connectionFilters;
+  // Filters that answer debug requests for one path each and pass the others on. They are placed
+  // after the configured debug filters that restrict access, ahead of ProxyDebugFilter, which
+  // rejects every path it does not know.
+  private final BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] debugEndpoints;
+  // Set when the platform could not be resolved; every platform request is then rejected.
+  private final String invalidPlatformMessage;
+  // Null when metrics are off.
+  private final ProxyMetrics metrics;
+
+  private FilterPlan(
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] platformFilters,
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] debugFilters,
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] connectionFilters,
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] debugEndpoints,
+      String invalidPlatformMessage,
+      ProxyMetrics metrics) {
+    this.platformFilters = platformFilters;
+    this.debugFilters = debugFilters;
+    this.connectionFilters = connectionFilters;
+    this.debugEndpoints = debugEndpoints;
+    this.invalidPlatformMessage = invalidPlatformMessage;
+    this.metrics = metrics;
+  }
+
+  static FilterPlan compile(FilterConfiguration config, String cloudPlatform) {
+    List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> platformSpecificFilters =
+        cloudPlatform == null
+            ? null
+            : switch (cloudPlatform) {
+              case "AWS" -> config.awsFilters();
+              case "GOOGLE" -> config.gcpFilters();
+              default -> null;
+            };
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] debugFilters =
+        toArray(config.debugFilters(), List.of());
+    if (platformSpecificFilters == null) {
+      return new FilterPlan(
+          toArray(List.of(), List.of()),
+          debugFilters,
+          toArray(List.of(), List.of()),
+          toArray(List.of(), List.of()),
+          String.format("Invalid cloud platform: %s", cloudPlatform),
+          null);
+    }
+    return new FilterPlan(
+        toArray(config.crossPlatformFilters(), platformSpecificFilters),
+        debugFilters,
+        toArray(List.of(), List.of()),
+        toArray(List.of(), List.of()),
+        null,
+        null);
+  }
+
+  /** The same plan, with allowed CONNECT tunnels switched to bulk relay if a relay is given. */
+  public FilterPlan withTunnelRelay(TunnelRelay tunnelRelay) {
+    if (tunnelRelay == null) {
+      return this;
+    }
+    return withConnectionFilter(
+        (request, ctx) ->
+            HttpMethod.CONNECT.equals(request.method())
+                ? new TunnelRelayFilter(request, ctx, tunnelRelay)
+                : null);
+  }
+
+  /** The same plan, with the given timeouts applied to upstream connections unless it is empty. */
+  public FilterPlan withTimeoutPolicies(TimeoutPolicyTable timeoutPolicies) {
+    if (timeoutPolicies == null || timeoutPolicies.isEmpty()) {
+      return this;
+    }
+    return withConnectionFilter(
+        (request, ctx) -> new UpstreamTimeoutFilter(request, ctx, timeoutPolicies));
+  }
+
+  /**
+   * The same plan, with egress requests to destinations whose circuit breaker is open turned away
+   * if a registry is given. The breakers are listed at {@code /proxy_debug/circuit_breakers}.
+   */
+  public FilterPlan withCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+    if (circuitBreakers == null) {
+      return this;
+    }
+    // Webhook ingress goes to the single on-premises target, which has nowhere else to fail over.
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> connectionFilter =
+        (request, ctx) ->
+            TrafficClass.of(request) == TrafficClass.WEBHOOK_INGRESS
+                ? null
+                : new CircuitBreakerFilter(request, ctx, circuitBreakers);
+    return withConnectionFilter(connectionFilter)
+        .withDebugEndpoint(
+            (request, ctx) -> new CircuitBreakerDebugFilter(request, circuitBreakers));
+  }
+
+  /**
+   * The same plan, with the given bandwidth limits applied to upstream connections unless there
+   * are none. The throughput of each limited traffic class is listed at {@code
+   * /proxy_debug/traffic}.
+   */
+  public FilterPlan withTrafficShaping(TrafficShaper trafficShaper) {
+    if (trafficShaper == null || trafficShaper.isEmpty()) {
+      return this;
+    }
+    return withConnectionFilter(
+            (request, ctx) -> new TrafficShapingFilter(request, ctx, trafficShaper))
+        .withDebugEndpoint((request, ctx) -> new TrafficShapingDebugFilter(request, trafficShaper));
+  }
+
+  /** The same plan, with the monitor's loops listed at {@code /proxy_debug/event_loops}. */
+  public FilterPlan withEventLoopLagMonitor(EventLoopLagMonitor eventLoopLagMonitor) {
+    if (eventLoopLagMonitor == null) {
+      return this;
+    }
+    return withDebugEndpoint(
+        (request, ctx) -> new EventLoopLagFilter(request, eventLoopLagMonitor));
+  }
+
+  /**
+   * The same plan, with the hosts and clients denied the most requests listed at {@code
+   * /proxy_debug/denied}.
+   */
+  public FilterPlan withDenyEvents(DenyEventAggregator denyEvents) {
+    if (denyEvents == null) {
+      return this;
+    }
+    return withDebugEndpoint((request, ctx) -> new DenyEventsDebugFilter(request, denyEvents));
+  }
+
+  /**
+   * The same plan, with the destinations of platform and ingress requests counted in {@code
+   * heavyHitters} if given, and the top ones listed at {@code /proxy_debug/top_hosts}.
+   */
+  public FilterPlan withTopHosts(HostHeavyHitters heavyHitters) {
+    if (heavyHitters == null) {
+      return this;
+    }
+    return withConnectionFilter((request, ctx) -> new TopHostsFilter(request, ctx, heavyHitters))
+        .withDebugEndpoint((request, ctx) -> new TopHostsDebugFilter(request, heavyHitters));
+  }
+
+  private FilterPlan withConnectionFilter(
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> connectionFilter) {
+    return new FilterPlan(
+        platformFilters,
+        debugFilters,
+        toArray(Arrays.asList(connectionFilters), List.of(connectionFilter)),
+        debugEndpoints,
+        invalidPlatformMessage,
+        metrics);
+  }
+
+  private FilterPlan withDebugEndpoint(
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> debugEndpoint) {
+    return new FilterPlan(
+        platformFilters,
+        debugFilters,
+        connectionFilters,
+        toArray(Arrays.asList(debugEndpoints), List.of(debugEndpoint)),
+        invalidPlatformMessage,
+        metrics);
+  }
+
+  /**
+   * The same plan, with each filter's hook latencies and verdicts recorded in {@code metrics} if
+   * given, the phases of each upstream request timed, and the metrics served at {@code
+   * /proxy_metrics} behind the debug access filters.
+   */
+  public FilterPlan withMetrics(ProxyMetrics metrics) {
+    if (metrics == null) {
+      return this;
+    }
+    return new FilterPlan(
+        platformFilters,
+        debugFilters,
+        toArray(
+            Arrays.asList(connectionFilters),
+            List.of(
+                (request, ctx) -> new PhaseTimingFilter(request, ctx, metrics.upstreamPhases()))),
+        toArray(
+            Arrays.asList(debugEndpoints),
+            List.of((request, ctx) -> new MetricsFilter(request, metrics))),
+        invalidPlatformMessage,
+        metrics);
+  }
+
+  /** Null unless the plan was given metrics. */
+  public ProxyMetrics metrics() {
+    return metrics;
+  }
+
+  public boolean isPlatformValid() {
+    return invalidPlatformMessage == null;
+  }
+
+  public int platformFilterCount() {
+    return platformFilters.length;
+  }
+
+  public int debugFilterCount() {
+    return debugFilters.length;
+  }
+
+  public HttpFilters platformFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+    if (invalidPlatformMessage != null) {
+      return new InvalidCloudPlatformFilter(originalRequest, invalidPlatformMessage);
+    }
+    HttpFilters[] filters = new HttpFilters[platformFilters.length + connectionFilters.length];
+    int count = instantiate(platformFilters, originalRequest, ctx, filters, 0);
+    count = instantiate(connectionFilters, originalRequest, ctx, filters, count);
+    return new CompositeFilter(
+        originalRequest,
+        count == filters.length ? filters : Arrays.copyOf(filters, count),
+        metrics);
+  }
+
+  /**
+   * The filters for requests to {@code /proxy}, which {@code ingressFilter} forwards to the
+   * on-premises target.
+   */
+  public HttpFilters ingressFilters(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, HttpFilters ingressFilter) {
+    if (connectionFilters.length == 0 && metrics == null) {
+      return ingressFilter;
+    }
+    HttpFilters[] filters = new HttpFilters[1 + connectionFilters.length];
+    filters[0] = ingressFilter;
+    int count = instantiate(connectionFilters, originalRequest, ctx, filters, 1);
+    return count == 1 && metrics == null
+        ? ingressFilter
+        : new CompositeFilter(
+            originalRequest,
+            count == filters.length ? filters : Arrays.copyOf(filters, count),
+            metrics);
+  }
+
+  /**
+   * The configured platform filters alone, for synthetic requests that prime their caches. Nothing
+   * that only applies to served requests is added to them.
+   */
+  HttpFilters warmUpFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+    HttpFilters[] filters = new HttpFilters[platformFilters.length];
+    int count = instantiate(platformFilters, originalRequest, ctx, filters, 0);
+    return new CompositeFilter(
+        originalRequest, count == filters.length ? filters : Arrays.copyOf(filters, count));
+  }
+
+  public HttpFilters debugFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+    HttpFilters[] filters = new HttpFilters[debugFilters.length + debugEndpoints.length];
+    int count = instantiate(debugFilters, originalRequest, ctx, filters, 0);
+    if (debugEndpoints.length > 0) {
+      int at = 0;
+      while (at < count && !(filters[at] instanceof ProxyDebugFilter)) {
+        at++;
+      }
+      HttpFilters[] endpoints = new HttpFilters[debugEndpoints.length];
+      int endpointCount = instantiate(debugEndpoints, originalRequest, ctx, endpoints, 0);
+      System.arraycopy(filters, at, filters, at + endpointCount, count - at);
+      System.arraycopy(endpoints, 0, filters, at, endpointCount);
+      count += endpointCount;
+    }
+    return new CompositeFilter(
+        originalRequest,
+        count == filters.length ? filters : Arrays.copyOf(filters, count),
+        metrics);
+  }
+
+  /** Fills {@code filters} from {@code start}, skipping nulls, and returns the new count. */
+  private static int instantiate(
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] constructors,
+      HttpRequest originalRequest,
+      ChannelHandlerContext ctx,
+      HttpFilters[] filters,
+      int start) {
+    int count = start;
+    for (BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> constructor : constructors) {
+      HttpFilters filter = constructor.apply(originalRequest, ctx);
+      if (filter != null) {
+        filters[count++] = filter;
+      }
+    }
+    return count;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] toArray(
+      List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> first,
+      List<BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>> second) {
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[] constructors =
+        (BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters>[])
+            new BiFunction<?, ?, ?>[first.size() + second.size()];
+    int i = 0;
+    for (BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> constructor : first) {
+      constructors[i++] = constructor;
+    }
+    for (BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> constructor : second) {
+      constructors[i++] = constructor;
+    }
+    return constructors;
+  }
+}
@@ -0,0 +1,286 @@
+package com.glean.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+
+/**
+ * Forward proxies that data source traffic is spread across. A {@link Selector} picks the preferred
+ * member for a request and the other healthy members are queued behind it, so LittleProxy falls
+ * back to them if connecting through the preferred one fails.
+ *
+ * <p>Members are ejected after failing {@code FAILURES_TO_EJECT} consecutive TCP health checks and
+ * re-admitted after passing {@code SUCCESSES_TO_READMIT}. If every member is ejected, all of them
+ * are offered anyway, since data sources may only accept connections from the forward proxies.
+ */
+public final class ForwardProxyPool {
+  private static final Logger logger = Logger.getLogger(ForwardProxyPool.class.getName());
+
+  private static final int FAILURES_TO_EJECT = 2;
+  private static final int SUCCESSES_TO_READMIT = 2;
+  private static final int MAX_HEALTH_CHECK_TIMEOUT_MS = 2000;
+
+  private final Member[] members;
+  private final Selector selector;
+  private volatile Member[] healthyMembers;
+
+  ForwardProxyPool(
+      List<InetSocketAddress> addresses, String username, String password, Selector selector) {
+    this.members = new Member[addresses.size()];
+    for (int i = 0; i < members.length; i++) {
+      members[i] = new Member(addresses.get(i), username, password);
+    }
+    this.selector = selector;
+    this.healthyMembers = members;
+  }
+
+  /**
+   * Creates a pool over {@code addresses}. With more than one member, each is health checked every
+   * {@code healthCheckInterval}; a zero interval disables health checks.
+   */
+  public static ForwardProxyPool create(
+      List<InetSocketAddress> addresses,
+      String username,
+      String password,
+      Selector selector,
+      Duration healthCheckInterval) {
+    ForwardProxyPool pool = new ForwardProxyPool(addresses, username, password, selector);
+    if (addresses.size() > 1 && !healthCheckInterval.isZero()) {
+      pool.startHealthChecks(healthCheckInterval);
+    }
+    return pool;
+  }
+
+  /** Queues the members to try for a request to a host with the given hash, preferred first. */
+  void addChainedProxies(int hostHash, Queue<ChainedProxy> chainedProxies) {
+    Member[] healthy = healthyMembers;
+    selector.addInOrder(healthy.length > 0 ? healthy : members, hostHash, chainedProxies);
+  }
+
+  Member[] members() {
+    return members;
+  }
+
+  private void startHealthChecks(Duration interval) {
+    int timeoutMs = (int) Math.min(interval.toMillis(), MAX_HEALTH_CHECK_TIMEOUT_MS);
+    ScheduledExecutorService healthChecker =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "forward-proxy-health-check");
+              thread.setDaemon(true);
+              return thread;
+            });
+    healthChecker.scheduleWithFixedDelay(
+        () -> checkHealth(timeoutMs),
+        interval.toMillis(),
+        interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void checkHealth(int timeoutMs) {
+    for (Member member : members) {
+      recordHealthCheck(member, isReachable(member.getChainedProxyAddress(), timeoutMs));
+    }
+  }
+
+  // Only called from the health check thread, or from tests.
+  void recordHealthCheck(Member member, boolean passed) {
+    boolean wasHealthy = member.healthy;
+    if (passed) {
+      member.consecutiveFailures = 0;
+      member.consecutiveSuccesses++;
+      if (!wasHealthy && member.consecutiveSuccesses >= SUCCESSES_TO_READMIT) {
+        member.healthy = true;
+        logger.info("Re-admitted forward proxy " + member.getChainedProxyAddress());
+      }
+    } else {
+      member.consecutiveSuccesses = 0;
+      member.consecutiveFailures++;
+      if (wasHealthy && member.consecutiveFailures >= FAILURES_TO_EJECT) {
+        member.healthy = false;
+        logger.warning("Ejected forward proxy " + member.getChainedProxyAddress());
+      }
+    }
+    if (member.healthy != wasHealthy) {
+      healthyMembers = Arrays.stream(members).filter(m -> m.healthy).toArray(Member[]::new);
+    }
+  }
+
+  private static boolean isReachable(InetSocketAddress address, int timeoutMs) {
+    try (Socket socket = new Socket()) {
+      socket.connect(address, timeoutMs);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Orders candidate members for a request. */
+  public interface Selector {
+    /** Adds every one of {@code candidates} to {@code chainedProxies}, preferred first. */
+    void addInOrder(Member[] candidates, int hostHash, Queue<ChainedProxy> chainedProxies);
+
+    static Selector fromName(String name, List<InetSocketAddress> addresses) {
+      return switch (name) {
+        case "LEAST_OUTSTANDING" -> new LeastOutstanding();
+        case "CONSISTENT_HASH" -> new ConsistentHash(addresses);
+        default -> throw new IllegalArgumentException("Unknown FORWARD_PROXY_SELECTION: " + name);
+      };
+    }
+  }
+
+  /**
+   * Prefers the member with the fewest open connections. Ties are broken round-robin so that an
+   * idle pool does not send every new connection to the first member.
+   */
+  static final class LeastOutstanding implements Selector {
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    @Override
+    public void addInOrder(Member[] candidates, int hostHash, Queue<ChainedProxy> chainedProxies) {
+      int start = Math.floorMod(nextStart.getAndIncrement(), candidates.length);
+      int best = start;
+      for (int i = 1; i < candidates.length; i++) {
+        int index = (start + i) % candidates.length;
+        if (candidates[index].outstanding.get() < candidates[best].outstanding.get()) {
+          best = index;
+        }
+      }
+      chainedProxies.add(candidates[best]);
+      for (int i = 0; i < candidates.length; i++) {
+        if (i != best) {
+          chainedProxies.add(candidates[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends each host to the same member while it is healthy, so the forward proxies' caches and
+   * connection pools see a stable subset of hosts. Hosts of an ejected member move to the next
+   * members on the ring; the other hosts keep their member.
+   */
+  static final class ConsistentHash implements Selector {
+    private static final int VIRTUAL_NODES_PER_MEMBER = 100;
+
+    private final int[] ringHashes;
+    private final InetSocketAddress[] ringAddresses;
+
+    ConsistentHash(List<InetSocketAddress> addresses) {
+      List<long[]> ring = new ArrayList<>();
+      for (int i = 0; i < addresses.size(); i++) {
+        for (int node = 0; node < VIRTUAL_NODES_PER_MEMBER; node++) {
+          ring.add(new long[] {mix((addresses.get(i).toString() + "#" + node).hashCode()), i});
+        }
+      }
+      ring.sort((a, b) -> Long.compare(a[0], b[0]));
+      ringHashes = new int[ring.size()];
+      ringAddresses = new InetSocketAddress[ring.size()];
+      for (int i = 0; i < ring.size(); i++) {
+        ringHashes[i] = (int) ring.get(i)[0];
+        ringAddresses[i] = addresses.get((int) ring.get(i)[1]);
+      }
+    }
+
+    @Override
+    public void addInOrder(Member[] candidates, int hostHash, Queue<ChainedProxy> chainedProxies) {
+      int position = Arrays.binarySearch(ringHashes, mix(hostHash));
+      if (position < 0) {
+        position = -position - 1;
+      }
+      int added = 0;
+      for (int i = 0; i < ringHashes.length && added < candidates.length; i++) {
+        Member member = find(candidates, ringAddresses[(position + i) % ringHashes.length]);
+        if (member != null && !chainedProxies.contains(member)) {
+          chainedProxies.add(member);
+          added++;
+        }
+      }
+    }
+
+    private static Member find(Member[] candidates, InetSocketAddress address) {
+      for (Member candidate : candidates) {
+        if (candidate.getChainedProxyAddress().equals(address)) {
+          return candidate;
+        }
+      }
+      return null;
+    }
+
+    // Spreads similar hashes, such as those of hosts that differ in one character, over the ring.
+    private static int mix(int hash) {
+      hash ^= hash >>> 16;
+      hash *= 0x85ebca6b;
+      hash ^= hash >>> 13;
+      hash *= 0xc2b2ae35;
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  /**
+   * One forward proxy, shared by every request routed through it. LittleProxy's connection
+   * callbacks keep an approximate count of the connections open through it: a connection that
+   * fails after the TCP connect is reported as disconnected without having succeeded, so the count
+   * is kept from going negative rather than paired exactly.
+   */
+  public static final class Member extends ChainedProxyAdapter {
+    private final InetSocketAddress address;
+    private final String username;
+    private final String password;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private int consecutiveFailures;
+    private int consecutiveSuccesses;
+
+    private Member(InetSocketAddress address, String username, String password) {
+      this.address = address;
+      this.username = username;
+      this.password = password;
+    }
+
+    @Override
+    public InetSocketAddress getChainedProxyAddress() {
+      return address;
+    }
+
+    @Override
+    public String getUsername() {
+      return username;
+    }
+
+    @Override
+    public String getPassword() {
+      return password;
+    }
+
+    @Override
+    public void connectionSucceeded() {
+      outstanding.incrementAndGet();
+    }
+
+    @Override
+    public void disconnected() {
+      outstanding.updateAndGet(count -> Math.max(0, count - 1));
+    }
+
+    int outstanding() {
+      return outstanding.get();
+    }
+
+    boolean isHealthy() {
+      return healthy;
+    }
+  }
+}
@@ -1,44 +1,140 @@
 package com.glean.proxy;
 
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import com.glean.proxy.filters.helpers.EventLoopLagMonitor;
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import com.glean.proxy.filters.helpers.NettyHttpsClient;
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable;
+import com.glean.proxy.filters.helpers.TrafficShaper;
+import com.glean.proxy.metrics.ProxyMetrics;
+import io.netty.channel.EventLoopGroup;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import org.littleshoot.proxy.ChainedProxyManager;
+import org.littleshoot.proxy.DefaultHostResolver;
+import org.littleshoot.proxy.HostResolver;
 import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.TransportProtocol;
 import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.ServerGroup;
 import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
 
 public class ProxyNetworking {
   private static final Logger logger = Logger.getLogger(ProxyNetworking.class.getName());
 
   protected final ThreadPoolConfiguration threadPoolConfiguration;
+  protected final TransportConfiguration transportConfiguration;
   protected final FilterConfiguration filterConfiguration;
   protected final ChainedProxyManager chainedProxyManager;
+  protected final HostResolver hostResolver;
+  protected final TimeoutPolicyTable timeoutPolicies;
+  protected final CircuitBreakerRegistry circuitBreakers;
+  protected final TrafficShaper trafficShaper;
+  protected final ProxyWarmUp warmUp;
 
   public void run(int port) {
+    if (hostResolver instanceof CachingDnsResolver cachingResolver) {
+      // Upgraded requests then share the proxy's DNS cache.
+      NettyHttpsClient.useResolver(cachingResolver.addressResolverGroup());
+    }
+    // Shared by every listener, and kept so that warm-up and the lag monitor can reach its worker
+    // event loops.
+    ProxyServerGroup serverGroup =
+        new ProxyServerGroup("LittleProxy", threadPoolConfiguration, transportConfiguration);
+    EventLoopLagMonitor lagMonitor = createEventLoopLagMonitorFromEnvironment(serverGroup);
+    HostHeavyHitters topHosts = createTopHostsFromEnvironment();
+    // Compiled here rather than by the filters source so that warm-up primes the same caches.
+    FilterPlan filterPlan =
+        filterConfiguration
+            .compile(System.getenv("CLOUD_PLATFORM"))
+            .withCircuitBreakers(circuitBreakers)
+            .withTunnelRelay(transportConfiguration.tunnelRelay())
+            .withTimeoutPolicies(timeoutPolicies)
+            .withTrafficShaping(trafficShaper)
+            .withEventLoopLagMonitor(lagMonitor)
+            .withDenyEvents(FilterConfiguration.denyEvents())
+            .withTopHosts(topHosts)
+            .withMetrics(createMetricsFromEnvironment());
+    AccessLog accessLog = createAccessLogFromEnvironment();
+    if (accessLog != null && filterPlan.metrics() != null) {
+      filterPlan
+          .metrics()
+          .addCounter(
+              "proxy_access_log_dropped_total",
+              "Access log records dropped because the buffer was full.",
+              accessLog::dropped);
+    }
+    TunnelEstablishedTracker tunnels = new TunnelEstablishedTracker();
     DynamicHttpFiltersSourceAdapter filtersSource =
-        new DynamicHttpFiltersSourceAdapter(filterConfiguration);
-
-    final HttpProxyServer server =
-        DefaultHttpProxyServer.bootstrap()
-            .withAddress(new InetSocketAddress(port))
-            .withConnectTimeout(1200000) // millis
-            .withIdleConnectionTimeout(1200) // seconds
-            .withThreadPoolConfiguration(threadPoolConfiguration)
-            .withFiltersSource(filtersSource)
-            .withChainProxyManager(chainedProxyManager)
-            .start();
+        new DynamicHttpFiltersSourceAdapter(filterPlan, accessLog, tunnels);
+
+    TimeoutPolicyTable.Policy defaultTimeouts = timeoutPolicies.defaultPolicy();
+    // With SO_REUSEPORT each listener is a separate LittleProxy server bound to the same port.
+    List<HttpProxyServer> servers = new ArrayList<>();
+    for (int i = 0; i < Math.max(1, transportConfiguration.getReusePortListeners()); i++) {
+      HttpProxyServerBootstrap bootstrap =
+          DefaultHttpProxyServer.bootstrap()
+              .withAddress(new InetSocketAddress(port))
+              .withConnectTimeout((int) defaultTimeouts.connectTimeout().toMillis())
+              .withIdleConnectionTimeout((int) defaultTimeouts.idleTimeout().toSeconds())
+              .withServerGroup(serverGroup)
+              .withFiltersSource(filtersSource)
+              .withChainProxyManager(chainedProxyManager)
+              .withServerResolver(hostResolver)
+              .plusActivityTracker(tunnels);
+      if (topHosts != null) {
+        bootstrap.plusActivityTracker(new TopHostsActivityTracker(topHosts));
+      }
+      servers.add(bootstrap.start());
+    }
+    if (warmUp != null) {
+      warmUp.run(
+          hostResolver,
+          filterPlan,
+          serverGroup.getClientToProxyWorkerPoolForTransport(TransportProtocol.TCP));
+    }
+    if (lagMonitor != null) {
+      lagMonitor.start();
+    }
+    if (accessLog != null) {
+      accessLog.start();
+    }
+    FilterConfiguration.denyEvents().start();
+    filtersSource.markReady();
+    logger.info("Proxy is ready");
     try {
       Thread.sleep(Long.MAX_VALUE);
     } catch (InterruptedException e) {
       logger.info("Interrupted");
     }
-    server.abort();
+    if (lagMonitor != null) {
+      lagMonitor.stop();
+    }
+    servers.forEach(HttpProxyServer::abort);
+    FilterConfiguration.denyEvents().stop();
+    if (accessLog != null) {
+      accessLog.stop();
+    }
   }
 
   private ProxyNetworking(Builder builder) {
     threadPoolConfiguration = builder.threadPoolConfiguration;
+    transportConfiguration = builder.transportConfiguration;
     filterConfiguration = builder.filterConfiguration;
     chainedProxyManager = builder.chainedProxyManager;
+    hostResolver = builder.hostResolver;
+    timeoutPolicies = builder.timeoutPolicies;
+    circuitBreakers = builder.circuitBreakers;
+    trafficShaper = builder.trafficShaper;
+    warmUp = builder.warmUp;
   }
 
   public static Builder builder() {
@@ -47,14 +143,25 @@ public class ProxyNetworking {
 
   public static class Builder {
     private ThreadPoolConfiguration threadPoolConfiguration;
+    private TransportConfiguration transportConfiguration;
     private FilterConfiguration filterConfiguration;
     private ChainedProxyManager chainedProxyManager;
-    
+    private HostResolver hostResolver;
+    private TimeoutPolicyTable timeoutPolicies;
+    private CircuitBreakerRegistry circuitBreakers;
+    private TrafficShaper trafficShaper;
+    private ProxyWarmUp warmUp;
+
     public Builder withThreadPoolConfiguration(ThreadPoolConfiguration threadPoolConfiguration) {
       this.threadPoolConfiguration = threadPoolConfiguration;
       return this;
     }
 
+    public Builder withTransportConfiguration(TransportConfiguration transportConfiguration) {
+      this.transportConfiguration = transportConfiguration;
+      return this;
+    }
+
     public Builder withFilterConfiguration(FilterConfiguration filterConfiguration) {
       this.filterConfiguration = filterConfiguration;
       return this;
@@ -65,27 +172,233 @@ public class ProxyNetworking {
       return this;
     }
 
+    public Builder withHostResolver(HostResolver hostResolver) {
+      this.hostResolver = hostResolver;
+      return this;
+    }
+
+    public Builder withTimeoutPolicies(TimeoutPolicyTable timeoutPolicies) {
+      this.timeoutPolicies = timeoutPolicies;
+      return this;
+    }
+
+    public Builder withCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+      this.circuitBreakers = circuitBreakers;
+      return this;
+    }
+
+    public Builder withTrafficShaper(TrafficShaper trafficShaper) {
+      this.trafficShaper = trafficShaper;
+      return this;
+    }
+
+    Builder withWarmUp(ProxyWarmUp warmUp) {
+      this.warmUp = warmUp;
+      return this;
+    }
+
     public ProxyNetworking build() {
       if (threadPoolConfiguration == null) {
         threadPoolConfiguration = createThreadPoolConfigurationFromEnvironment();
       }
+      if (transportConfiguration == null) {
+        transportConfiguration = createTransportConfigurationFromEnvironment();
+      }
       if (filterConfiguration == null) {
         filterConfiguration = FilterConfiguration.fromEnvironment();
       }
       if (chainedProxyManager == null) {
         chainedProxyManager = ChainedProxyConfiguration.fromEnvironment();
       }
+      if (hostResolver == null) {
+        hostResolver = createHostResolverFromEnvironment();
+      }
+      if (timeoutPolicies == null) {
+        timeoutPolicies = createTimeoutPoliciesFromEnvironment();
+      }
+      if (circuitBreakers == null) {
+        circuitBreakers = createCircuitBreakersFromEnvironment();
+      }
+      if (trafficShaper == null) {
+        trafficShaper = createTrafficShaperFromEnvironment();
+      }
+      if (warmUp == null) {
+        warmUp = ProxyWarmUp.fromEnvironment();
+      }
       return new ProxyNetworking(this);
     }
   }
 
+  private static TimeoutPolicyTable createTimeoutPoliciesFromEnvironment() {
+    Duration connectTimeout =
+        Duration.ofMillis(
+            Long.parseLong(System.getenv().getOrDefault("CONNECT_TIMEOUT_MS", "1200000")));
+    Duration idleTimeout =
+        Duration.ofSeconds(
+            Long.parseLong(
+                System.getenv().getOrDefault("IDLE_CONNECTION_TIMEOUT_SECONDS", "1200")));
+    String policies = System.getenv("UPSTREAM_TIMEOUT_POLICIES");
+    logger.info(
+        String.format(
+            "Timeout configuration: connectTimeout = %s, idleTimeout = %s, policies = %s",
+            connectTimeout, idleTimeout, policies));
+    return TimeoutPolicyTable.parse(policies, connectTimeout, idleTimeout);
+  }
+
+  /** Returns null unless {@code CIRCUIT_BREAKER} is true. */
+  private static CircuitBreakerRegistry createCircuitBreakersFromEnvironment() {
+    if (!Boolean.parseBoolean(System.getenv().getOrDefault("CIRCUIT_BREAKER", "false"))) {
+      return null;
+    }
+    int failureThreshold =
+        Integer.parseInt(System.getenv().getOrDefault("CIRCUIT_BREAKER_FAILURE_THRESHOLD", "5"));
+    Duration openDuration =
+        Duration.ofSeconds(
+            Long.parseLong(System.getenv().getOrDefault("CIRCUIT_BREAKER_OPEN_SECONDS", "30")));
+    logger.info(
+        String.format(
+            "Circuit breakers enabled: failureThreshold = %d, openDuration = %s",
+            failureThreshold, openDuration));
+    return new CircuitBreakerRegistry(failureThreshold, openDuration);
+  }
+
+  /** Returns null if {@code TOP_HOSTS} is 0. */
+  private static HostHeavyHitters createTopHostsFromEnvironment() {
+    int size = Integer.parseInt(System.getenv().getOrDefault("TOP_HOSTS", "0"));
+    logger.info(String.format("Top hosts: size = %d", size));
+    return size > 0 ? new HostHeavyHitters(size) : null;
+  }
+
+  /** Returns null if {@code ACCESS_LOG} is {@code none}. */
+  private static AccessLog createAccessLogFromEnvironment() {
+    String destination = System.getenv().getOrDefault("ACCESS_LOG", "stdout");
+    if (destination.isEmpty() || destination.equals("none")) {
+      return null;
+    }
+    int bufferSize =
+        Integer.parseInt(System.getenv().getOrDefault("ACCESS_LOG_BUFFER_SIZE", "8192"));
+    double sampleRate =
+        Double.parseDouble(System.getenv().getOrDefault("ACCESS_LOG_SAMPLE_RATE", "1"));
+    logger.info(
+        String.format(
+            "Access log: destination = %s, bufferSize = %d, sampleRate = %s",
+            destination, bufferSize, sampleRate));
+    try {
+      return AccessLog.create(destination, bufferSize, sampleRate);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open access log " + destination, e);
+    }
+  }
+
+  /** Returns null if {@code PROXY_METRICS} is false. */
+  private static ProxyMetrics createMetricsFromEnvironment() {
+    if (!Boolean.parseBoolean(System.getenv().getOrDefault("PROXY_METRICS", "true"))) {
+      return null;
+    }
+    String maxPhaseHosts = System.getenv("PHASE_TIMING_MAX_HOSTS");
+    logger.info(String.format("Proxy metrics: phaseTimingMaxHosts = %s", maxPhaseHosts));
+    return new ProxyMetrics(
+        maxPhaseHosts == null
+            ? ProxyMetrics.DEFAULT_MAX_PHASE_HOSTS
+            : Integer.parseInt(maxPhaseHosts));
+  }
+
+  private static TrafficShaper createTrafficShaperFromEnvironment() {
+    String classLimits = System.getenv("BANDWIDTH_CLASS_LIMITS");
+    String hostLimits = System.getenv("BANDWIDTH_HOST_LIMITS");
+    logger.info(
+        String.format(
+            "Bandwidth limits: classLimits = %s, hostLimits = %s", classLimits, hostLimits));
+    return TrafficShaper.parse(classLimits, hostLimits);
+  }
+
+  private static HostResolver createHostResolverFromEnvironment() {
+    if (!Boolean.parseBoolean(System.getenv().getOrDefault("ASYNC_DNS_RESOLUTION", "false"))) {
+      return new DefaultHostResolver();
+    }
+    Duration negativeTtl =
+        Duration.ofSeconds(
+            Long.parseLong(System.getenv().getOrDefault("DNS_NEGATIVE_TTL_SECONDS", "5")));
+    Duration queryTimeout =
+        Duration.ofMillis(
+            Long.parseLong(System.getenv().getOrDefault("DNS_QUERY_TIMEOUT_MS", "5000")));
+    logger.info(
+        String.format(
+            "Resolving hosts asynchronously: negativeTtl = %s, queryTimeout = %s",
+            negativeTtl, queryTimeout));
+    return CachingDnsResolver.create(negativeTtl, queryTimeout);
+  }
+
+  private static TransportConfiguration createTransportConfigurationFromEnvironment() {
+    TransportConfiguration config =
+        new TransportConfiguration()
+            .withReusePortListeners(
+                Integer.parseInt(System.getenv().getOrDefault("REUSE_PORT_LISTENERS", "1")))
+            .withTcpNoDelay(
+                Boolean.parseBoolean(System.getenv().getOrDefault("TCP_NODELAY", "true")))
+            .withTcpQuickAck(
+                Boolean.parseBoolean(System.getenv().getOrDefault("TCP_QUICKACK", "false")))
+            .withReceiveBufferSize(
+                Integer.parseInt(System.getenv().getOrDefault("SOCKET_RECEIVE_BUFFER_BYTES", "0")))
+            .withSendBufferSize(
+                Integer.parseInt(System.getenv().getOrDefault("SOCKET_SEND_BUFFER_BYTES", "0")))
+            .withTunnelReadBufferSize(
+                Integer.parseInt(System.getenv().getOrDefault("TUNNEL_READ_BUFFER_BYTES", "0")));
+
+    logger.info(
+        String.format(
+            "Transport configuration: reusePortListeners = %d, tcpNoDelay = %b, tcpQuickAck = %b,"
+                + " receiveBufferSize = %d, sendBufferSize = %d, tunnelReadBufferSize = %d",
+            config.getReusePortListeners(),
+            config.isTcpNoDelay(),
+            config.isTcpQuickAck(),
+            config.getReceiveBufferSize(),
+            config.getSendBufferSize(),
+            config.getTunnelReadBufferSize()));
+
+    return config;
+  }
+
+  /** Returns null if {@code EVENT_LOOP_LAG_SAMPLE_INTERVAL_MS} is 0. */
+  private static EventLoopLagMonitor createEventLoopLagMonitorFromEnvironment(
+      ServerGroup serverGroup) {
+    long intervalMillis =
+        Long.parseLong(System.getenv().getOrDefault("EVENT_LOOP_LAG_SAMPLE_INTERVAL_MS", "1000"));
+    if (intervalMillis <= 0) {
+      return null;
+    }
+    Duration warnThreshold =
+        Duration.ofMillis(
+            Long.parseLong(System.getenv().getOrDefault("EVENT_LOOP_LAG_WARN_MS", "100")));
+    Map<String, EventLoopGroup> groups = new LinkedHashMap<>();
+    groups.put(
+        "ClientToProxyWorker",
+        serverGroup.getClientToProxyWorkerPoolForTransport(TransportProtocol.TCP));
+    groups.put(
+        "ProxyToServerWorker",
+        serverGroup.getProxyToServerWorkerPoolForTransport(TransportProtocol.TCP));
+    return new EventLoopLagMonitor(groups, Duration.ofMillis(intervalMillis), warnThreshold);
+  }
+
+  /**
+   * Defaults follow the CPUs available to the process, which the JVM derives from the container's
+   * CPU quota. Workers get two threads per CPU because some filters still block them; on eight
+   * CPUs these are the 4 acceptor and 16 worker threads that used to be fixed.
+   */
   private static ThreadPoolConfiguration createThreadPoolConfigurationFromEnvironment() {
+    int cpus = Runtime.getRuntime().availableProcessors();
     int numAcceptorThreads =
-        Integer.parseInt(System.getenv().getOrDefault("NUM_ACCEPTOR_THREADS", "4"));
+        Integer.parseInt(
+            System.getenv()
+                .getOrDefault("NUM_ACCEPTOR_THREADS", String.valueOf(Math.max(1, cpus / 2))));
     int numClientToProxyWorkerThreads =
-        Integer.parseInt(System.getenv().getOrDefault("NUM_CLIENT_TO_PROXY_WORKER_THREADS", "16"));
+        Integer.parseInt(
+            System.getenv()
+                .getOrDefault("NUM_CLIENT_TO_PROXY_WORKER_THREADS", String.valueOf(2 * cpus)));
     int numProxyToServerWorkerThreads =
-        Integer.parseInt(System.getenv().getOrDefault("NUM_PROXY_TO_SERVER_WORKER_THREADS", "16"));
+        Integer.parseInt(
+            System.getenv()
+                .getOrDefault("NUM_PROXY_TO_SERVER_WORKER_THREADS", String.valueOf(2 * cpus)));
 
     final ThreadPoolConfiguration config = new ThreadPoolConfiguration();
     config.withAcceptorThreads(numAcceptorThreads);
@@ -0,0 +1,107 @@
+package com.glean.proxy;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.TransportProtocol;
+import org.littleshoot.proxy.impl.ServerGroup;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+
+/**
+ * LittleProxy server group whose event loops apply a {@link TransportConfiguration} to every
+ * channel registered with them. LittleProxy creates its listening and connection channels itself
+ * without a way to set options on them, but each one is registered with one of these groups before
+ * it is bound or connected.
+ *
+ * <p>The acceptor group has a thread for each {@code SO_REUSEPORT} listener, so that every listener
+ * accepts on its own event loop.
+ */
+final class ProxyServerGroup extends ServerGroup {
+  private final EventLoopGroup acceptors;
+  private final EventLoopGroup clientToProxyWorkers;
+  private final EventLoopGroup proxyToServerWorkers;
+
+  ProxyServerGroup(
+      String name, ThreadPoolConfiguration threadPools, TransportConfiguration transport) {
+    super(
+        name,
+        threadPools.getAcceptorThreads(),
+        threadPools.getClientToProxyWorkerThreads(),
+        threadPools.getProxyToServerWorkerThreads());
+    transport.checkSupported();
+    acceptors =
+        new ConfiguringEventLoopGroup(
+            Math.max(threadPools.getAcceptorThreads(), transport.getReusePortListeners()),
+            name + "-ClientToProxyAcceptor",
+            transport::configureListener);
+    clientToProxyWorkers =
+        new ConfiguringEventLoopGroup(
+            threadPools.getClientToProxyWorkerThreads(),
+            name + "-ClientToProxyWorker",
+            transport::configureConnection);
+    proxyToServerWorkers =
+        new ConfiguringEventLoopGroup(
+            threadPools.getProxyToServerWorkerThreads(),
+            name + "-ProxyToServerWorker",
+            transport::configureConnection);
+  }
+
+  @Override
+  public EventLoopGroup getClientToProxyAcceptorPoolForTransport(TransportProtocol protocol) {
+    return acceptors;
+  }
+
+  @Override
+  public EventLoopGroup getClientToProxyWorkerPoolForTransport(TransportProtocol protocol) {
+    return clientToProxyWorkers;
+  }
+
+  @Override
+  public EventLoopGroup getProxyToServerWorkerPoolForTransport(TransportProtocol protocol) {
+    return proxyToServerWorkers;
+  }
+
+  // The base class only shuts down the pools it created itself, which are never used here.
+  @Override
+  public void unregisterProxyServer(HttpProxyServer proxyServer, boolean graceful) {
+    super.unregisterProxyServer(proxyServer, graceful);
+    if (isStopped()) {
+      for (EventLoopGroup group :
+          new EventLoopGroup[] {acceptors, clientToProxyWorkers, proxyToServerWorkers}) {
+        if (graceful) {
+          group.shutdownGracefully();
+        } else {
+          group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        }
+      }
+    }
+  }
+
+  /** Event loops that configure each channel before it is registered with one of them. */
+  private static final class ConfiguringEventLoopGroup extends NioEventLoopGroup {
+    private final Consumer<Channel> configure;
+
+    ConfiguringEventLoopGroup(int threads, String name, Consumer<Channel> configure) {
+      super(threads, new DefaultThreadFactory(name));
+      this.configure = configure;
+    }
+
+    @Override
+    public ChannelFuture register(Channel channel) {
+      configure.accept(channel);
+      return super.register(channel);
+    }
+
+    @Override
+    public ChannelFuture register(ChannelPromise promise) {
+      configure.accept(promise.channel());
+      return super.register(promise);
+    }
+  }
+}
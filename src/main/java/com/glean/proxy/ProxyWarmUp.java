@@ -0,0 +1,253 @@
+package com.glean.proxy;
+
+import com.glean.proxy.filters.helpers.NettyHttpsClient;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+import org.littleshoot.proxy.HostResolver;
+import org.littleshoot.proxy.HttpFilters;
+
+/**
+ * Work done after the proxy starts listening and before it reports ready, so that the first
+ * requests after a scale-up do not each pay for a cold cache. Every step is best-effort and the
+ * whole phase ends at a deadline; a proxy that cannot warm up still becomes ready.
+ *
+ * <ul>
+ *   <li>The configured egress domains and data source hosts are resolved.
+ *   <li>Synthetic CONNECT requests for the resolved hosts are driven through the route checks of
+ *       the configured platform filters, which fills the NIC route cache and gets the filter code
+ *       compiled. They are never admitted, so rate limits and request counts are left alone.
+ *   <li>An HTTPS webhook target gets a pooled TLS connection on every worker event loop.
+ * </ul>
+ */
+final class ProxyWarmUp {
+  private static final Logger logger = Logger.getLogger(ProxyWarmUp.class.getName());
+
+  private static final int HTTPS_PORT = 443;
+  private static final int RESOLVER_THREADS = 8;
+
+  private final List<String> hosts;
+  private final URI webhookTarget;
+  private final int syntheticRequests;
+  private final Duration timeout;
+
+  /** {@code webhookTarget} is only connected to if it is an HTTPS URL. */
+  ProxyWarmUp(List<String> hosts, URI webhookTarget, int syntheticRequests, Duration timeout) {
+    this.hosts = hosts;
+    this.webhookTarget =
+        webhookTarget != null && "https".equalsIgnoreCase(webhookTarget.getScheme())
+            ? webhookTarget
+            : null;
+    this.syntheticRequests = syntheticRequests;
+    this.timeout = timeout;
+  }
+
+  /** Returns null unless {@code WARM_UP} is enabled. */
+  static ProxyWarmUp fromEnvironment() {
+    if (!Boolean.parseBoolean(System.getenv().getOrDefault("WARM_UP", "false"))) {
+      return null;
+    }
+    String webhookTarget = System.getenv("WEBHOOK_TARGET");
+    return new ProxyWarmUp(
+        warmUpHosts(
+            System.getenv("ALLOWED_EGRESS_DOMAINS"),
+            System.getenv("FORWARD_PROXY_DATA_SOURCE_HOSTS")),
+        webhookTarget == null || webhookTarget.isEmpty() ? null : URI.create(webhookTarget),
+        Integer.parseInt(System.getenv().getOrDefault("WARM_UP_SYNTHETIC_REQUESTS", "2000")),
+        Duration.ofMillis(
+            Long.parseLong(System.getenv().getOrDefault("WARM_UP_TIMEOUT_MS", "30000"))));
+  }
+
+  /** The hosts named in comma-separated host lists. Wildcard domains name no host to resolve. */
+  static List<String> warmUpHosts(String... hostLists) {
+    Set<String> hosts = new LinkedHashSet<>();
+    for (String hostList : hostLists) {
+      if (hostList == null) {
+        continue;
+      }
+      for (String host : hostList.split(",")) {
+        String trimmed = host.trim().toLowerCase();
+        if (!trimmed.isEmpty() && !trimmed.contains("*")) {
+          hosts.add(trimmed);
+        }
+      }
+    }
+    return new ArrayList<>(hosts);
+  }
+
+  /**
+   * Runs every step against the resolver and filter chains the proxy serves with. {@code workers}
+   * are the event loops that upgraded requests are sent from.
+   */
+  void run(HostResolver resolver, FilterPlan filterPlan, EventLoopGroup workers) {
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + timeout.toNanos();
+    CompletableFuture<Integer> connections = preconnect(workers);
+    List<Target> targets = resolve(resolver, deadlineNanos);
+    int requests = driveSyntheticRequests(filterPlan, targets, deadlineNanos);
+    int connected = 0;
+    try {
+      connected =
+          connections.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      logger.warning("Timed out opening connections to the webhook target");
+    } catch (Exception e) {
+      logger.warning("Failed to open connections to the webhook target: " + e);
+    }
+    logger.info(
+        String.format(
+            "Warm-up finished in %d ms: resolved %d of %d hosts, sent %d synthetic requests,"
+                + " opened %d webhook target connections",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            targets.size(),
+            hosts.size(),
+            requests,
+            connected));
+  }
+
+  private List<Target> resolve(HostResolver resolver, long deadlineNanos) {
+    List<Target> targets = new ArrayList<>();
+    if (hosts.isEmpty()) {
+      return targets;
+    }
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(RESOLVER_THREADS, hosts.size()),
+            runnable -> {
+              Thread thread = new Thread(runnable, "warm-up-resolver");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      List<CompletableFuture<Target>> lookups = new ArrayList<>();
+      for (String host : hosts) {
+        lookups.add(
+            CompletableFuture.supplyAsync(
+                () -> {
+                  try {
+                    return new Target(
+                        host + ":" + HTTPS_PORT, resolver.resolve(host, HTTPS_PORT));
+                  } catch (Exception e) {
+                    logger.fine("Warm-up could not resolve " + host + ": " + e);
+                    return null;
+                  }
+                },
+                executor));
+      }
+      for (CompletableFuture<Target> lookup : lookups) {
+        Target target;
+        try {
+          target =
+              lookup.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (Exception e) {
+          continue;
+        }
+        if (target != null) {
+          targets.add(target);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return targets;
+  }
+
+  private int driveSyntheticRequests(
+      FilterPlan filterPlan, List<Target> targets, long deadlineNanos) {
+    if (targets.isEmpty()) {
+      return 0;
+    }
+    LoopbackChannel channel = new LoopbackChannel();
+    ChannelHandlerContext ctx = channel.pipeline().firstContext();
+    int sent = 0;
+    try {
+      while (sent < syntheticRequests && System.nanoTime() - deadlineNanos < 0) {
+        Target target = targets.get(sent % targets.size());
+        HttpRequest request =
+            new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, target.hostAndPort());
+        request.headers().set(HttpHeaderNames.HOST, target.hostAndPort());
+        try {
+          // clientToProxyRequest is skipped: it is where filters admit, count and log requests,
+          // which synthetic ones must not be. Both route cache hooks run even if the first denies.
+          HttpFilters filters = filterPlan.warmUpFilters(request, ctx);
+          filters.proxyToServerResolutionSucceeded(target.hostAndPort(), target.address());
+          ReferenceCountUtil.release(filters.proxyToServerRequest(request));
+        } catch (RuntimeException e) {
+          logger.fine("Synthetic request to " + target.hostAndPort() + " failed: " + e);
+        }
+        sent++;
+      }
+    } finally {
+      channel.finishAndReleaseAll();
+    }
+    return sent;
+  }
+
+  private CompletableFuture<Integer> preconnect(EventLoopGroup workers) {
+    if (webhookTarget == null) {
+      return CompletableFuture.completedFuture(0);
+    }
+    List<CompletableFuture<Boolean>> connections = new ArrayList<>();
+    for (EventExecutor executor : workers) {
+      connections.add(
+          NettyHttpsClient.getClient()
+              .preconnect((EventLoop) executor, webhookTarget)
+              .handle(
+                  (connected, e) -> {
+                    if (e != null) {
+                      logger.warning("Warm-up could not connect to the webhook target: " + e);
+                    }
+                    return e == null;
+                  }));
+    }
+    return CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[0]))
+        .thenApply(done -> (int) connections.stream().filter(CompletableFuture::join).count());
+  }
+
+  private record Target(String hostAndPort, InetSocketAddress address) {}
+
+  /**
+   * Client connection for synthetic requests. Its addresses are loopback, which filters that
+   * check the client address accept.
+   */
+  private static final class LoopbackChannel extends EmbeddedChannel {
+    private static final SocketAddress LOOPBACK = new InetSocketAddress("127.0.0.1", 0);
+
+    LoopbackChannel() {
+      super(new ChannelInboundHandlerAdapter());
+    }
+
+    @Override
+    public SocketAddress localAddress() {
+      return LOOPBACK;
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+      return LOOPBACK;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.glean.proxy;
+
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.FullFlowContext;
+
+/**
+ * Counts the bytes read from each upstream connection for its host. LittleProxy reports these for
+ * CONNECT tunnels too, whose traffic never reaches the response filters.
+ */
+final class TopHostsActivityTracker extends ActivityTrackerAdapter {
+  private final HostHeavyHitters heavyHitters;
+
+  TopHostsActivityTracker(HostHeavyHitters heavyHitters) {
+    this.heavyHitters = heavyHitters;
+  }
+
+  @Override
+  public void bytesReceivedFromServer(FullFlowContext flowContext, int numberOfBytes) {
+    String hostAndPort = flowContext.getServerHostAndPort();
+    if (hostAndPort == null) {
+      return;
+    }
+    int colon = hostAndPort.lastIndexOf(':');
+    String host =
+        colon < 0 || hostAndPort.endsWith("]") ? hostAndPort : hostAndPort.substring(0, colon);
+    heavyHitters.recordResponseBytes(host.toLowerCase(), numberOfBytes);
+  }
+}
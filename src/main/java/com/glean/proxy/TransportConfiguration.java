@@ -0,0 +1,159 @@
+package com.glean.proxy;
+
+import com.glean.proxy.filters.helpers.TunnelRelay;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.nio.NioChannelOption;
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Socket options for the proxy's listening socket and for its client and server connections.
+ * Buffer sizes left at 0 are not set, so the operating system's values and autotuning apply.
+ *
+ * <p>With {@code reusePortListeners} above one, that many listening sockets are bound to the proxy
+ * port with {@code SO_REUSEPORT}, each on its own acceptor event loop, and the kernel spreads new
+ * connections across them.
+ *
+ * <p>A {@code tunnelReadBufferSize} above 0 switches the connections of allowed CONNECT tunnels to
+ * reads of up to that many bytes; see {@link TunnelRelay}.
+ */
+public class TransportConfiguration {
+  private static final Logger logger = Logger.getLogger(TransportConfiguration.class.getName());
+
+  private static final ChannelOption<Boolean> TCP_QUICKACK =
+      NioChannelOption.of(ExtendedSocketOptions.TCP_QUICKACK);
+
+  private int reusePortListeners = 1;
+  private boolean tcpNoDelay = true;
+  private boolean tcpQuickAck = false;
+  private int receiveBufferSize = 0;
+  private int sendBufferSize = 0;
+  private TunnelRelay tunnelRelay;
+
+  public TransportConfiguration withReusePortListeners(int reusePortListeners) {
+    this.reusePortListeners = reusePortListeners;
+    return this;
+  }
+
+  public TransportConfiguration withTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+    return this;
+  }
+
+  public TransportConfiguration withTcpQuickAck(boolean tcpQuickAck) {
+    this.tcpQuickAck = tcpQuickAck;
+    return this;
+  }
+
+  /** {@code SO_RCVBUF} in bytes, or 0 for the system default. */
+  public TransportConfiguration withReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+    return this;
+  }
+
+  /** {@code SO_SNDBUF} in bytes, or 0 for the system default. */
+  public TransportConfiguration withSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = sendBufferSize;
+    return this;
+  }
+
+  /** Largest read on an established CONNECT tunnel in bytes, or 0 to relay like other traffic. */
+  public TransportConfiguration withTunnelReadBufferSize(int tunnelReadBufferSize) {
+    this.tunnelRelay = tunnelReadBufferSize > 0 ? new TunnelRelay(tunnelReadBufferSize) : null;
+    return this;
+  }
+
+  public int getReusePortListeners() {
+    return reusePortListeners;
+  }
+
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  public boolean isTcpQuickAck() {
+    return tcpQuickAck;
+  }
+
+  public int getReceiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  public int getSendBufferSize() {
+    return sendBufferSize;
+  }
+
+  public int getTunnelReadBufferSize() {
+    return tunnelRelay == null ? 0 : tunnelRelay.getReadBufferSize();
+  }
+
+  /** Null unless tunnels are relayed with their own read size. */
+  TunnelRelay tunnelRelay() {
+    return tunnelRelay;
+  }
+
+  boolean usesReusePort() {
+    return reusePortListeners > 1;
+  }
+
+  /**
+   * Fails at startup, rather than when binding, if several listeners are asked for and the
+   * platform cannot share a port between them. {@code TCP_QUICKACK} is only a latency hint, so it
+   * is dropped with a warning where it is not supported.
+   */
+  void checkSupported() {
+    if (usesReusePort() && !supports(true, StandardSocketOptions.SO_REUSEPORT)) {
+      throw new IllegalStateException("SO_REUSEPORT is not supported on this platform");
+    }
+    if (tcpQuickAck && !supports(false, ExtendedSocketOptions.TCP_QUICKACK)) {
+      logger.warning("TCP_QUICKACK is not supported on this platform and will not be set");
+      tcpQuickAck = false;
+    }
+  }
+
+  /** Applied to a listening socket before it is bound. */
+  void configureListener(Channel channel) {
+    if (usesReusePort()) {
+      channel.config().setOption(NioChannelOption.of(StandardSocketOptions.SO_REUSEPORT), true);
+    }
+    // Accepted connections inherit the listener's receive buffer, and a window scale above 64 KiB
+    // can only be negotiated if it is set before the handshake.
+    if (receiveBufferSize > 0) {
+      channel.config().setOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+    }
+  }
+
+  /** Applied to a client or server connection before it is registered with its event loop. */
+  void configureConnection(Channel channel) {
+    channel.config().setOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+    if (receiveBufferSize > 0) {
+      channel.config().setOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+    }
+    if (sendBufferSize > 0) {
+      channel.config().setOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+    }
+    // Linux clears quick ACK mode again after a few segments, so this mainly speeds up the
+    // acknowledgements at the start of a connection, such as those of the TLS handshake.
+    if (tcpQuickAck) {
+      channel.config().setOption(TCP_QUICKACK, true);
+    }
+    if (tunnelRelay != null) {
+      tunnelRelay.prepare(channel);
+    }
+  }
+
+  private static boolean supports(boolean listener, SocketOption<?> option) {
+    try (NetworkChannel channel = listener ? ServerSocketChannel.open() : SocketChannel.open()) {
+      return channel.supportedOptions().contains(option);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+}
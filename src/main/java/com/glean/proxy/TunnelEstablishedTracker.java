@@ -0,0 +1,56 @@
+package com.glean.proxy;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.FullFlowContext;
+import org.littleshoot.proxy.HttpFilters;
+
+/**
+ * Calls {@link HttpFilters#proxyToServerConnectionSucceeded} for CONNECT tunnels, which LittleProxy
+ * only calls for connections that go on to carry HTTP. The connection is made by the time the
+ * client is told the tunnel is established, and that response is the one point at which LittleProxy
+ * hands out the server connection of a tunnel.
+ *
+ * <p>A client connection carries at most one CONNECT request at a time, so the filters waiting on
+ * a tunnel are found by client address.
+ */
+final class TunnelEstablishedTracker extends ActivityTrackerAdapter {
+  private final Map<SocketAddress, HttpFilters> pending = new ConcurrentHashMap<>();
+
+  /** Returns {@code filters}, which are told of the tunnel if {@code request} is a CONNECT. */
+  HttpFilters watch(HttpRequest request, ChannelHandlerContext ctx, HttpFilters filters) {
+    if (ctx == null || !HttpMethod.CONNECT.equals(request.method())) {
+      return filters;
+    }
+    SocketAddress client = ctx.channel().remoteAddress();
+    if (client == null) {
+      return filters;
+    }
+    pending.put(client, filters);
+    ctx.channel().closeFuture().addListener(future -> pending.remove(client, filters));
+    return filters;
+  }
+
+  @Override
+  public void responseSentToClient(FlowContext flowContext, HttpResponse response) {
+    SocketAddress client = flowContext.getClientAddress();
+    if (client == null) {
+      return;
+    }
+    // Any response settles the CONNECT, but only this one means the tunnel is up.
+    HttpFilters filters = pending.remove(client);
+    if (filters != null
+        && response.status().code() == HttpResponseStatus.OK.code()
+        && flowContext instanceof FullFlowContext fullFlowContext) {
+      filters.proxyToServerConnectionSucceeded(fullFlowContext.getProxyToServerContext());
+    }
+  }
+}
@@ -1,13 +1,16 @@
 package com.glean.proxy.filters;
 
+import com.glean.proxy.filters.helpers.CidrSet;
 import com.glean.proxy.filters.helpers.Utils;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.NetUtil;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import org.littleshoot.proxy.HttpFiltersAdapter;
 
 /**
@@ -15,26 +18,50 @@ import org.littleshoot.proxy.HttpFiltersAdapter;
  * should block it. We shouldn't be hitting any internal services via the proxy.
  */
 public class AwsDisallowInternalAddressForTransitVpc extends HttpFiltersAdapter {
-  private final String vpcConnectorEndpoint;
+  private final CidrSet internalAddresses;
   private HttpResponse response;
 
   public AwsDisallowInternalAddressForTransitVpc(
       HttpRequest originalRequest, String webhookTarget) {
+    this(originalRequest, webhookTargetAddresses(webhookTarget));
+  }
+
+  public AwsDisallowInternalAddressForTransitVpc(
+      HttpRequest originalRequest, CidrSet internalAddresses) {
     super(originalRequest);
+    this.internalAddresses = internalAddresses;
     this.response = null;
+  }
+
+  /**
+   * The addresses to block for a webhook target URL. Only a target given as an IP literal can match
+   * a resolved address; a hostname yields the empty set.
+   */
+  public static CidrSet webhookTargetAddresses(String webhookTarget) {
+    if (webhookTarget == null) {
+      return CidrSet.empty();
+    }
+    String host;
     try {
-      URI uri = new URI(webhookTarget);
-      vpcConnectorEndpoint = uri.getHost();
+      host = new URI(webhookTarget).getHost();
     } catch (URISyntaxException e) {
       throw new RuntimeException(e);
     }
+    if (host == null) {
+      return CidrSet.empty();
+    }
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);
+    }
+    return NetUtil.isValidIpV4Address(host) || NetUtil.isValidIpV6Address(host)
+        ? CidrSet.of(List.of(host))
+        : CidrSet.empty();
   }
 
   @Override
   public void proxyToServerResolutionSucceeded(
       String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
-    String urlIp = resolvedRemoteAddress.getAddress().getHostAddress();
-    if (urlIp.equals(vpcConnectorEndpoint)) {
+    if (internalAddresses.contains(resolvedRemoteAddress.getAddress())) {
       response = Utils.createHTTPResponse("Forbidden", HttpResponseStatus.FORBIDDEN);
     }
     super.proxyToServerResolutionSucceeded(serverHostAndPort, resolvedRemoteAddress);
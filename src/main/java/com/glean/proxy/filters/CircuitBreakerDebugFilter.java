@@ -0,0 +1,33 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import com.glean.proxy.filters.helpers.Utils;
+import com.google.gson.Gson;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns the state of every tracked circuit breaker as JSON for {@code
+ * /proxy_debug/circuit_breakers}, and leaves other debug requests to the filters after it.
+ */
+public class CircuitBreakerDebugFilter extends HttpFiltersAdapter {
+  private static final Gson gson = new Gson();
+
+  private final CircuitBreakerRegistry registry;
+
+  public CircuitBreakerDebugFilter(HttpRequest originalRequest, CircuitBreakerRegistry registry) {
+    super(originalRequest);
+    this.registry = registry;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!originalRequest.uri().startsWith("/proxy_debug/circuit_breakers")) {
+      return null;
+    }
+    return Utils.createJsonResponse(gson.toJson(registry.snapshot()), HttpResponseStatus.OK);
+  }
+}
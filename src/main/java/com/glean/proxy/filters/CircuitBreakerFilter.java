@@ -0,0 +1,95 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import com.glean.proxy.filters.helpers.Utils;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.URI;
+import java.time.Duration;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Answers requests to a destination whose {@link CircuitBreakerRegistry circuit breaker} is open
+ * with 503 Service Unavailable instead of connecting to it, and reports the outcome of the connects
+ * it lets through.
+ *
+ * <p>LittleProxy does not call {@link #proxyToServerConnectionSucceeded} for CONNECT tunnels; the
+ * proxy's tunnel tracker does, once the client has been told the tunnel is established.
+ */
+public class CircuitBreakerFilter extends HttpFiltersAdapter {
+  private final CircuitBreakerRegistry registry;
+  private volatile String hostAndPort;
+
+  public CircuitBreakerFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, CircuitBreakerRegistry registry) {
+    super(originalRequest, ctx);
+    this.registry = registry;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!(httpObject instanceof HttpRequest request)) {
+      return null;
+    }
+    hostAndPort = hostAndPortOf(request);
+    if (hostAndPort == null) {
+      return null;
+    }
+    Duration retryAfter = registry.tryAcquire(hostAndPort);
+    if (retryAfter.isZero()) {
+      return null;
+    }
+    HttpResponse response =
+        Utils.createHTTPResponse(
+            String.format("%s is unavailable after repeated connect failures", hostAndPort),
+            HttpResponseStatus.SERVICE_UNAVAILABLE);
+    // Rounded up, so that a client that waits as told finds the probe due.
+    long retryAfterSeconds = (retryAfter.toMillis() + 999) / 1000;
+    response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+    return response;
+  }
+
+  @Override
+  public void proxyToServerConnectionFailed() {
+    if (hostAndPort != null) {
+      registry.onFailure(hostAndPort);
+    }
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    if (hostAndPort != null) {
+      registry.onSuccess(hostAndPort);
+    }
+  }
+
+  /**
+   * The {@code host:port} LittleProxy connects to for a request, or null if it names no host. As
+   * in LittleProxy, a request that names no port goes to port 80.
+   */
+  static String hostAndPortOf(HttpRequest request) {
+    if (HttpMethod.CONNECT.equals(request.method())) {
+      return request.uri().trim().toLowerCase();
+    }
+    try {
+      URI uri = new URI(request.uri());
+      if (uri.getHost() != null) {
+        return uri.getHost().toLowerCase() + ":" + (uri.getPort() < 0 ? 80 : uri.getPort());
+      }
+    } catch (Exception e) {
+      // Fall back to the Host header.
+    }
+    String host = request.headers().get(HttpHeaderNames.HOST);
+    if (host == null || host.isEmpty()) {
+      return null;
+    }
+    host = host.toLowerCase();
+    int colon = host.lastIndexOf(':');
+    return colon < 0 || host.endsWith("]") ? host + ":80" : host;
+  }
+}
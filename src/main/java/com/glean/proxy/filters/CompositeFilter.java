@@ -1,5 +1,9 @@
 package com.glean.proxy.filters;
 
+import com.glean.proxy.metrics.FilterHook;
+import com.glean.proxy.metrics.FilterMetrics;
+import com.glean.proxy.metrics.ProxyMetrics;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
@@ -11,20 +15,45 @@ import org.littleshoot.proxy.HttpFiltersAdapter;
 /**
  * Combines multiple HTTP filters into a single filter, executing them in sequence. Returns the
  * first non-null response from any filter in the chain, or null if no filter returns a response.
+ * Responses from the server are passed through each filter in turn, and every filter is told of
+ * each step of the connection's lifecycle.
+ *
+ * <p>With metrics, the time each filter spends in each hook is recorded, along with whether it let
+ * the request through or answered it.
  */
 public class CompositeFilter extends HttpFiltersAdapter {
 
-  private final List<HttpFilters> filters;
+  private final HttpFilters[] filters;
+  private final ProxyMetrics metrics;
 
   public CompositeFilter(HttpRequest originalRequest, List<HttpFilters> filters) {
+    this(originalRequest, filters.toArray(new HttpFilters[0]));
+  }
+
+  public CompositeFilter(HttpRequest originalRequest, HttpFilters[] filters) {
+    this(originalRequest, filters, null);
+  }
+
+  public CompositeFilter(HttpRequest originalRequest, HttpFilters[] filters, ProxyMetrics metrics) {
     super(originalRequest);
     this.filters = filters;
+    this.metrics = metrics;
   }
 
   @Override
   public HttpResponse clientToProxyRequest(HttpObject httpObject) {
     for (HttpFilters filter : filters) {
+      long start = start();
       HttpResponse response = filter.clientToProxyRequest(httpObject);
+      if (metrics != null) {
+        FilterMetrics filterMetrics = finish(filter, FilterHook.CLIENT_TO_PROXY_REQUEST, start);
+        // Later chunks of the same request are not verdicts of their own.
+        if (response != null) {
+          filterMetrics.recordAnswered(response.status().code());
+        } else if (httpObject instanceof HttpRequest) {
+          filterMetrics.recordPassed();
+        }
+      }
       if (response != null) {
         return response;
       }
@@ -32,22 +61,195 @@ public class CompositeFilter extends HttpFiltersAdapter {
     return null;
   }
 
+  @Override
+  public void proxyToServerConnectionQueued() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerConnectionQueued();
+      finish(filter, FilterHook.PROXY_TO_SERVER_CONNECTION_QUEUED, start);
+    }
+  }
+
+  /** Every filter is told; the first address returned is used. */
+  @Override
+  public InetSocketAddress proxyToServerResolutionStarted(String resolvingServerHostAndPort) {
+    InetSocketAddress resolved = null;
+    for (HttpFilters filter : filters) {
+      long start = start();
+      InetSocketAddress address = filter.proxyToServerResolutionStarted(resolvingServerHostAndPort);
+      finish(filter, FilterHook.PROXY_TO_SERVER_RESOLUTION_STARTED, start);
+      if (resolved == null) {
+        resolved = address;
+      }
+    }
+    return resolved;
+  }
+
+  @Override
+  public void proxyToServerResolutionFailed(String hostAndPort) {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerResolutionFailed(hostAndPort);
+      finish(filter, FilterHook.PROXY_TO_SERVER_RESOLUTION_FAILED, start);
+    }
+  }
+
   @Override
   public void proxyToServerResolutionSucceeded(
       String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
     for (HttpFilters filter : filters) {
+      long start = start();
       filter.proxyToServerResolutionSucceeded(serverHostAndPort, resolvedRemoteAddress);
+      finish(filter, FilterHook.PROXY_TO_SERVER_RESOLUTION_SUCCEEDED, start);
     }
   }
 
   @Override
   public HttpResponse proxyToServerRequest(HttpObject httpObject) {
     for (HttpFilters filter : filters) {
+      long start = start();
       HttpResponse response = filter.proxyToServerRequest(httpObject);
+      finish(filter, FilterHook.PROXY_TO_SERVER_REQUEST, start);
       if (response != null) {
         return response;
       }
     }
     return null;
   }
+
+  @Override
+  public void proxyToServerConnectionStarted() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerConnectionStarted();
+      finish(filter, FilterHook.PROXY_TO_SERVER_CONNECTION_STARTED, start);
+    }
+  }
+
+  @Override
+  public void proxyToServerConnectionSSLHandshakeStarted() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerConnectionSSLHandshakeStarted();
+      finish(filter, FilterHook.PROXY_TO_SERVER_CONNECTION_SSL_HANDSHAKE_STARTED, start);
+    }
+  }
+
+  @Override
+  public void proxyToServerConnectionFailed() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerConnectionFailed();
+      finish(filter, FilterHook.PROXY_TO_SERVER_CONNECTION_FAILED, start);
+    }
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerConnectionSucceeded(serverCtx);
+      finish(filter, FilterHook.PROXY_TO_SERVER_CONNECTION_SUCCEEDED, start);
+    }
+  }
+
+  @Override
+  public void proxyToServerRequestSending() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerRequestSending();
+      finish(filter, FilterHook.PROXY_TO_SERVER_REQUEST_SENDING, start);
+    }
+  }
+
+  @Override
+  public void proxyToServerRequestSent() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.proxyToServerRequestSent();
+      finish(filter, FilterHook.PROXY_TO_SERVER_REQUEST_SENT, start);
+    }
+  }
+
+  @Override
+  public void serverToProxyResponseReceiving() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.serverToProxyResponseReceiving();
+      finish(filter, FilterHook.SERVER_TO_PROXY_RESPONSE_RECEIVING, start);
+    }
+  }
+
+  /** Each filter gets what the one before it returned; a null from any of them ends the chain. */
+  @Override
+  public HttpObject serverToProxyResponse(HttpObject httpObject) {
+    HttpObject response = httpObject;
+    for (HttpFilters filter : filters) {
+      long start = start();
+      response = filter.serverToProxyResponse(response);
+      finish(filter, FilterHook.SERVER_TO_PROXY_RESPONSE, start);
+      if (response == null) {
+        return null;
+      }
+    }
+    return response;
+  }
+
+  @Override
+  public void serverToProxyResponseReceived() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.serverToProxyResponseReceived();
+      finish(filter, FilterHook.SERVER_TO_PROXY_RESPONSE_RECEIVED, start);
+    }
+  }
+
+  @Override
+  public void serverToProxyResponseTimedOut() {
+    for (HttpFilters filter : filters) {
+      long start = start();
+      filter.serverToProxyResponseTimedOut();
+      finish(filter, FilterHook.SERVER_TO_PROXY_RESPONSE_TIMED_OUT, start);
+    }
+  }
+
+  /** Each filter gets what the one before it returned; a null from any of them ends the chain. */
+  @Override
+  public HttpObject proxyToClientResponse(HttpObject httpObject) {
+    HttpObject response = httpObject;
+    for (HttpFilters filter : filters) {
+      long start = start();
+      response = filter.proxyToClientResponse(response);
+      finish(filter, FilterHook.PROXY_TO_CLIENT_RESPONSE, start);
+      if (response == null) {
+        return null;
+      }
+    }
+    return response;
+  }
+
+  /** Man-in-the-middle is only allowed if every filter allows it. */
+  @Override
+  public boolean proxyToServerAllowMitm() {
+    for (HttpFilters filter : filters) {
+      if (!filter.proxyToServerAllowMitm()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long start() {
+    return metrics == null ? 0 : System.nanoTime();
+  }
+
+  /** Records the time since {@code start} for {@code filter}; returns null without metrics. */
+  private FilterMetrics finish(HttpFilters filter, FilterHook hook, long start) {
+    if (metrics == null) {
+      return null;
+    }
+    FilterMetrics filterMetrics = metrics.filter(filter.getClass());
+    filterMetrics.recordHook(hook, System.nanoTime() - start);
+    return filterMetrics;
+  }
 }
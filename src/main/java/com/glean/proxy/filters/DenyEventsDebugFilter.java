@@ -0,0 +1,33 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.DenyEventAggregator;
+import com.glean.proxy.filters.helpers.Utils;
+import com.google.gson.Gson;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns the hosts and clients with the most denied requests as JSON for {@code
+ * /proxy_debug/denied}, and leaves other debug requests to the filters after it.
+ */
+public class DenyEventsDebugFilter extends HttpFiltersAdapter {
+  private static final Gson gson = new Gson();
+
+  private final DenyEventAggregator denyEvents;
+
+  public DenyEventsDebugFilter(HttpRequest originalRequest, DenyEventAggregator denyEvents) {
+    super(originalRequest);
+    this.denyEvents = denyEvents;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!originalRequest.uri().startsWith("/proxy_debug/denied")) {
+      return null;
+    }
+    return Utils.createJsonResponse(gson.toJson(denyEvents.snapshot()), HttpResponseStatus.OK);
+  }
+}
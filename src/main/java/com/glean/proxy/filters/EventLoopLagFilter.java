@@ -0,0 +1,33 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.EventLoopLagMonitor;
+import com.glean.proxy.filters.helpers.Utils;
+import com.google.gson.Gson;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns the most recent lag of each worker event loop as JSON for {@code
+ * /proxy_debug/event_loops}, and leaves other debug requests to the filters after it.
+ */
+public class EventLoopLagFilter extends HttpFiltersAdapter {
+  private static final Gson gson = new Gson();
+
+  private final EventLoopLagMonitor monitor;
+
+  public EventLoopLagFilter(HttpRequest originalRequest, EventLoopLagMonitor monitor) {
+    super(originalRequest);
+    this.monitor = monitor;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!originalRequest.uri().startsWith("/proxy_debug/event_loops")) {
+      return null;
+    }
+    return Utils.createJsonResponse(gson.toJson(monitor.snapshot()), HttpResponseStatus.OK);
+  }
+}
@@ -1,17 +1,25 @@
 package com.glean.proxy.filters;
 
+import com.glean.proxy.filters.helpers.AsyncNicResolver;
 import com.glean.proxy.filters.helpers.CachedNicResolver;
+import com.glean.proxy.filters.helpers.CidrSet;
 import com.glean.proxy.filters.helpers.IpRouteNicResolver;
 import com.glean.proxy.filters.helpers.NicResolver;
 import com.glean.proxy.filters.helpers.Utils;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.handler.ipfilter.IpFilterRuleType;
-import io.netty.handler.ipfilter.IpSubnetFilterRule;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.littleshoot.proxy.HttpFiltersAdapter;
 
 /**
@@ -19,35 +27,73 @@ import org.littleshoot.proxy.HttpFiltersAdapter;
  * should block it. We shouldn't be hitting any internal services via the proxy.
  */
 public class GCPDisallowInternalAddressFilter extends HttpFiltersAdapter {
+  // Filters are created per request, so the default resolver is shared to keep its cache warm.
+  private static final NicResolver DEFAULT_NIC_RESOLVER =
+      new CachedNicResolver(new IpRouteNicResolver());
 
   private final String proxyType;
-  private NicResolver nicResolver;
-  private final String gkeServiceIpRange;
+  private final NicResolver nicResolver;
+  private final CidrSet googleManagedRanges;
+
+  // Only set in asynchronous mode, where NIC resolution runs off the event loop.
+  private AsyncNicResolver asyncNicResolver;
+  private ChannelHandlerContext clientCtx;
+  private Duration verdictTimeout;
+  private CompletableFuture<HttpResponse> pendingVerdict;
 
   private HttpResponse response;
 
   public GCPDisallowInternalAddressFilter(
       HttpRequest originalRequest, String proxyType, String gkeServiceIpRange) {
-    super(originalRequest);
-    this.proxyType = proxyType;
-    this.nicResolver = new CachedNicResolver(new IpRouteNicResolver());
-    this.gkeServiceIpRange = gkeServiceIpRange;
-    this.response = null;
+    this(originalRequest, proxyType, DEFAULT_NIC_RESOLVER, CidrSet.parse(gkeServiceIpRange));
   }
 
-  protected GCPDisallowInternalAddressFilter(
+  public GCPDisallowInternalAddressFilter(
       HttpRequest originalRequest,
       String proxyType,
       NicResolver nicResolver,
       String gkeServiceIpRange) {
-    this(originalRequest, proxyType, gkeServiceIpRange);
+    this(originalRequest, proxyType, nicResolver, CidrSet.parse(gkeServiceIpRange));
+  }
+
+  public GCPDisallowInternalAddressFilter(
+      HttpRequest originalRequest,
+      String proxyType,
+      NicResolver nicResolver,
+      CidrSet googleManagedRanges) {
+    super(originalRequest);
+    this.proxyType = proxyType;
     this.nicResolver = nicResolver;
+    this.googleManagedRanges = googleManagedRanges;
+    this.response = null;
+  }
+
+  /**
+   * Resolves NICs through {@code asyncNicResolver} instead of on the event loop. If the verdict is
+   * not known by the time the request is sent, the connection to the server is still opened but
+   * nothing is written to it until the verdict arrives or {@code verdictTimeout} elapses, in which
+   * case the request is denied.
+   */
+  public GCPDisallowInternalAddressFilter(
+      HttpRequest originalRequest,
+      ChannelHandlerContext clientCtx,
+      String proxyType,
+      AsyncNicResolver asyncNicResolver,
+      Duration verdictTimeout,
+      CidrSet googleManagedRanges) {
+    this(originalRequest, proxyType, DEFAULT_NIC_RESOLVER, googleManagedRanges);
+    this.clientCtx = clientCtx;
+    this.asyncNicResolver = asyncNicResolver;
+    this.verdictTimeout = verdictTimeout;
   }
 
   // This runs after proxyToServerResolutionSucceeded which updates the response variable if
   // required.
   @Override
   public HttpResponse proxyToServerRequest(HttpObject httpObject) {
+    if (response == null && pendingVerdict != null && pendingVerdict.isDone()) {
+      response = pendingVerdict.join();
+    }
     return this.response;
   }
 
@@ -58,6 +104,48 @@ public class GCPDisallowInternalAddressFilter extends HttpFiltersAdapter {
     super.proxyToServerResolutionSucceeded(serverHostAndPort, resolvedRemoteAddress);
   }
 
+  // Called before the request is written to the server, so the held writes include it. A verdict
+  // that arrived after proxyToServerRequest checked for one has not been applied yet, so the
+  // writes are held unless the request is already known to be allowed.
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    if (pendingVerdict != null && !(pendingVerdict.isDone() && pendingVerdict.join() == null)) {
+      PendingVerdictHandler pendingVerdictHandler =
+          new PendingVerdictHandler(
+              pendingVerdict, clientCtx, originalRequest.method() == HttpMethod.CONNECT);
+      EventLoop serverLoop = serverCtx.channel().eventLoop();
+      if (serverLoop.inEventLoop()) {
+        serverCtx.pipeline().addFirst(pendingVerdictHandler);
+      } else {
+        holdTunnelUntilAdded(serverCtx, serverLoop, pendingVerdictHandler);
+      }
+    }
+    super.proxyToServerConnectionSucceeded(serverCtx);
+  }
+
+  // CONNECT tunnels report success from the client's event loop. Netty skips a handler added from
+  // another thread until the channel's own event loop has added it, so the client's reads are held
+  // until the server's event loop has put the verdict hold in place.
+  private void holdTunnelUntilAdded(
+      ChannelHandlerContext serverCtx,
+      EventLoop serverLoop,
+      PendingVerdictHandler pendingVerdictHandler) {
+    TunnelReadHold readHold = new TunnelReadHold();
+    clientCtx.pipeline().addFirst(readHold);
+    serverLoop.execute(
+        () -> {
+          serverCtx.pipeline().addFirst(pendingVerdictHandler);
+          clientCtx
+              .executor()
+              .execute(
+                  () -> {
+                    if (clientCtx.pipeline().context(readHold) != null) {
+                      clientCtx.pipeline().remove(readHold);
+                    }
+                  });
+        });
+  }
+
   // Update response variable if we want to return early and break the connection
   private void blockRequestIfPrivateAddressIsRoutedTowardsInternalService(
       InetSocketAddress address) {
@@ -68,31 +156,34 @@ public class GCPDisallowInternalAddressFilter extends HttpFiltersAdapter {
     switch (proxyType) {
       case "STANDALONE":
         if (isPrivateIp) {
-          response =
-              Utils.createHTTPResponse(
-                  String.format("Ingress Route not allowed For Private IPs: %s", resolvedIp),
-                  HttpResponseStatus.FORBIDDEN);
+          response = privateIpNotAllowed(resolvedIp);
         }
         break;
       case "SHARED_VPC":
       case "TRANSIT":
+        if (asyncNicResolver != null) {
+          pendingVerdict =
+              asyncNicResolver
+                  .resolveAsync(resolvedIp)
+                  .orTimeout(verdictTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                  .handle(
+                      (nic, e) ->
+                          e != null
+                              ? couldNotResolveRoute(e)
+                              : verdictForNic(nic, resolvedIp, isPrivateIp));
+          if (pendingVerdict.isDone()) {
+            response = pendingVerdict.join();
+          }
+          return;
+        }
         String nic;
         try {
           nic = nicResolver.resolve(resolvedIp);
         } catch (Exception e) {
-          response =
-              Utils.createHTTPResponse(
-                  String.format("Could not resolve route: %s", e.getMessage()),
-                  HttpResponseStatus.UNAUTHORIZED);
+          response = couldNotResolveRoute(e);
           return;
         }
-        // if routed towards an internal service and its a private ip, Do not allow
-        if (nic.equals("eth1") && isPrivateIp) {
-          response =
-              Utils.createHTTPResponse(
-                  String.format("Ingress Route not allowed For Private IPs: %s", resolvedIp),
-                  HttpResponseStatus.FORBIDDEN);
-        }
+        response = verdictForNic(nic, resolvedIp, isPrivateIp);
         break;
       default:
         response =
@@ -102,6 +193,27 @@ public class GCPDisallowInternalAddressFilter extends HttpFiltersAdapter {
     }
   }
 
+  private static HttpResponse verdictForNic(String nic, String resolvedIp, boolean isPrivateIp) {
+    // if routed towards an internal service and its a private ip, Do not allow
+    if (nic.equals("eth1") && isPrivateIp) {
+      return privateIpNotAllowed(resolvedIp);
+    }
+    return null;
+  }
+
+  private static HttpResponse privateIpNotAllowed(String resolvedIp) {
+    return Utils.createHTTPResponse(
+        String.format("Ingress Route not allowed For Private IPs: %s", resolvedIp),
+        HttpResponseStatus.FORBIDDEN);
+  }
+
+  private static HttpResponse couldNotResolveRoute(Throwable e) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    String reason = cause instanceof TimeoutException ? "timed out" : cause.getMessage();
+    return Utils.createHTTPResponse(
+        String.format("Could not resolve route: %s", reason), HttpResponseStatus.UNAUTHORIZED);
+  }
+
   private boolean isPrivateAddress(InetAddress address) {
     // Loopback address covers 127.0.0.1 or ::1
     // Site-local address covers 10.x.x.x, 172.16.x.x to 172.31.x.x, 192.168.x.x
@@ -109,14 +221,6 @@ public class GCPDisallowInternalAddressFilter extends HttpFiltersAdapter {
     return address.isLoopbackAddress()
         || address.isSiteLocalAddress()
         || address.isLinkLocalAddress()
-        || isGoogleManagedIp(address.getHostAddress());
-  }
-
-  private boolean isGoogleManagedIp(String ipAddress) {
-    if (ipAddress == null || ipAddress.isEmpty()) {
-      return false;
-    }
-    return new IpSubnetFilterRule(gkeServiceIpRange, IpFilterRuleType.ACCEPT)
-        .matches(new InetSocketAddress(ipAddress, 0));
+        || googleManagedRanges.contains(address);
   }
 }
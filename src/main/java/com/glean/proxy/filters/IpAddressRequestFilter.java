@@ -1,5 +1,6 @@
 package com.glean.proxy.filters;
 
+import com.glean.proxy.filters.helpers.DenyEventAggregator;
 import com.glean.proxy.filters.helpers.Utils;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpObject;
@@ -20,6 +21,7 @@ public class IpAddressRequestFilter extends HttpFiltersAdapter {
 
   private final String requiredIpAddress;
   private final ALLOWED_PROXY_ADDRESS_TYPE allowedProxyAddressType;
+  private final DenyEventAggregator denyEvents;
   private static final String LOCALHOST = "127.0.0.1";
   private static final Logger logger = Logger.getLogger(IpAddressRequestFilter.class.getName());
 
@@ -30,9 +32,20 @@ public class IpAddressRequestFilter extends HttpFiltersAdapter {
       // On AWS, there's only one nic attached to the proxy, so we can't use local address to
       // differentiate requests
       ALLOWED_PROXY_ADDRESS_TYPE allowedProxyAddressType) {
+    this(originalRequest, ctx, requiredIpAddress, allowedProxyAddressType, null);
+  }
+
+  /** Rejected requests are counted in {@code denyEvents} if given, and otherwise each logged. */
+  public IpAddressRequestFilter(
+      HttpRequest originalRequest,
+      ChannelHandlerContext ctx,
+      String requiredIpAddress,
+      ALLOWED_PROXY_ADDRESS_TYPE allowedProxyAddressType,
+      DenyEventAggregator denyEvents) {
     super(originalRequest, ctx);
     this.requiredIpAddress = requiredIpAddress;
     this.allowedProxyAddressType = allowedProxyAddressType;
+    this.denyEvents = denyEvents;
   }
 
   @Override
@@ -50,8 +63,12 @@ public class IpAddressRequestFilter extends HttpFiltersAdapter {
               "Incoming address: %s, host ip accepted: %s", incomingSocketAddress, shouldAccept));
       if (shouldAccept) {
         return null;
+      }
+      String message = String.format("Rejected proxy request from: %s", inetAddress);
+      if (denyEvents != null) {
+        denyEvents.record(IpAddressRequestFilter.class, incomingHostAddress, message);
       } else {
-        logger.warning(String.format("Rejected proxy request from: %s", inetAddress));
+        logger.warning(message);
       }
     } else {
       logger.warning(
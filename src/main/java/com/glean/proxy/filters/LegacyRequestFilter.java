@@ -3,7 +3,9 @@ package com.glean.proxy.filters;
 import com.glean.proxy.filters.helpers.OnPremisesProxy;
 import com.glean.proxy.filters.helpers.UpgradeRequestHandler;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
@@ -24,8 +26,10 @@ public class LegacyRequestFilter extends HttpFiltersAdapter {
   private final OnPremisesProxy legacyProxy;
   private static final String PROXY_HEADER = "OnPrem-Proxy";
 
-  public LegacyRequestFilter(HttpRequest originalRequest, OnPremisesProxy legacyProxy) {
-    super(originalRequest);
+  /** Protocol upgrades complete on the event loop of the client context {@code ctx}. */
+  public LegacyRequestFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, OnPremisesProxy legacyProxy) {
+    super(originalRequest, ctx);
     this.legacyProxy = legacyProxy;
   }
 
@@ -69,13 +73,14 @@ public class LegacyRequestFilter extends HttpFiltersAdapter {
       httpRequest.headers().add("Host", uri.getHost());
       return null;
     }
-    return createBadRequestResponse("Invalid Request");
+    // Body chunks of a request that LittleProxy forwards itself.
+    return httpObject instanceof HttpContent ? null : createBadRequestResponse("Invalid Request");
   }
 
   @Override
   public HttpResponse proxyToServerRequest(HttpObject httpObject) {
     if (!(httpObject instanceof HttpRequest)) {
-      return createBadRequestResponse("Invalid Request");
+      return httpObject instanceof HttpContent ? null : createBadRequestResponse("Invalid Request");
     }
     final HttpRequest originalRequest = (HttpRequest) httpObject;
     // Protocol upgrade is not needed. LittleProxy can take care of pure HTTP requests.
@@ -83,7 +88,8 @@ public class LegacyRequestFilter extends HttpFiltersAdapter {
       return null;
     }
     String upgradedUri = legacyProxy.getTargetURLForUpgradedProtocol(originalRequest.uri());
-    return UpgradeRequestHandler.sendUpgradedRequest(originalRequest, upgradedUri, PROXY_HEADER);
+    return UpgradeRequestHandler.sendUpgradedRequestAsync(
+        ctx, originalRequest, upgradedUri, PROXY_HEADER);
   }
 
   private HttpResponse createBadRequestResponse(String message) {
@@ -0,0 +1,33 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.Utils;
+import com.glean.proxy.metrics.ProxyMetrics;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns the proxy's metrics in the Prometheus text format for {@code /proxy_metrics}, and leaves
+ * other debug requests to the filters after it.
+ */
+public class MetricsFilter extends HttpFiltersAdapter {
+  private final ProxyMetrics metrics;
+
+  public MetricsFilter(HttpRequest originalRequest, ProxyMetrics metrics) {
+    super(originalRequest);
+    this.metrics = metrics;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!originalRequest.uri().startsWith("/proxy_metrics")) {
+      return null;
+    }
+    HttpResponse response = Utils.createHTTPResponse(metrics.scrape(), HttpResponseStatus.OK);
+    response.headers().set(HttpHeaderNames.CONTENT_TYPE, ProxyMetrics.CONTENT_TYPE);
+    return response;
+  }
+}
@@ -0,0 +1,83 @@
+package com.glean.proxy.filters;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.PendingWriteQueue;
+import io.netty.handler.codec.http.HttpResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Holds everything written to a proxy-to-server channel until a policy verdict arrives, without
+ * blocking the channel's event loop. A null verdict releases the held writes; a response denies
+ * the request, in which case nothing reaches the server and the client receives the response (or
+ * is disconnected, if it has already been told a CONNECT tunnel was established).
+ */
+final class PendingVerdictHandler extends ChannelDuplexHandler {
+  private final CompletableFuture<HttpResponse> verdict;
+  private final ChannelHandlerContext clientCtx;
+  private final boolean tunnel;
+
+  private PendingWriteQueue pendingWrites;
+  private boolean flushRequested;
+
+  PendingVerdictHandler(
+      CompletableFuture<HttpResponse> verdict, ChannelHandlerContext clientCtx, boolean tunnel) {
+    this.verdict = verdict;
+    this.clientCtx = clientCtx;
+    this.tunnel = tunnel;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    pendingWrites = new PendingWriteQueue(ctx);
+    verdict.whenCompleteAsync(
+        (response, e) -> {
+          if (response == null && e == null) {
+            allow(ctx);
+          } else {
+            deny(ctx, response);
+          }
+        },
+        ctx.executor());
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    pendingWrites.add(msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) {
+    flushRequested = true;
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    if (!pendingWrites.isEmpty()) {
+      pendingWrites.removeAndWriteAll();
+      if (flushRequested) {
+        ctx.flush();
+      }
+    }
+  }
+
+  private void allow(ChannelHandlerContext ctx) {
+    if (!ctx.isRemoved()) {
+      // handlerRemoved releases the held writes in order.
+      ctx.pipeline().remove(this);
+    }
+  }
+
+  private void deny(ChannelHandlerContext ctx, HttpResponse response) {
+    pendingWrites.removeAndFailAll(new IOException("Request denied by proxy policy"));
+    ctx.close();
+    if (tunnel || response == null) {
+      clientCtx.close();
+    } else {
+      clientCtx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+}
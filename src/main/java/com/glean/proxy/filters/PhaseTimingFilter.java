@@ -0,0 +1,122 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.TrafficClass;
+import com.glean.proxy.metrics.UpstreamPhase;
+import com.glean.proxy.metrics.UpstreamPhaseMetrics;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import java.net.InetSocketAddress;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Times the {@link UpstreamPhase phases} of a request from LittleProxy's lifecycle hooks, so that a
+ * slow request can be put down to DNS, the network or the origin. Requests sent on a reused server
+ * connection only have the phases after the connect, and CONNECT tunnels only those up to it,
+ * since the proxy does not see the requests inside a tunnel. LittleProxy does not call {@link
+ * #proxyToServerConnectionSucceeded} for CONNECT tunnels; the proxy's tunnel tracker does, once the
+ * client has been told the tunnel is established.
+ *
+ * <p>The hooks run on both the client and the server event loops, hence the volatile timestamps.
+ */
+public class PhaseTimingFilter extends HttpFiltersAdapter {
+  private final UpstreamPhaseMetrics metrics;
+  private volatile String host;
+  private volatile long resolutionStartedNanos;
+  private volatile long connectionStartedNanos;
+  private volatile long handshakeStartedNanos;
+  private volatile long requestSentNanos;
+  private volatile long responseReceivingNanos;
+
+  public PhaseTimingFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, UpstreamPhaseMetrics metrics) {
+    super(originalRequest, ctx);
+    this.metrics = metrics;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (httpObject instanceof HttpRequest request) {
+      host = TrafficClass.hostOf(request);
+      metrics.recordRequest(host);
+    }
+    return null;
+  }
+
+  @Override
+  public InetSocketAddress proxyToServerResolutionStarted(String resolvingServerHostAndPort) {
+    resolutionStartedNanos = System.nanoTime();
+    return null;
+  }
+
+  @Override
+  public void proxyToServerResolutionSucceeded(
+      String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
+    recordSince(resolutionStartedNanos, UpstreamPhase.DNS);
+  }
+
+  @Override
+  public void proxyToServerResolutionFailed(String hostAndPort) {
+    recordSince(resolutionStartedNanos, UpstreamPhase.DNS);
+  }
+
+  @Override
+  public void proxyToServerConnectionStarted() {
+    connectionStartedNanos = System.nanoTime();
+  }
+
+  @Override
+  public void proxyToServerConnectionSSLHandshakeStarted() {
+    handshakeStartedNanos = System.nanoTime();
+    recordSince(connectionStartedNanos, UpstreamPhase.CONNECT);
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    // LittleProxy reports success once the handshake, if any, is done.
+    if (handshakeStartedNanos != 0) {
+      recordSince(handshakeStartedNanos, UpstreamPhase.TLS);
+    } else {
+      recordSince(connectionStartedNanos, UpstreamPhase.CONNECT);
+    }
+  }
+
+  @Override
+  public void proxyToServerConnectionFailed() {
+    if (handshakeStartedNanos == 0) {
+      recordSince(connectionStartedNanos, UpstreamPhase.CONNECT);
+    }
+  }
+
+  // LittleProxy only reports a request as sent once it writes a separate last chunk, which requests
+  // without a body may not have, so the first byte is timed from when the request starts going out
+  // unless the rest of it is seen to follow.
+  @Override
+  public void proxyToServerRequestSending() {
+    requestSentNanos = System.nanoTime();
+  }
+
+  @Override
+  public void proxyToServerRequestSent() {
+    requestSentNanos = System.nanoTime();
+  }
+
+  @Override
+  public void serverToProxyResponseReceiving() {
+    responseReceivingNanos = System.nanoTime();
+    recordSince(requestSentNanos, UpstreamPhase.FIRST_BYTE);
+  }
+
+  @Override
+  public void serverToProxyResponseReceived() {
+    recordSince(responseReceivingNanos, UpstreamPhase.TRANSFER);
+  }
+
+  /** Records the time since {@code startNanos}, unless the phase was never started. */
+  private void recordSince(long startNanos, UpstreamPhase phase) {
+    if (startNanos != 0) {
+      metrics.record(host, phase, System.nanoTime() - startNanos);
+    }
+  }
+}
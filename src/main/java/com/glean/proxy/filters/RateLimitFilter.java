@@ -0,0 +1,59 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.RateLimiter;
+import com.glean.proxy.filters.helpers.TrafficClass;
+import com.glean.proxy.filters.helpers.Utils;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.logging.Logger;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Answers requests over their destination's {@link RateLimiter rate limit} with 429 Too Many
+ * Requests, before any connection to the destination is opened.
+ */
+public class RateLimitFilter extends HttpFiltersAdapter {
+  private static final Logger logger = Logger.getLogger(RateLimitFilter.class.getName());
+
+  private final RateLimiter rateLimiter;
+
+  public RateLimitFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, RateLimiter rateLimiter) {
+    super(originalRequest, ctx);
+    this.rateLimiter = rateLimiter;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!(httpObject instanceof HttpRequest request)) {
+      return null;
+    }
+    String host = TrafficClass.hostOf(request);
+    Duration retryAfter = rateLimiter.tryAcquire(host, clientAddress());
+    if (retryAfter.isZero()) {
+      return null;
+    }
+    logger.fine(String.format("Rate limited request to %s", host));
+    HttpResponse response =
+        Utils.createHTTPResponse(
+            String.format("Too many requests to %s", host), HttpResponseStatus.TOO_MANY_REQUESTS);
+    // Retry-After is in whole seconds; rounding down would invite a retry that is still too early.
+    long retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+    return response;
+  }
+
+  private String clientAddress() {
+    SocketAddress address = ctx == null ? null : ctx.channel().remoteAddress();
+    return address instanceof InetSocketAddress inetAddress
+        ? inetAddress.getAddress().getHostAddress()
+        : String.valueOf(address);
+  }
+}
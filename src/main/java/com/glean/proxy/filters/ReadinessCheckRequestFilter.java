@@ -0,0 +1,28 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.Utils;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns HTTP 200 OK once the proxy is ready for traffic, and HTTP 503 Service Unavailable while
+ * it is still warming up.
+ */
+public class ReadinessCheckRequestFilter extends HttpFiltersAdapter {
+  private final boolean ready;
+
+  public ReadinessCheckRequestFilter(HttpRequest originalRequest, boolean ready) {
+    super(originalRequest);
+    this.ready = ready;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    return ready
+        ? Utils.createHTTPResponse("OK", HttpResponseStatus.OK)
+        : Utils.createHTTPResponse("Warming up", HttpResponseStatus.SERVICE_UNAVAILABLE);
+  }
+}
@@ -0,0 +1,33 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import com.glean.proxy.filters.helpers.Utils;
+import com.google.gson.Gson;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns the destination hosts with the most requests and response bytes as JSON for {@code
+ * /proxy_debug/top_hosts}, and leaves other debug requests to the filters after it.
+ */
+public class TopHostsDebugFilter extends HttpFiltersAdapter {
+  private static final Gson gson = new Gson();
+
+  private final HostHeavyHitters heavyHitters;
+
+  public TopHostsDebugFilter(HttpRequest originalRequest, HostHeavyHitters heavyHitters) {
+    super(originalRequest);
+    this.heavyHitters = heavyHitters;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!originalRequest.uri().startsWith("/proxy_debug/top_hosts")) {
+      return null;
+    }
+    return Utils.createJsonResponse(gson.toJson(heavyHitters.snapshot()), HttpResponseStatus.OK);
+  }
+}
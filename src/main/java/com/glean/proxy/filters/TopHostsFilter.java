@@ -0,0 +1,28 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import com.glean.proxy.filters.helpers.TrafficClass;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/** Counts each request for its destination host in {@link HostHeavyHitters}. */
+public class TopHostsFilter extends HttpFiltersAdapter {
+  private final HostHeavyHitters heavyHitters;
+
+  public TopHostsFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, HostHeavyHitters heavyHitters) {
+    super(originalRequest, ctx);
+    this.heavyHitters = heavyHitters;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (httpObject instanceof HttpRequest request) {
+      heavyHitters.recordRequest(TrafficClass.hostOf(request));
+    }
+    return null;
+  }
+}
@@ -0,0 +1,33 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.TrafficShaper;
+import com.glean.proxy.filters.helpers.Utils;
+import com.google.gson.Gson;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Returns the current throughput of each shaped traffic class as JSON for {@code
+ * /proxy_debug/traffic}, and leaves other debug requests to the filters after it.
+ */
+public class TrafficShapingDebugFilter extends HttpFiltersAdapter {
+  private static final Gson gson = new Gson();
+
+  private final TrafficShaper shaper;
+
+  public TrafficShapingDebugFilter(HttpRequest originalRequest, TrafficShaper shaper) {
+    super(originalRequest);
+    this.shaper = shaper;
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (!originalRequest.uri().startsWith("/proxy_debug/traffic")) {
+      return null;
+    }
+    return Utils.createJsonResponse(gson.toJson(shaper.snapshot()), HttpResponseStatus.OK);
+  }
+}
@@ -0,0 +1,42 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.TrafficClass;
+import com.glean.proxy.filters.helpers.TrafficShaper;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Applies the {@link TrafficShaper} limits for a request's destination to its connection.
+ *
+ * <p>LittleProxy does not call {@link #proxyToServerConnectionSucceeded} for CONNECT tunnels; the
+ * proxy's tunnel tracker does, once the client has been told the tunnel is established.
+ */
+public class TrafficShapingFilter extends HttpFiltersAdapter {
+  private final TrafficShaper shaper;
+  private final TrafficClass trafficClass;
+  private volatile String host;
+
+  public TrafficShapingFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, TrafficShaper shaper) {
+    super(originalRequest, ctx);
+    this.shaper = shaper;
+    // Classified before the ingress filter rewrites the URI of /proxy requests.
+    this.trafficClass = TrafficClass.of(originalRequest);
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (httpObject instanceof HttpRequest request) {
+      host = TrafficClass.hostOf(request);
+    }
+    return null;
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    shaper.shape(serverCtx.channel(), trafficClass, host);
+  }
+}
@@ -0,0 +1,46 @@
+package com.glean.proxy.filters;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Holds what a client sends into a CONNECT tunnel until the handler is removed, so none of it is
+ * relayed to the server before the server channel is ready for it. Whatever was held is passed on
+ * in order on removal.
+ */
+final class TunnelReadHold extends ChannelInboundHandlerAdapter {
+  private final Queue<Object> held = new ArrayDeque<>();
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    held.add(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    // Fired on removal instead, once the held reads have been passed on.
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    Object msg;
+    while ((msg = held.poll()) != null) {
+      ReferenceCountUtil.release(msg);
+    }
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    if (!held.isEmpty()) {
+      Object msg;
+      while ((msg = held.poll()) != null) {
+        ctx.fireChannelRead(msg);
+      }
+      ctx.fireChannelReadComplete();
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.TunnelRelay;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Switches both sides of a CONNECT tunnel to bulk relay once the connection to the server is made,
+ * which only happens after every other filter has let the request through. LittleProxy does not
+ * call {@link #proxyToServerConnectionSucceeded} for tunnels itself; the proxy's tunnel tracker
+ * does, once the client has been told the tunnel is established.
+ */
+public class TunnelRelayFilter extends HttpFiltersAdapter {
+  private final TunnelRelay relay;
+
+  public TunnelRelayFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, TunnelRelay relay) {
+    super(originalRequest, ctx);
+    this.relay = relay;
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    relay.relay(ctx.channel());
+    relay.relay(serverCtx.channel());
+  }
+}
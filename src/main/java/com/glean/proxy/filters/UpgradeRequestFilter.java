@@ -1,6 +1,7 @@
 package com.glean.proxy.filters;
 
 import com.glean.proxy.filters.helpers.UpgradeRequestHandler;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
@@ -12,8 +13,13 @@ public class UpgradeRequestFilter extends HttpFiltersAdapter {
   private final String originalUri;
   private static final String PROXY_HEADER = "Egress-Proxy";
 
-  public UpgradeRequestFilter(HttpRequest originalRequest, boolean upgradeHttpRequests) {
-    super(originalRequest);
+  /**
+   * Upgraded requests are sent without blocking the worker thread of the client context {@code
+   * ctx}, and the response is written to the client when it arrives.
+   */
+  public UpgradeRequestFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, boolean upgradeHttpRequests) {
+    super(originalRequest, ctx);
     this.originalUri = originalRequest.uri();
     this.upgradeHttpRequests = upgradeHttpRequests;
   }
@@ -28,6 +34,7 @@ public class UpgradeRequestFilter extends HttpFiltersAdapter {
       return null;
     }
     String upgradedUri = originalUri.replaceFirst("^http://", "https://");
-    return UpgradeRequestHandler.sendUpgradedRequest(httpsRequest, upgradedUri, PROXY_HEADER);
+    return UpgradeRequestHandler.sendUpgradedRequestAsync(
+        ctx, httpsRequest, upgradedUri, PROXY_HEADER);
   }
 }
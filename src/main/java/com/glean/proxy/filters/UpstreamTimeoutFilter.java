@@ -0,0 +1,145 @@
+package com.glean.proxy.filters;
+
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable;
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable.Policy;
+import com.glean.proxy.filters.helpers.TrafficClass;
+import com.glean.proxy.filters.helpers.Utils;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Applies the {@link TimeoutPolicyTable} policy for a request's destination to the connection
+ * opened for it. LittleProxy applies one connect and idle timeout to every connection and offers no
+ * way to change them for one, so:
+ *
+ * <ul>
+ *   <li>a connect that outlasts the policy's timeout is answered with 504 Gateway Timeout and the
+ *       client connection closed, which also closes the pending server connection;
+ *   <li>the idle timeout replaces LittleProxy's idle handler on the server connection, and for
+ *       CONNECT tunnels on the client connection too.
+ * </ul>
+ *
+ * <p>LittleProxy does not call {@link #proxyToServerConnectionSucceeded} for CONNECT tunnels; the
+ * proxy's tunnel tracker does, once the client has been told the tunnel is established.
+ */
+public class UpstreamTimeoutFilter extends HttpFiltersAdapter {
+  private static final Logger logger = Logger.getLogger(UpstreamTimeoutFilter.class.getName());
+  // The name LittleProxy gives its IdleStateHandler.
+  private static final String IDLE_HANDLER = "idle";
+
+  private final TimeoutPolicyTable table;
+  private final TrafficClass trafficClass;
+  private final AtomicBoolean connectSettled = new AtomicBoolean();
+  private volatile String host;
+  private volatile Policy policy;
+  private volatile long connectStartNanos;
+  private volatile ScheduledFuture<?> connectTimeout;
+
+  public UpstreamTimeoutFilter(
+      HttpRequest originalRequest, ChannelHandlerContext ctx, TimeoutPolicyTable table) {
+    super(originalRequest, ctx);
+    this.table = table;
+    // Classified before the ingress filter rewrites the URI of /proxy requests.
+    this.trafficClass = TrafficClass.of(originalRequest);
+  }
+
+  @Override
+  public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+    if (httpObject instanceof HttpRequest request) {
+      host = TrafficClass.hostOf(request);
+      policy = table.policyFor(host, trafficClass);
+    }
+    return null;
+  }
+
+  @Override
+  public void proxyToServerConnectionStarted() {
+    Policy policy = this.policy;
+    if (policy == null) {
+      return;
+    }
+    connectStartNanos = System.nanoTime();
+    Duration timeout = table.connectTimeout(policy, host);
+    // Longer timeouts are left to the proxy-wide connect timeout.
+    if (timeout.compareTo(table.defaultPolicy().connectTimeout()) < 0) {
+      connectTimeout =
+          ctx.channel()
+              .eventLoop()
+              .schedule(() -> connectTimedOut(timeout), timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void proxyToServerConnectionFailed() {
+    settleConnect();
+  }
+
+  @Override
+  public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+    if (!settleConnect()) {
+      return;
+    }
+    table.recordConnect(host, Duration.ofNanos(System.nanoTime() - connectStartNanos));
+    Duration idleTimeout = policy.idleTimeout();
+    if (idleTimeout.equals(table.defaultPolicy().idleTimeout())) {
+      return;
+    }
+    replaceIdleHandler(serverCtx.channel(), idleTimeout);
+    // Other requests may share a plain HTTP client connection; a tunnel has it to itself.
+    if (trafficClass == TrafficClass.EGRESS_CONNECT) {
+      replaceIdleHandler(ctx.channel(), idleTimeout);
+    }
+  }
+
+  /** Returns false if the connect was already settled, for example by timing out. */
+  private boolean settleConnect() {
+    if (policy == null || !connectSettled.compareAndSet(false, true)) {
+      return false;
+    }
+    ScheduledFuture<?> timeout = connectTimeout;
+    if (timeout != null) {
+      timeout.cancel(false);
+    }
+    return true;
+  }
+
+  private void connectTimedOut(Duration timeout) {
+    if (!connectSettled.compareAndSet(false, true) || !ctx.channel().isActive()) {
+      return;
+    }
+    logger.warning(
+        String.format(
+            "Connect to %s timed out after %d ms", originalRequest.uri(), timeout.toMillis()));
+    ctx.writeAndFlush(
+            Utils.createHTTPResponse("Gateway Timeout", HttpResponseStatus.GATEWAY_TIMEOUT))
+        .addListener(ChannelFutureListener.CLOSE);
+  }
+
+  private static void replaceIdleHandler(Channel channel, Duration idleTimeout) {
+    channel
+        .eventLoop()
+        .execute(
+            () -> {
+              ChannelPipeline pipeline = channel.pipeline();
+              if (pipeline.get(IDLE_HANDLER) != null) {
+                pipeline.replace(
+                    IDLE_HANDLER,
+                    IDLE_HANDLER,
+                    new IdleStateHandler(0, 0, idleTimeout.toSeconds(), TimeUnit.SECONDS));
+              }
+            });
+  }
+}
@@ -3,6 +3,7 @@ package com.glean.proxy.filters.helpers;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -11,6 +12,7 @@ public class AllowedEgressDomains {
   public final HashSet<String> individual;
   public final HashSet<String> prefixWildcard;
   public final ArrayList<Pattern> wildcard;
+  private final EgressDomainMatcher matcher;
 
   private Pattern convertWildcardDomainToPattern(String wildcardDomain) {
     // Escape '.' and '-', and replace '*' with '[^.]+' for regex
@@ -25,6 +27,7 @@ public class AllowedEgressDomains {
       individual = new HashSet<>();
       prefixWildcard = new HashSet<>();
       wildcard = new ArrayList<>();
+      matcher = EgressDomainMatcher.compile(List.of(), List.of(), List.of());
       return;
     }
 
@@ -49,13 +52,22 @@ public class AllowedEgressDomains {
             .map(domain -> domain.substring(2).toLowerCase())
             .filter(domain -> !domain.isEmpty())
             .collect(Collectors.toCollection(HashSet::new));
-    wildcard =
+    List<String> wildcardDomains =
         Arrays.stream(domains)
             .map(String::trim)
             .filter(isWildcardDomain)
             .map(String::toLowerCase)
             .filter(domain -> !domain.isEmpty())
+            .toList();
+    wildcard =
+        wildcardDomains.stream()
             .map(this::convertWildcardDomainToPattern)
             .collect(Collectors.toCollection(ArrayList::new));
+    matcher = EgressDomainMatcher.compile(individual, prefixWildcard, wildcardDomains);
+  }
+
+  /** Returns whether the lower-cased host is covered by any of the allowed domains. */
+  public boolean isAllowed(String host) {
+    return matcher.matches(host);
   }
 }
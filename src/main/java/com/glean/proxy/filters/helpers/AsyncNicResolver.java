@@ -0,0 +1,14 @@
+package com.glean.proxy.filters.helpers;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncNicResolver {
+  /**
+   * returns a future completed with the NIC towards which requests to hostIp will be routed, or
+   * completed exceptionally if the route could not be resolved
+   *
+   * @param hostIp
+   * @return nic
+   */
+  CompletableFuture<String> resolveAsync(String hostIp);
+}
@@ -1,35 +1,108 @@
 package com.glean.proxy.filters.helpers;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Bounded cache in front of a {@link NicResolver}. Concurrent misses for the same address share a
+ * single call to the delegate, resolved routes expire after {@code ttl} so that routing changes are
+ * eventually picked up, and failures are remembered for the shorter {@code negativeTtl} so that an
+ * unroutable address does not hit the delegate on every request.
+ */
 public class CachedNicResolver implements NicResolver {
-  private final NicResolver delegate;
-
-  private static final int MAX_CACHE_SIZE = 1000;
+  private static final long DEFAULT_MAXIMUM_SIZE = 1000;
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+  private static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(5);
 
-  private static final ConcurrentHashMap<String, String> routeCache =
-      new ConcurrentHashMap<>(
-          new LinkedHashMap<String, String>(
-              MAX_CACHE_SIZE, 0.75f, true /* maintain Access Order */) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
-              return size() > MAX_CACHE_SIZE;
-            }
-          });
+  private final NicResolver delegate;
+  private final Ticker ticker;
+  private final long negativeTtlNanos;
+  private final LoadingCache<String, Resolution> routeCache;
 
   public CachedNicResolver(NicResolver delegate) {
+    this(delegate, DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CachedNicResolver(
+      NicResolver delegate,
+      long maximumSize,
+      Duration ttl,
+      Duration negativeTtl,
+      Ticker ticker) {
     this.delegate = delegate;
+    this.ticker = ticker;
+    this.negativeTtlNanos = negativeTtl.toNanos();
+    this.routeCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl)
+            .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+            .ticker(ticker)
+            .recordStats()
+            .build(
+                new CacheLoader<>() {
+                  @Override
+                  public Resolution load(String hostIp) throws InterruptedException {
+                    try {
+                      return new Resolution(delegate.resolve(hostIp), null, ticker.read());
+                    } catch (IOException | RuntimeException e) {
+                      return new Resolution(null, e, ticker.read());
+                    }
+                  }
+                });
   }
 
   public String resolve(String hostIp) throws InterruptedException, IOException {
-    if (routeCache.containsKey(hostIp)) {
+    Resolution resolution = load(hostIp);
+    if (resolution.failure() != null
+        && ticker.read() - resolution.resolvedAtNanos() >= negativeTtlNanos) {
+      // Only the thread that removes the stale failure triggers a new load; the others see the
+      // fresh entry or join its in-flight load.
+      routeCache.asMap().remove(hostIp, resolution);
+      resolution = load(hostIp);
+    }
+    if (resolution.failure() instanceof IOException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    if (resolution.failure() != null) {
+      throw new RuntimeException(resolution.failure().getMessage(), resolution.failure());
+    }
+    return resolution.nic();
+  }
+
+  @Override
+  public String resolveIfReady(String hostIp) {
+    Resolution resolution = routeCache.getIfPresent(hostIp);
+    if (resolution != null && resolution.failure() == null) {
+      return resolution.nic();
+    }
+    return resolution == null ? delegate.resolveIfReady(hostIp) : null;
+  }
+
+  /** Hit, miss, load and eviction counters since this resolver was created. */
+  public CacheStats stats() {
+    return routeCache.stats();
+  }
+
+  private Resolution load(String hostIp) throws InterruptedException {
+    try {
       return routeCache.get(hostIp);
+    } catch (ExecutionException e) {
+      // The loader only lets InterruptedException escape.
+      throw new InterruptedException(e.getCause().getMessage());
+    } catch (UncheckedExecutionException e) {
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
     }
-    String nic = delegate.resolve(hostIp);
-    routeCache.put(hostIp, nic);
-    return nic;
   }
+
+  private record Resolution(String nic, Exception failure, long resolvedAtNanos) {}
 }
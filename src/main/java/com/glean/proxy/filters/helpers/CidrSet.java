@@ -0,0 +1,84 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.util.NetUtil;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A set of IPv4 and IPv6 CIDR ranges, parsed once and matched against raw address bytes with a
+ * binary prefix trie. Bare addresses are treated as single-address ranges.
+ */
+public final class CidrSet {
+  private static final CidrSet EMPTY = new CidrSet(List.of());
+
+  private final PrefixTrie<Boolean> ipv4 = new PrefixTrie<>();
+  private final PrefixTrie<Boolean> ipv6 = new PrefixTrie<>();
+  private final List<String> ranges;
+
+  private CidrSet(Collection<String> ranges) {
+    this.ranges = List.copyOf(ranges);
+    for (String range : this.ranges) {
+      add(range);
+    }
+  }
+
+  public static CidrSet empty() {
+    return EMPTY;
+  }
+
+  public static CidrSet of(Collection<String> ranges) {
+    return new CidrSet(ranges);
+  }
+
+  /** Parses a comma-separated list of ranges. A null or blank list yields the empty set. */
+  public static CidrSet parse(String commaSeparatedRanges) {
+    if (commaSeparatedRanges == null || commaSeparatedRanges.isBlank()) {
+      return EMPTY;
+    }
+    return new CidrSet(
+        Arrays.stream(commaSeparatedRanges.split(","))
+            .map(String::trim)
+            .filter(range -> !range.isEmpty())
+            .toList());
+  }
+
+  public boolean contains(InetAddress address) {
+    return contains(address.getAddress());
+  }
+
+  public boolean contains(byte[] address) {
+    return address.length == 4 ? ipv4.anyMatch(address) : ipv6.anyMatch(address);
+  }
+
+  public boolean isEmpty() {
+    return ranges.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return String.join(",", ranges);
+  }
+
+  private void add(String range) {
+    int slash = range.indexOf('/');
+    String address = slash < 0 ? range : range.substring(0, slash);
+    byte[] bytes = NetUtil.createByteArrayFromIpAddressString(address);
+    if (bytes == null) {
+      throw new IllegalArgumentException("Invalid CIDR range: " + range);
+    }
+    int prefixLength = bytes.length * 8;
+    if (slash >= 0) {
+      try {
+        prefixLength = Integer.parseInt(range.substring(slash + 1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid CIDR range: " + range, e);
+      }
+      if (prefixLength < 0 || prefixLength > bytes.length * 8) {
+        throw new IllegalArgumentException("Invalid CIDR range: " + range);
+      }
+    }
+    (bytes.length == 4 ? ipv4 : ipv6).put(bytes, prefixLength, Boolean.TRUE);
+  }
+}
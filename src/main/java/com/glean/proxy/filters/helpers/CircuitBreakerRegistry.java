@@ -0,0 +1,161 @@
+package com.glean.proxy.filters.helpers;
+
+import com.glean.proxy.schemas.CircuitBreakerResponse;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * A circuit breaker for each upstream {@code host:port}. After a number of consecutive failed
+ * connects the breaker opens, and requests to that destination are turned away without a connect
+ * attempt. Once the open period is over, a single request is let through as a probe: if it
+ * connects the breaker closes, and if it fails the breaker opens again.
+ *
+ * <p>Each breaker's state is an immutable value swapped by compare-and-set, so event loops never
+ * wait on one another to check or update it. Destinations only get a breaker once a connect to
+ * them fails, and a successful connect removes it.
+ */
+public final class CircuitBreakerRegistry {
+  private static final Logger logger = Logger.getLogger(CircuitBreakerRegistry.class.getName());
+  private static final int MAX_TRACKED_DESTINATIONS = 10_000;
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  // sinceNanos is when the breaker opened, or when its probe was let through.
+  private record Breaker(State state, int consecutiveFailures, long sinceNanos) {}
+
+  private final Map<String, AtomicReference<Breaker>> breakers = new ConcurrentHashMap<>();
+  private final int failureThreshold;
+  private final Duration openDuration;
+  private final Ticker ticker;
+
+  public CircuitBreakerRegistry(int failureThreshold, Duration openDuration) {
+    this(failureThreshold, openDuration, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CircuitBreakerRegistry(int failureThreshold, Duration openDuration, Ticker ticker) {
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+    this.ticker = ticker;
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  public Duration getOpenDuration() {
+    return openDuration;
+  }
+
+  /**
+   * Returns zero if a request to {@code hostAndPort} may connect, possibly as the probe of an open
+   * breaker, and otherwise how long until the breaker lets a probe through.
+   */
+  public Duration tryAcquire(String hostAndPort) {
+    AtomicReference<Breaker> ref = breakers.get(hostAndPort);
+    if (ref == null) {
+      return Duration.ZERO;
+    }
+    while (true) {
+      Breaker breaker = ref.get();
+      if (breaker.state() == State.CLOSED) {
+        return Duration.ZERO;
+      }
+      long now = ticker.read();
+      // A probe that has not reported back within the open period is assumed lost, for example to
+      // a request that another filter denied, and the next request probes instead.
+      long remainingNanos = breaker.sinceNanos() + openDuration.toNanos() - now;
+      if (remainingNanos > 0) {
+        return Duration.ofNanos(remainingNanos);
+      }
+      Breaker probing = new Breaker(State.HALF_OPEN, breaker.consecutiveFailures(), now);
+      if (ref.compareAndSet(breaker, probing)) {
+        return Duration.ZERO;
+      }
+    }
+  }
+
+  /** Closes the breaker for {@code hostAndPort}. */
+  public void onSuccess(String hostAndPort) {
+    AtomicReference<Breaker> ref = breakers.remove(hostAndPort);
+    if (ref != null && ref.get().state() != State.CLOSED) {
+      logger.info(String.format("Circuit breaker for %s closed", hostAndPort));
+    }
+  }
+
+  public void onFailure(String hostAndPort) {
+    AtomicReference<Breaker> ref = breakers.get(hostAndPort);
+    if (ref == null) {
+      if (breakers.size() >= MAX_TRACKED_DESTINATIONS) {
+        // Make room by forgetting destinations that have only failed a few times.
+        breakers.values().removeIf(breaker -> breaker.get().state() == State.CLOSED);
+        if (breakers.size() >= MAX_TRACKED_DESTINATIONS) {
+          return;
+        }
+      }
+      ref =
+          breakers.computeIfAbsent(
+              hostAndPort, unused -> new AtomicReference<>(new Breaker(State.CLOSED, 0, 0)));
+    }
+    while (true) {
+      Breaker breaker = ref.get();
+      // Requests let through before the breaker opened may still be failing.
+      if (breaker.state() == State.OPEN) {
+        return;
+      }
+      int failures = breaker.consecutiveFailures() + 1;
+      Breaker next =
+          breaker.state() == State.HALF_OPEN || failures >= failureThreshold
+              ? new Breaker(State.OPEN, failures, ticker.read())
+              : new Breaker(State.CLOSED, failures, breaker.sinceNanos());
+      if (ref.compareAndSet(breaker, next)) {
+        if (next.state() == State.OPEN) {
+          logger.warning(
+              String.format(
+                  "Circuit breaker for %s opened after %d consecutive connect failures",
+                  hostAndPort, failures));
+        }
+        return;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  State state(String hostAndPort) {
+    AtomicReference<Breaker> ref = breakers.get(hostAndPort);
+    return ref == null ? State.CLOSED : ref.get().state();
+  }
+
+  public CircuitBreakerResponse snapshot() {
+    CircuitBreakerResponse response = new CircuitBreakerResponse();
+    response.failureThreshold = failureThreshold;
+    response.openSeconds = openDuration.toSeconds();
+    long now = ticker.read();
+    breakers.forEach(
+        (hostAndPort, ref) -> {
+          Breaker breaker = ref.get();
+          CircuitBreakerResponse.Destination destination =
+              new CircuitBreakerResponse.Destination();
+          destination.hostAndPort = hostAndPort;
+          destination.state = breaker.state().name();
+          destination.consecutiveFailures = breaker.consecutiveFailures();
+          if (breaker.state() != State.CLOSED) {
+            destination.retryAfterMillis =
+                TimeUnit.NANOSECONDS.toMillis(
+                    Math.max(0, breaker.sinceNanos() + openDuration.toNanos() - now));
+          }
+          response.destinations.add(destination);
+        });
+    return response;
+  }
+}
@@ -0,0 +1,36 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Placeholder a filter can return from a LittleProxy hook when the real response is produced
+ * asynchronously. LittleProxy's filter hooks must return a response synchronously; this placeholder
+ * is swallowed on its way to the client, and the real response is written in its place once it is
+ * ready. Until then, reads from the client are paused and any later writes or a close requested by
+ * LittleProxy are held back, so responses stay in order.
+ */
+public final class DeferredHttpResponse extends DefaultFullHttpResponse {
+  private DeferredHttpResponse() {
+    super(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.EMPTY_BUFFER);
+  }
+
+  /**
+   * Returns a placeholder for {@code response}, which will be written to the client connection of
+   * {@code ctx} once it completes. {@code response} must not complete exceptionally.
+   *
+   * @param ctx the client-to-proxy context passed to the filter
+   * @param response the response to send to the client
+   */
+  public static HttpResponse defer(
+      ChannelHandlerContext ctx, CompletableFuture<? extends HttpResponse> response) {
+    DeferredHttpResponse placeholder = new DeferredHttpResponse();
+    ctx.pipeline().addBefore(ctx.name(), null, new DeferredResponseHandler(response));
+    return placeholder;
+  }
+}
@@ -0,0 +1,141 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.PendingWriteQueue;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.ReferenceCountUtil;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Replaces a {@link DeferredHttpResponse} with the response it stands for. LittleProxy's {@code
+ * proxyToClientResponse} filters may swap the placeholder for another object, so the first response
+ * written is taken to be the placeholder, whatever it is. If LittleProxy drops the response and
+ * closes the connection instead, the close goes ahead.
+ *
+ * <p>A {@link StreamedHttpResponse} keeps this handler in place until its body has been relayed,
+ * so that writes and a close made by LittleProxy still come after the whole response.
+ */
+final class DeferredResponseHandler extends ChannelDuplexHandler {
+  private final CompletableFuture<? extends HttpResponse> response;
+
+  private PendingWriteQueue heldWrites;
+  private ChannelPromise heldClose;
+  private boolean placeholderWritten;
+  private HttpResponse readyResponse;
+  private StreamedHttpResponse streaming;
+
+  DeferredResponseHandler(CompletableFuture<? extends HttpResponse> response) {
+    this.response = response;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    heldWrites = new PendingWriteQueue(ctx);
+    ctx.channel().config().setAutoRead(false);
+    response.whenCompleteAsync((ready, e) -> onResponse(ctx, ready), ctx.executor());
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    if (!placeholderWritten && msg instanceof HttpResponse) {
+      placeholderWritten = true;
+      ReferenceCountUtil.release(msg);
+      promise.setSuccess();
+      writeIfReady(ctx);
+      return;
+    }
+    heldWrites.add(msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) {
+    // Held writes are flushed once the response has been written.
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+    if (!placeholderWritten) {
+      // handlerRemoved closes the connection once the held writes are released.
+      heldClose = promise;
+      ctx.pipeline().remove(this);
+    } else if (ctx.channel().isActive()) {
+      heldClose = promise;
+    } else {
+      ctx.close(promise);
+    }
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (streaming != null) {
+      streaming.writabilityChanged();
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    response.thenAccept(DeferredResponseHandler::discard);
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    heldWrites.removeAndWriteAll();
+    ctx.flush();
+    ctx.channel().config().setAutoRead(true);
+    if (heldClose != null) {
+      ctx.close(heldClose);
+    }
+  }
+
+  private void onResponse(ChannelHandlerContext ctx, HttpResponse ready) {
+    if (ctx.isRemoved()) {
+      // The connection closed before LittleProxy wrote the placeholder.
+      discard(ready);
+      return;
+    }
+    if (!ctx.channel().isActive()) {
+      return;
+    }
+    if (ready == null) {
+      ctx.close();
+      return;
+    }
+    readyResponse = ready;
+    writeIfReady(ctx);
+  }
+
+  private void writeIfReady(ChannelHandlerContext ctx) {
+    if (!placeholderWritten || readyResponse == null) {
+      return;
+    }
+    boolean keepAlive = HttpUtil.isKeepAlive(readyResponse);
+    ctx.write(readyResponse);
+    if (readyResponse instanceof StreamedHttpResponse streamed) {
+      streaming = streamed;
+      streamed.relayTo(ctx).whenComplete((relayed, e) -> finish(ctx, keepAlive && e == null));
+      return;
+    }
+    finish(ctx, keepAlive);
+  }
+
+  private void finish(ChannelHandlerContext ctx, boolean keepAlive) {
+    // handlerRemoved releases the writes LittleProxy made after the placeholder, then the close.
+    ctx.pipeline().remove(this);
+    if (!keepAlive) {
+      ctx.close();
+    }
+  }
+
+  private static void discard(HttpResponse response) {
+    if (response instanceof StreamedHttpResponse streamed) {
+      streamed.abort();
+    } else {
+      ReferenceCountUtil.release(response);
+    }
+  }
+}
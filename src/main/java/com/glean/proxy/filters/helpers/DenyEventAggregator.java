@@ -0,0 +1,156 @@
+package com.glean.proxy.filters.helpers;
+
+import com.glean.proxy.schemas.DenyEventsResponse;
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Counts the requests filters deny, by filter and by the host or client they were denied for, so
+ * that a client retrying a forbidden request in a loop does not log a line for every attempt. The
+ * first denial for a key is logged when it happens; after that, each key with further denials gets
+ * one summary line per interval.
+ *
+ * <p>At most {@link #MAX_TRACKED_KEYS} keys are tracked at a time. Denials for other keys are only
+ * counted in total, and keys with no denials for several intervals are dropped to make room.
+ */
+public final class DenyEventAggregator {
+  private static final Logger logger = Logger.getLogger(DenyEventAggregator.class.getName());
+  @VisibleForTesting static final int MAX_TRACKED_KEYS = 10_000;
+  @VisibleForTesting static final int IDLE_INTERVALS_BEFORE_EVICTION = 10;
+  private static final int TOP_OFFENDERS = 20;
+
+  private final Duration interval;
+  private final Map<Key, Counts> counts = new ConcurrentHashMap<>();
+  private final LongAdder untracked = new LongAdder();
+  private long reportedUntracked;
+  private ScheduledExecutorService scheduler;
+
+  private record Key(String filter, String subject) {}
+
+  private static final class Counts {
+    final LongAdder sinceReport = new LongAdder();
+    final LongAdder total = new LongAdder();
+    // Only touched by reports.
+    int idleIntervals;
+  }
+
+  public DenyEventAggregator(Duration interval) {
+    this.interval = interval;
+  }
+
+  /** Reads the summary interval from {@code DENY_LOG_INTERVAL_SECONDS}, 60 by default. */
+  public static DenyEventAggregator fromEnvironment() {
+    return new DenyEventAggregator(
+        Duration.ofSeconds(
+            Long.parseLong(System.getenv().getOrDefault("DENY_LOG_INTERVAL_SECONDS", "60"))));
+  }
+
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "deny-event-reporter");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleAtFixedRate(
+        this::report, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Counts one request denied by {@code filter} for {@code subject}, and logs {@code message} if
+   * it is the first denial for them that is tracked.
+   */
+  public void record(Class<?> filter, String subject, String message) {
+    Key key = new Key(filter.getSimpleName(), subject);
+    Counts keyCounts = counts.get(key);
+    if (keyCounts == null) {
+      if (counts.size() >= MAX_TRACKED_KEYS) {
+        untracked.increment();
+        return;
+      }
+      Counts added = new Counts();
+      keyCounts = counts.putIfAbsent(key, added);
+      if (keyCounts == null) {
+        added.total.increment();
+        logger.warning(message);
+        return;
+      }
+    }
+    keyCounts.sinceReport.increment();
+    keyCounts.total.increment();
+  }
+
+  /** Logs one line for each key denied since the last report. */
+  @VisibleForTesting
+  synchronized void report() {
+    long seconds = interval.toSeconds();
+    counts
+        .entrySet()
+        .removeIf(
+            entry -> {
+              Counts keyCounts = entry.getValue();
+              long denied = keyCounts.sinceReport.sumThenReset();
+              if (denied == 0) {
+                return ++keyCounts.idleIntervals >= IDLE_INTERVALS_BEFORE_EVICTION;
+              }
+              keyCounts.idleIntervals = 0;
+              logger.warning(
+                  String.format(
+                      "%s denied %d more requests for %s in the last %d seconds",
+                      entry.getKey().filter(), denied, entry.getKey().subject(), seconds));
+              return false;
+            });
+    long untrackedTotal = untracked.sum();
+    if (untrackedTotal > reportedUntracked) {
+      logger.warning(
+          String.format(
+              "Denied %d requests for untracked hosts and clients in the last %d seconds",
+              untrackedTotal - reportedUntracked, seconds));
+      reportedUntracked = untrackedTotal;
+    }
+  }
+
+  /** The tracked keys with the most denials. */
+  public DenyEventsResponse snapshot() {
+    DenyEventsResponse response = new DenyEventsResponse();
+    response.intervalSeconds = interval.toSeconds();
+    response.trackedKeys = counts.size();
+    response.untracked = untracked.sum();
+    List<DenyEventsResponse.Offender> offenders = new ArrayList<>();
+    counts.forEach(
+        (key, keyCounts) -> {
+          DenyEventsResponse.Offender offender = new DenyEventsResponse.Offender();
+          offender.filter = key.filter();
+          offender.subject = key.subject();
+          offender.denied = keyCounts.total.sum();
+          offenders.add(offender);
+        });
+    offenders.sort(
+        Comparator.comparingLong((DenyEventsResponse.Offender offender) -> offender.denied)
+            .reversed());
+    response.topOffenders =
+        new ArrayList<>(offenders.subList(0, Math.min(TOP_OFFENDERS, offenders.size())));
+    return response;
+  }
+}
@@ -0,0 +1,198 @@
+package com.glean.proxy.filters.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Matches hosts against an egress allowlist using a trie keyed on reversed DNS labels. Exact
+ * domains, {@code *.suffix} domains and domains with {@code *} inside labels are all resolved in a
+ * single walk over the host, without allocating substrings or regex matchers.
+ *
+ * <p>Semantics mirror the original {@link AllowedEgressDomains} checks: a {@code *} matches one or
+ * more characters within a single label, and a leading {@code *.} matches any number of labels but
+ * is ignored when the remaining suffix is a bare TLD.
+ */
+public final class EgressDomainMatcher {
+  private final Node root = new Node();
+
+  private EgressDomainMatcher() {}
+
+  public static EgressDomainMatcher compile(
+      Collection<String> individual,
+      Collection<String> prefixWildcard,
+      Collection<String> wildcard) {
+    EgressDomainMatcher matcher = new EgressDomainMatcher();
+    for (String domain : individual) {
+      matcher.insert(domain).terminal = true;
+    }
+    for (String suffix : prefixWildcard) {
+      if (suffix.indexOf('.') >= 0) {
+        matcher.insert(suffix).anySubdomain = true;
+      }
+    }
+    for (String domain : wildcard) {
+      matcher.insert(domain).terminal = true;
+    }
+    return matcher;
+  }
+
+  public boolean matches(String host) {
+    return matchFrom(root, host, host.length());
+  }
+
+  // host[0, labelEnd) is the part of the host that has not been matched yet; -1 means the whole
+  // host has been consumed.
+  private static boolean matchFrom(Node node, String host, int labelEnd) {
+    if (labelEnd < 0) {
+      return node.terminal;
+    }
+    if (node.anySubdomain) {
+      return true;
+    }
+    int labelStart = host.lastIndexOf('.', labelEnd - 1) + 1;
+    Node child = node.children.get(host, labelStart, labelEnd);
+    if (child != null && matchFrom(child, host, labelStart - 1)) {
+      return true;
+    }
+    for (int i = 0; i < node.globLabels.length; i++) {
+      if (globMatches(node.globLabels[i], 0, host, labelStart, labelEnd)
+          && matchFrom(node.globChildren[i], host, labelStart - 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Each '*' consumes at least one character, matching the original "[^.]+" translation.
+  private static boolean globMatches(
+      String glob, int globIndex, String host, int hostIndex, int hostEnd) {
+    while (globIndex < glob.length()) {
+      char c = glob.charAt(globIndex);
+      if (c == '*') {
+        for (int next = hostIndex + 1; next <= hostEnd; next++) {
+          if (globMatches(glob, globIndex + 1, host, next, hostEnd)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      if (hostIndex >= hostEnd || host.charAt(hostIndex) != c) {
+        return false;
+      }
+      globIndex++;
+      hostIndex++;
+    }
+    return hostIndex == hostEnd;
+  }
+
+  private Node insert(String domain) {
+    Node node = root;
+    int labelEnd = domain.length();
+    while (labelEnd >= 0) {
+      int labelStart = domain.lastIndexOf('.', labelEnd - 1) + 1;
+      String label = domain.substring(labelStart, labelEnd);
+      node = label.indexOf('*') >= 0 ? node.globChild(label) : node.child(label);
+      labelEnd = labelStart - 1;
+    }
+    return node;
+  }
+
+  private static final class Node {
+    private final LabelTable children = new LabelTable();
+    private String[] globLabels = new String[0];
+    private Node[] globChildren = new Node[0];
+    private boolean terminal;
+    private boolean anySubdomain;
+
+    private Node child(String label) {
+      Node child = children.get(label, 0, label.length());
+      if (child == null) {
+        child = new Node();
+        children.put(label, child);
+      }
+      return child;
+    }
+
+    private Node globChild(String glob) {
+      for (int i = 0; i < globLabels.length; i++) {
+        if (globLabels[i].equals(glob)) {
+          return globChildren[i];
+        }
+      }
+      List<String> labels = new ArrayList<>(List.of(globLabels));
+      List<Node> nodes = new ArrayList<>(List.of(globChildren));
+      Node child = new Node();
+      labels.add(glob);
+      nodes.add(child);
+      globLabels = labels.toArray(new String[0]);
+      globChildren = nodes.toArray(new Node[0]);
+      return child;
+    }
+  }
+
+  /**
+   * Open-addressing table that can be probed with a region of a larger string, so looking up a
+   * label does not require extracting it first.
+   */
+  private static final class LabelTable {
+    private String[] keys = new String[0];
+    private Node[] values = new Node[0];
+    private int size;
+
+    private Node get(String source, int start, int end) {
+      if (size == 0) {
+        return null;
+      }
+      int length = end - start;
+      int mask = keys.length - 1;
+      for (int slot = hash(source, start, end) & mask;
+          keys[slot] != null;
+          slot = (slot + 1) & mask) {
+        String key = keys[slot];
+        if (key.length() == length && key.regionMatches(0, source, start, length)) {
+          return values[slot];
+        }
+      }
+      return null;
+    }
+
+    private void put(String key, Node value) {
+      if ((size + 1) * 2 > keys.length) {
+        resize(Math.max(4, keys.length * 2));
+      }
+      insert(key, value);
+      size++;
+    }
+
+    private void insert(String key, Node value) {
+      int mask = keys.length - 1;
+      int slot = hash(key, 0, key.length()) & mask;
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+    }
+
+    private void resize(int capacity) {
+      String[] oldKeys = keys;
+      Node[] oldValues = values;
+      keys = new String[capacity];
+      values = new Node[capacity];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          insert(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static int hash(String source, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + source.charAt(i);
+      }
+      return h ^ (h >>> 16);
+    }
+  }
+}
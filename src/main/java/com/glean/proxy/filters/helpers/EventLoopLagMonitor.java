@@ -0,0 +1,169 @@
+package com.glean.proxy.filters.helpers;
+
+import com.glean.proxy.schemas.EventLoopLagResponse;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long tasks wait for Netty event loops. At every interval a no-op task is submitted
+ * to each loop and the time until it runs is recorded. A loop that is blocked, for example by a
+ * shell command or a synchronous HTTP call on a worker thread, delays every connection it serves,
+ * and shows up here as lag.
+ *
+ * <p>A sample that runs at least the warning threshold late is counted as a stall and logged. A
+ * loop whose sample has not run yet reports the time it has been waiting so far.
+ */
+public final class EventLoopLagMonitor {
+  private static final Logger logger = Logger.getLogger(EventLoopLagMonitor.class.getName());
+
+  private final List<Probe> probes = new ArrayList<>();
+  private final Duration interval;
+  private final long warnThresholdNanos;
+  private final Ticker ticker;
+  private ScheduledExecutorService scheduler;
+
+  /** Loops are named after the key of their group and their index within it. */
+  public EventLoopLagMonitor(
+      Map<String, EventLoopGroup> groups, Duration interval, Duration warnThreshold) {
+    this(groups, interval, warnThreshold, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  EventLoopLagMonitor(
+      Map<String, EventLoopGroup> groups,
+      Duration interval,
+      Duration warnThreshold,
+      Ticker ticker) {
+    this.interval = interval;
+    this.warnThresholdNanos = warnThreshold.toNanos();
+    this.ticker = ticker;
+    groups.forEach(
+        (name, group) -> {
+          int index = 0;
+          for (EventExecutor loop : group) {
+            probes.add(new Probe(name + "-" + index++, loop));
+          }
+        });
+  }
+
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "event-loop-lag-monitor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleAtFixedRate(
+        this::sample, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /** Submits a sample to every loop whose previous sample has already run. */
+  @VisibleForTesting
+  void sample() {
+    for (Probe probe : probes) {
+      probe.submit();
+    }
+  }
+
+  public EventLoopLagResponse snapshot() {
+    EventLoopLagResponse response = new EventLoopLagResponse();
+    response.sampleIntervalMillis = interval.toMillis();
+    response.warnThresholdMillis = TimeUnit.NANOSECONDS.toMillis(warnThresholdNanos);
+    for (Probe probe : probes) {
+      EventLoopLagResponse.EventLoop loop = new EventLoopLagResponse.EventLoop();
+      loop.name = probe.name;
+      long lagNanos = probe.currentLagNanos();
+      loop.lagMillis = TimeUnit.NANOSECONDS.toMillis(lagNanos);
+      loop.maxLagMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(lagNanos, probe.maxLagNanos));
+      loop.stalls = probe.stalls;
+      response.eventLoops.add(loop);
+    }
+    return response;
+  }
+
+  private final class Probe implements Runnable {
+    private final String name;
+    private final EventExecutor loop;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile long submittedNanos;
+    private volatile boolean warned;
+    // Written only by the loop itself.
+    private volatile long lagNanos;
+    private volatile long maxLagNanos;
+    private volatile long stalls;
+
+    Probe(String name, EventExecutor loop) {
+      this.name = name;
+      this.loop = loop;
+    }
+
+    void submit() {
+      if (!pending.compareAndSet(false, true)) {
+        // Warn about a loop that is still blocked rather than only once it recovers.
+        long waitingNanos = ticker.read() - submittedNanos;
+        if (!warned && waitingNanos >= warnThresholdNanos) {
+          warned = true;
+          logger.warning(
+              String.format(
+                  "Event loop %s has not run a task submitted %d ms ago",
+                  name, TimeUnit.NANOSECONDS.toMillis(waitingNanos)));
+        }
+        return;
+      }
+      submittedNanos = ticker.read();
+      try {
+        loop.execute(this);
+      } catch (RejectedExecutionException e) {
+        // The loop is shutting down.
+        pending.set(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      long lag = ticker.read() - submittedNanos;
+      lagNanos = lag;
+      if (lag > maxLagNanos) {
+        maxLagNanos = lag;
+      }
+      if (lag >= warnThresholdNanos) {
+        stalls++;
+        if (!warned) {
+          logger.warning(
+              String.format(
+                  "Event loop %s ran a task %d ms late",
+                  name, TimeUnit.NANOSECONDS.toMillis(lag)));
+        }
+      }
+      warned = false;
+      pending.set(false);
+    }
+
+    long currentLagNanos() {
+      return pending.get() ? Math.max(lagNanos, ticker.read() - submittedNanos) : lagNanos;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.glean.proxy.filters.helpers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a blocking {@link NicResolver} on a dedicated bounded pool so that Netty worker threads
+ * never wait on it. Answers the delegate can give without blocking complete immediately on the
+ * calling thread. When the queue is full the future fails, which callers treat as a denied route.
+ */
+public class ExecutorAsyncNicResolver implements AsyncNicResolver {
+  private final NicResolver delegate;
+  private final ExecutorService executor;
+
+  public ExecutorAsyncNicResolver(NicResolver delegate, int threads, int queueCapacity) {
+    this(delegate, newBoundedExecutor(threads, queueCapacity));
+  }
+
+  ExecutorAsyncNicResolver(NicResolver delegate, ExecutorService executor) {
+    this.delegate = delegate;
+    this.executor = executor;
+  }
+
+  @Override
+  public CompletableFuture<String> resolveAsync(String hostIp) {
+    String nic = delegate.resolveIfReady(hostIp);
+    if (nic != null) {
+      return CompletableFuture.completedFuture(nic);
+    }
+    CompletableFuture<String> future = new CompletableFuture<>();
+    try {
+      executor.execute(
+          () -> {
+            try {
+              future.complete(delegate.resolve(hostIp));
+            } catch (Exception e) {
+              future.completeExceptionally(e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(
+          new RejectedExecutionException("NIC resolution queue is full", e));
+    }
+    return future;
+  }
+
+  private static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return new ThreadPoolExecutor(
+        threads,
+        threads,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        runnable -> {
+          Thread thread = new Thread(runnable, "nic-resolver-" + threadCount.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+}
@@ -0,0 +1,139 @@
+package com.glean.proxy.filters.helpers;
+
+import com.glean.proxy.schemas.TopHostsResponse;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The destination hosts with the most requests and the most response bytes, tracked in fixed
+ * memory however many distinct hosts there are. Each measure is counted in a count-min sketch, and
+ * the hosts whose estimates are highest are kept as candidates; a host replaces the lowest
+ * candidate once its estimate passes it.
+ *
+ * <p>Estimates never undercount, and overcount by at most {@link Math#E} / {@link #WIDTH} of the
+ * total with a probability of 1 - e<sup>-{@link #DEPTH}</sup>. Counts accumulate from startup.
+ */
+public final class HostHeavyHitters {
+  @VisibleForTesting static final int WIDTH = 4096;
+  @VisibleForTesting static final int DEPTH = 4;
+  private static final int[] SEEDS = {0x2545f491, 0x6c8e9cf5, 0x1b873593, 0x7feb352d};
+
+  private final int size;
+  private final Tracker requests = new Tracker();
+  private final Tracker responseBytes = new Tracker();
+
+  /** Keeps the top {@code size} hosts by each measure. */
+  public HostHeavyHitters(int size) {
+    this.size = size;
+  }
+
+  /** {@code host} may be null if the request names none, in which case it is not counted. */
+  public void recordRequest(String host) {
+    if (host != null) {
+      requests.add(host, 1);
+    }
+  }
+
+  public void recordResponseBytes(String host, long bytes) {
+    responseBytes.add(host, bytes);
+  }
+
+  public TopHostsResponse snapshot() {
+    TopHostsResponse response = new TopHostsResponse();
+    response.totalRequests = requests.total.sum();
+    response.requestsErrorBound = errorBound(response.totalRequests);
+    response.byRequests = requests.top();
+    response.totalResponseBytes = responseBytes.total.sum();
+    response.responseBytesErrorBound = errorBound(response.totalResponseBytes);
+    response.byResponseBytes = responseBytes.top();
+    return response;
+  }
+
+  private static long errorBound(long total) {
+    return (long) Math.ceil(Math.E / WIDTH * total);
+  }
+
+  private static int index(int hash, int row) {
+    int h = hash ^ SEEDS[row];
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return row * WIDTH + (h & (WIDTH - 1));
+  }
+
+  /** A count-min sketch of one measure and the candidates for its top hosts. */
+  private final class Tracker {
+    private final AtomicLongArray counts = new AtomicLongArray(DEPTH * WIDTH);
+    private final LongAdder total = new LongAdder();
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    // The lowest candidate estimate when there are no free places, as of the last admission.
+    // Candidate estimates only grow, so a host below it cannot displace any of them.
+    private volatile long admissionThreshold;
+
+    void add(String host, long amount) {
+      total.add(amount);
+      int hash = host.hashCode();
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < DEPTH; row++) {
+        estimate = Math.min(estimate, counts.addAndGet(index(hash, row), amount));
+      }
+      // Most requests are for hosts that are already candidates or far from becoming one, so
+      // only the rest take the lock.
+      if (estimate > admissionThreshold && !candidates.contains(host)) {
+        admit(host);
+      }
+    }
+
+    long estimate(String host) {
+      int hash = host.hashCode();
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < DEPTH; row++) {
+        estimate = Math.min(estimate, counts.get(index(hash, row)));
+      }
+      return estimate;
+    }
+
+    private synchronized void admit(String host) {
+      if (!candidates.add(host) || candidates.size() < size) {
+        return;
+      }
+      String lowest = null;
+      long lowestEstimate = Long.MAX_VALUE;
+      for (String candidate : candidates) {
+        long estimate = estimate(candidate);
+        if (estimate < lowestEstimate) {
+          lowest = candidate;
+          lowestEstimate = estimate;
+        }
+      }
+      if (candidates.size() > size) {
+        candidates.remove(lowest);
+        lowestEstimate = Long.MAX_VALUE;
+        for (String candidate : candidates) {
+          lowestEstimate = Math.min(lowestEstimate, estimate(candidate));
+        }
+      }
+      admissionThreshold = lowestEstimate;
+    }
+
+    List<TopHostsResponse.Host> top() {
+      List<TopHostsResponse.Host> hosts = new ArrayList<>();
+      for (String candidate : candidates) {
+        TopHostsResponse.Host host = new TopHostsResponse.Host();
+        host.host = candidate;
+        host.estimate = estimate(candidate);
+        hosts.add(host);
+      }
+      hosts.sort(
+          Comparator.comparingLong((TopHostsResponse.Host host) -> host.estimate).reversed());
+      return hosts;
+    }
+  }
+}
@@ -0,0 +1,479 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPoolMap;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * HTTP(S) client that runs on the caller's Netty event loop instead of blocking it. Connections are
+ * pooled per event loop and target, so a request and its response are handled entirely on the loop
+ * that owns the proxied client connection.
+ *
+ * <p>The connect timeout bounds connection setup, the socket timeout bounds the gap between reads,
+ * and the connection request timeout bounds the wait for a free pooled connection.
+ *
+ * <p>Hostnames are resolved asynchronously, so a slow name server does not block the event loop
+ * either: with the proxy's own resolver when one is set through {@link #useResolver}, and with
+ * Netty's DNS client otherwise.
+ */
+public class NettyHttpsClient {
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 200;
+  private static final int CONNECTION_TIMEOUT_MS = 20000;
+  private static final int SOCKET_TIMEOUT_MS = 5000;
+  private static final int CONNECTION_REQUEST_TIMEOUT_MS = 5000;
+  private static final int MAX_RESPONSE_SIZE_BYTES = 64 * 1024 * 1024;
+
+  private static final String AGGREGATOR_HANDLER = "aggregator";
+  private static final String READ_TIMEOUT_HANDLER = "readTimeout";
+  private static final String RESPONSE_HANDLER = "response";
+
+  private static NettyHttpsClient client;
+  private static AddressResolverGroup<InetSocketAddress> sharedResolver;
+
+  private final SslContext sslContext;
+  private final AddressResolverGroup<InetSocketAddress> resolver;
+  private final Map<EventLoop, ChannelPoolMap<Route, FixedChannelPool>> pools =
+      new ConcurrentHashMap<>();
+
+  public static synchronized NettyHttpsClient getClient() {
+    if (client == null) {
+      try {
+        SslContext sslContext = SslContextBuilder.forClient().build();
+        client =
+            sharedResolver == null
+                ? new NettyHttpsClient(sslContext)
+                : new NettyHttpsClient(sslContext, sharedResolver);
+      } catch (SSLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return client;
+  }
+
+  /**
+   * Makes the shared client resolve hosts with {@code resolver}, such as the one the proxy itself
+   * resolves upstream hosts with. Must be called before the first {@link #getClient}.
+   */
+  public static synchronized void useResolver(AddressResolverGroup<InetSocketAddress> resolver) {
+    if (client != null) {
+      throw new IllegalStateException("The client has already been created");
+    }
+    sharedResolver = resolver;
+  }
+
+  NettyHttpsClient(SslContext sslContext) {
+    this(
+        sslContext,
+        new DnsAddressResolverGroup(
+            NioDatagramChannel.class, DnsServerAddressStreamProviders.platformDefault()));
+  }
+
+  NettyHttpsClient(SslContext sslContext, AddressResolverGroup<InetSocketAddress> resolver) {
+    this.sslContext = sslContext;
+    this.resolver = resolver;
+  }
+
+  /**
+   * Sends the request to the scheme, host and port of {@code uri} and completes with the
+   * aggregated response on {@code eventLoop}. Takes ownership of {@code request}; the caller owns
+   * the response.
+   */
+  public CompletableFuture<FullHttpResponse> send(
+      EventLoop eventLoop, URI uri, FullHttpRequest request) {
+    CompletableFuture<FullHttpResponse> result = new CompletableFuture<>();
+    exchange(eventLoop, uri, request, result, pool -> new ResponseHandler(pool, result));
+    return result;
+  }
+
+  /**
+   * Sends the request like {@link #send}, but completes with a {@link StreamedHttpResponse} as soon
+   * as the response head arrives. The body is relayed once the response is written through a
+   * {@link DeferredHttpResponse}; until then at most one read's worth of chunks is buffered.
+   */
+  public CompletableFuture<HttpResponse> stream(
+      EventLoop eventLoop, URI uri, FullHttpRequest request) {
+    CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+    exchange(eventLoop, uri, request, result, pool -> new StreamHandler(pool, result));
+    return result;
+  }
+
+  /**
+   * Opens a pooled connection to the scheme, host and port of {@code uri} on {@code eventLoop}, so
+   * that a later request does not pay for the connect and TLS handshake. Completes once the
+   * connection is back in the pool.
+   */
+  public CompletableFuture<Void> preconnect(EventLoop eventLoop, URI uri) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    FixedChannelPool pool = pool(eventLoop, uri);
+    pool.acquire()
+        .addListener(
+            (Future<Channel> acquired) -> {
+              if (!acquired.isSuccess()) {
+                result.completeExceptionally(acquired.cause());
+                return;
+              }
+              Channel channel = acquired.getNow();
+              SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+              Future<Channel> ready =
+                  sslHandler != null
+                      ? sslHandler.handshakeFuture()
+                      : eventLoop.newSucceededFuture(channel);
+              ready.addListener(
+                  handshake -> {
+                    if (!handshake.isSuccess()) {
+                      channel.close();
+                    }
+                    pool.release(channel);
+                    if (handshake.isSuccess()) {
+                      result.complete(null);
+                    } else {
+                      result.completeExceptionally(handshake.cause());
+                    }
+                  });
+            });
+    return result;
+  }
+
+  private void exchange(
+      EventLoop eventLoop,
+      URI uri,
+      FullHttpRequest request,
+      CompletableFuture<?> result,
+      Function<FixedChannelPool, PooledExchange> newExchange) {
+    FixedChannelPool pool = pool(eventLoop, uri);
+    pool.acquire()
+        .addListener(
+            (Future<Channel> acquired) -> {
+              if (!acquired.isSuccess()) {
+                request.release();
+                result.completeExceptionally(acquired.cause());
+                return;
+              }
+              Channel channel = acquired.getNow();
+              PooledExchange exchange = newExchange.apply(pool);
+              exchange.addTo(channel.pipeline());
+              channel
+                  .writeAndFlush(request)
+                  .addListener(
+                      written -> {
+                        if (!written.isSuccess()) {
+                          exchange.fail(channel, written.cause());
+                        }
+                      });
+            });
+  }
+
+  private FixedChannelPool pool(EventLoop eventLoop, URI uri) {
+    return pools.computeIfAbsent(eventLoop, this::newPoolMap).get(Route.of(uri));
+  }
+
+  private ChannelPoolMap<Route, FixedChannelPool> newPoolMap(EventLoop eventLoop) {
+    Bootstrap bootstrap =
+        new Bootstrap()
+            .group(eventLoop)
+            .channel(NioSocketChannel.class)
+            .resolver(resolver)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECTION_TIMEOUT_MS)
+            .option(ChannelOption.TCP_NODELAY, true);
+    return new AbstractChannelPoolMap<>() {
+      @Override
+      protected FixedChannelPool newPool(Route route) {
+        InetSocketAddress remoteAddress =
+            InetSocketAddress.createUnresolved(route.host, route.port);
+        return new FixedChannelPool(
+            bootstrap.clone().remoteAddress(remoteAddress),
+            new AbstractChannelPoolHandler() {
+              @Override
+              public void channelCreated(Channel channel) {
+                if (route.secure) {
+                  channel.pipeline().addLast("ssl", newSslHandler(channel, route));
+                }
+                channel.pipeline().addLast("codec", new HttpClientCodec());
+              }
+            },
+            ChannelHealthChecker.ACTIVE,
+            FixedChannelPool.AcquireTimeoutAction.FAIL,
+            CONNECTION_REQUEST_TIMEOUT_MS,
+            MAX_CONNECTIONS_PER_ROUTE,
+            Integer.MAX_VALUE);
+      }
+    };
+  }
+
+  private SslHandler newSslHandler(Channel channel, Route route) {
+    SslHandler sslHandler = sslContext.newHandler(channel.alloc(), route.host, route.port);
+    SSLEngine engine = sslHandler.engine();
+    SSLParameters parameters = engine.getSSLParameters();
+    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+    engine.setSSLParameters(parameters);
+    return sslHandler;
+  }
+
+  private record Route(String host, int port, boolean secure) {
+    static Route of(URI uri) {
+      boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+      int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+      return new Route(uri.getHost(), port, secure);
+    }
+  }
+
+  /** Handles one request on a pooled connection and returns the connection exactly once. */
+  private abstract static class PooledExchange extends ChannelInboundHandlerAdapter {
+    private final FixedChannelPool pool;
+    private boolean released;
+
+    private PooledExchange(FixedChannelPool pool) {
+      this.pool = pool;
+    }
+
+    abstract void fail(Channel channel, Throwable cause);
+
+    void addTo(ChannelPipeline pipeline) {
+      pipeline
+          .addLast(
+              READ_TIMEOUT_HANDLER,
+              new ReadTimeoutHandler(SOCKET_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+          .addLast(RESPONSE_HANDLER, this);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      fail(ctx.channel(), cause);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      fail(ctx.channel(), new ClosedChannelException());
+    }
+
+    void release(Channel channel, boolean reusable) {
+      if (released) {
+        return;
+      }
+      released = true;
+      ChannelPipeline pipeline = channel.pipeline();
+      for (String name : new String[] {AGGREGATOR_HANDLER, READ_TIMEOUT_HANDLER}) {
+        if (pipeline.get(name) != null) {
+          pipeline.remove(name);
+        }
+      }
+      if (pipeline.context(this) != null) {
+        pipeline.remove(this);
+      }
+      channel.config().setAutoRead(true);
+      if (!reusable) {
+        channel.close();
+      }
+      pool.release(channel);
+    }
+  }
+
+  /** Completes the request's future with the aggregated response. */
+  private static final class ResponseHandler extends PooledExchange {
+    private final CompletableFuture<FullHttpResponse> result;
+
+    private ResponseHandler(FixedChannelPool pool, CompletableFuture<FullHttpResponse> result) {
+      super(pool);
+      this.result = result;
+    }
+
+    @Override
+    void addTo(ChannelPipeline pipeline) {
+      pipeline.addLast(AGGREGATOR_HANDLER, new HttpObjectAggregator(MAX_RESPONSE_SIZE_BYTES));
+      super.addTo(pipeline);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      if (!(msg instanceof FullHttpResponse response)) {
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+      release(ctx.channel(), HttpUtil.isKeepAlive(response));
+      if (!result.complete(response)) {
+        response.release();
+      }
+    }
+
+    @Override
+    void fail(Channel channel, Throwable cause) {
+      release(channel, false);
+      result.completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * Completes the request's future with the response head, then relays body chunks to the target
+   * set by {@link StreamedHttpResponse#relayTo}. Reads from upstream are paused while the target is
+   * not writable, and the read timeout is suspended with them so that a slow client does not look
+   * like a stalled server.
+   */
+  private static final class StreamHandler extends PooledExchange
+      implements StreamedHttpResponse.Body {
+    private final CompletableFuture<HttpResponse> result;
+    private final ArrayDeque<HttpContent> pending = new ArrayDeque<>();
+
+    private Channel upstream;
+    private boolean reusable;
+    private ChannelHandlerContext target;
+    private CompletableFuture<Void> relayed;
+    private Throwable failure;
+    private boolean finished;
+
+    private StreamHandler(FixedChannelPool pool, CompletableFuture<HttpResponse> result) {
+      super(pool);
+      this.result = result;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      if (finished) {
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+      if (((HttpObject) msg).decoderResult().isFailure()) {
+        Throwable cause = ((HttpObject) msg).decoderResult().cause();
+        ReferenceCountUtil.release(msg);
+        fail(ctx.channel(), cause);
+        return;
+      }
+      if (msg instanceof HttpResponse head) {
+        upstream = ctx.channel();
+        reusable = HttpUtil.isKeepAlive(head);
+        // Nothing consumes the body until the head has been written to the client.
+        setReading(false);
+        if (!result.complete(new StreamedHttpResponse(head, this))) {
+          abort();
+        }
+      }
+      if (msg instanceof HttpContent content) {
+        if (target == null) {
+          pending.add(content);
+        } else {
+          forward(content);
+        }
+      }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+      if (target != null) {
+        target.flush();
+      }
+    }
+
+    @Override
+    public CompletableFuture<Void> relayTo(ChannelHandlerContext target) {
+      this.target = target;
+      relayed = new CompletableFuture<>();
+      if (failure != null) {
+        relayed.completeExceptionally(failure);
+        return relayed;
+      }
+      while (!pending.isEmpty() && !finished) {
+        forward(pending.poll());
+      }
+      if (!finished) {
+        target.flush();
+        setReading(target.channel().isWritable());
+      }
+      return relayed;
+    }
+
+    @Override
+    public void writabilityChanged() {
+      if (target != null && !finished && target.channel().isWritable()) {
+        setReading(true);
+      }
+    }
+
+    @Override
+    public void abort() {
+      if (!finished) {
+        fail(upstream, new ClosedChannelException());
+      }
+    }
+
+    @Override
+    void fail(Channel channel, Throwable cause) {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      release(channel, false);
+      pending.forEach(ReferenceCountUtil::release);
+      pending.clear();
+      failure = cause;
+      if (!result.completeExceptionally(cause) && relayed != null) {
+        relayed.completeExceptionally(cause);
+      }
+    }
+
+    private void forward(HttpContent content) {
+      target.write(content);
+      if (content instanceof LastHttpContent) {
+        finished = true;
+        target.flush();
+        release(upstream, reusable);
+        relayed.complete(null);
+      } else if (!target.channel().isWritable()) {
+        target.flush();
+        setReading(false);
+      }
+    }
+
+    private void setReading(boolean reading) {
+      ChannelPipeline pipeline = upstream.pipeline();
+      if (reading && pipeline.get(READ_TIMEOUT_HANDLER) == null) {
+        pipeline.addBefore(
+            RESPONSE_HANDLER,
+            READ_TIMEOUT_HANDLER,
+            new ReadTimeoutHandler(SOCKET_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+      } else if (!reading && pipeline.get(READ_TIMEOUT_HANDLER) != null) {
+        pipeline.remove(READ_TIMEOUT_HANDLER);
+      }
+      upstream.config().setAutoRead(reading);
+    }
+  }
+}
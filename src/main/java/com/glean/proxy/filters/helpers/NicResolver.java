@@ -12,4 +12,14 @@ public interface NicResolver {
    * @throws IOException
    */
   String resolve(String hostIp) throws InterruptedException, IOException;
+
+  /**
+   * returns the NIC for hostIp if it can be answered without blocking, for example from a cache
+   *
+   * @param hostIp
+   * @return nic, or null if answering requires a blocking call to {@link #resolve}
+   */
+  default String resolveIfReady(String hostIp) {
+    return null;
+  }
 }
@@ -0,0 +1,69 @@
+package com.glean.proxy.filters.helpers;
+
+/**
+ * Binary trie over the bits of raw IPv4 or IPv6 address bytes. Lookups walk at most one node per
+ * address bit and do not allocate. Not thread-safe for writes; callers build a trie and then
+ * publish it.
+ */
+final class PrefixTrie<V> {
+  private final Node<V> root = new Node<>();
+
+  /** Associates {@code value} with the prefix, replacing any value stored for the same prefix. */
+  void put(byte[] prefix, int prefixLength, V value) {
+    Node<V> node = root;
+    for (int bit = 0; bit < prefixLength; bit++) {
+      if (bitAt(prefix, bit) == 0) {
+        if (node.zero == null) {
+          node.zero = new Node<>();
+        }
+        node = node.zero;
+      } else {
+        if (node.one == null) {
+          node.one = new Node<>();
+        }
+        node = node.one;
+      }
+    }
+    node.value = value;
+  }
+
+  /** Returns the value of the longest stored prefix covering the address, or null. */
+  V longestMatch(byte[] address) {
+    Node<V> node = root;
+    V match = root.value;
+    int bits = address.length * 8;
+    for (int bit = 0; bit < bits && node != null; bit++) {
+      node = bitAt(address, bit) == 0 ? node.zero : node.one;
+      if (node != null && node.value != null) {
+        match = node.value;
+      }
+    }
+    return match;
+  }
+
+  /** Returns whether any stored prefix covers the address. Stops at the shortest match. */
+  boolean anyMatch(byte[] address) {
+    Node<V> node = root;
+    int bits = address.length * 8;
+    for (int bit = 0; node != null; bit++) {
+      if (node.value != null) {
+        return true;
+      }
+      if (bit == bits) {
+        return false;
+      }
+      node = bitAt(address, bit) == 0 ? node.zero : node.one;
+    }
+    return false;
+  }
+
+  private static int bitAt(byte[] bytes, int bit) {
+    return (bytes[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+  }
+
+  private static final class Node<V> {
+    private Node<V> zero;
+    private Node<V> one;
+    private V value;
+  }
+}
@@ -0,0 +1,148 @@
+package com.glean.proxy.filters.helpers;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request rate limits for destination hosts, each a token bucket that holds up to a burst of
+ * requests and refills at a steady rate. Every host a rule matches gets a bucket of its own, and a
+ * rule may also give each client address its own bucket for that host.
+ *
+ * <p>Rules are written {@code host,requests_per_second,burst[,client]} and separated by
+ * semicolons. The host is an exact name, {@code *.suffix} for any subdomain of suffix, or {@code
+ * *}; rules are tried in order and the first match applies. For example:
+ *
+ * <pre>
+ *   api.example.com,5,10,client;*.example.com,50,100
+ * </pre>
+ *
+ * <p>A bucket is kept as the single time at which it will be full again, so that taking a token is
+ * a compare-and-set rather than a lock, and the buckets are spread over the stripes of a concurrent
+ * map. A bucket that has refilled holds nothing worth keeping, so such buckets are dropped every
+ * sweep interval.
+ */
+public final class RateLimiter {
+  @VisibleForTesting static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+
+  private final List<Rule> rules;
+  private final Ticker ticker;
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweepNanos;
+
+  private record Rule(String host, long intervalNanos, long burstNanos, boolean perClient) {
+    boolean matches(String target) {
+      if (host.equals("*")) {
+        return true;
+      }
+      if (host.startsWith("*.")) {
+        return target.endsWith(host.substring(1));
+      }
+      return target.equals(host);
+    }
+  }
+
+  private RateLimiter(List<Rule> rules, Ticker ticker) {
+    this.rules = rules;
+    this.ticker = ticker;
+    this.nextSweepNanos = new AtomicLong(ticker.read() + SWEEP_INTERVAL.toNanos());
+  }
+
+  /** Parses the rules described in the class comment. A null or empty string has no rules. */
+  public static RateLimiter parse(String rules) {
+    return parse(rules, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  static RateLimiter parse(String rules, Ticker ticker) {
+    List<Rule> parsed = new ArrayList<>();
+    if (rules != null) {
+      for (String rule : rules.split(";")) {
+        if (!rule.isBlank()) {
+          parsed.add(parseRule(rule));
+        }
+      }
+    }
+    return new RateLimiter(List.copyOf(parsed), ticker);
+  }
+
+  private static Rule parseRule(String rule) {
+    String[] fields = Arrays.stream(rule.split(",", -1)).map(String::trim).toArray(String[]::new);
+    if (fields.length < 3
+        || fields.length > 4
+        || fields[0].isEmpty()
+        || (fields.length == 4 && !fields[3].equals("client"))) {
+      throw new IllegalArgumentException(
+          "Rate limit must be host,requests_per_second,burst[,client]: " + rule);
+    }
+    double requestsPerSecond = Double.parseDouble(fields[1]);
+    int burst = Integer.parseInt(fields[2]);
+    if (requestsPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("Rate limit must allow some requests: " + rule);
+    }
+    long intervalNanos = (long) (Duration.ofSeconds(1).toNanos() / requestsPerSecond);
+    return new Rule(
+        fields[0].toLowerCase(), intervalNanos, intervalNanos * burst, fields.length == 4);
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  /**
+   * Takes a token for a request from {@code client} to {@code host}. Returns zero if the request
+   * may go ahead, and otherwise how long until it would have.
+   */
+  public Duration tryAcquire(String host, String client) {
+    if (host == null) {
+      return Duration.ZERO;
+    }
+    Rule rule = ruleFor(host);
+    if (rule == null) {
+      return Duration.ZERO;
+    }
+    long now = ticker.read();
+    sweepIfDue(now);
+    String key = rule.perClient() ? host + " " + client : host;
+    AtomicLong fullAt = buckets.computeIfAbsent(key, unused -> new AtomicLong(now));
+    while (true) {
+      long current = fullAt.get();
+      long next = Math.max(current, now) + rule.intervalNanos();
+      long waitNanos = next - now - rule.burstNanos();
+      if (waitNanos > 0) {
+        return Duration.ofNanos(waitNanos);
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        return Duration.ZERO;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int bucketCount() {
+    return buckets.size();
+  }
+
+  private Rule ruleFor(String host) {
+    for (Rule rule : rules) {
+      if (rule.matches(host)) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  private void sweepIfDue(long now) {
+    long due = nextSweepNanos.get();
+    if (now - due < 0 || !nextSweepNanos.compareAndSet(due, now + SWEEP_INTERVAL.toNanos())) {
+      return;
+    }
+    buckets.values().removeIf(fullAt -> fullAt.get() - now <= 0);
+  }
+}
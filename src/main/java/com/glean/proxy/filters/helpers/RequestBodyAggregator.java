@@ -0,0 +1,89 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Collects the body of a single request whose head has already reached LittleProxy's handler.
+ * Requests are not aggregated by LittleProxy, so routes that re-send a request themselves use this
+ * to get the whole request. A decompressor and this aggregator are added in front of LittleProxy's
+ * handler, so the body chunks never reach LittleProxy, and both are removed once the last chunk has
+ * arrived.
+ */
+final class RequestBodyAggregator extends HttpObjectAggregator {
+  private final HttpContentDecompressor decompressor = new HttpContentDecompressor(0);
+  private final CompletableFuture<FullHttpRequest> aggregated = new CompletableFuture<>();
+
+  private RequestBodyAggregator(int maxContentLength) {
+    super(maxContentLength);
+  }
+
+  /**
+   * Completes with {@code head} and its body, read from the client connection of {@code ctx}. Fails
+   * with a {@link TooLongFrameException} if the body is larger than {@code maxContentLength}. The
+   * caller owns the returned request.
+   */
+  static CompletableFuture<FullHttpRequest> aggregate(
+      ChannelHandlerContext ctx, HttpRequest head, int maxContentLength) {
+    if (head instanceof FullHttpRequest fullRequest) {
+      return CompletableFuture.completedFuture(fullRequest.retainedDuplicate());
+    }
+    RequestBodyAggregator aggregator = new RequestBodyAggregator(maxContentLength);
+    ctx.pipeline()
+        .addBefore(ctx.name(), null, aggregator.decompressor)
+        .addBefore(ctx.name(), null, aggregator);
+    try {
+      // The head has already passed this point of the pipeline, so hand it over directly.
+      aggregator.decompressor.channelRead(ctx.pipeline().context(aggregator.decompressor), head);
+    } catch (Exception e) {
+      aggregator.aggregated.completeExceptionally(e);
+    }
+    return aggregator.aggregated;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out)
+      throws Exception {
+    super.decode(ctx, msg, out);
+    if (out.isEmpty()) {
+      return;
+    }
+    FullHttpRequest request = (FullHttpRequest) out.remove(0);
+    ctx.pipeline().remove(decompressor);
+    ctx.pipeline().remove(this);
+    if (!aggregated.complete(request)) {
+      request.release();
+    }
+  }
+
+  // The chunks may be read while a deferred response has paused reads on the connection.
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    if (!aggregated.isDone()) {
+      ctx.read();
+    }
+    super.channelReadComplete(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    aggregated.completeExceptionally(new ClosedChannelException());
+    super.channelInactive(ctx);
+  }
+
+  // The caller answers with its own response; the rest of the body is discarded.
+  @Override
+  protected void handleOversizedMessage(ChannelHandlerContext ctx, HttpMessage oversized) {
+    aggregated.completeExceptionally(
+        new TooLongFrameException("Request body larger than " + maxContentLength() + " bytes"));
+  }
+}
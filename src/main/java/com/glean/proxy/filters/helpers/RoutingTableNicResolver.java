@@ -0,0 +1,222 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.util.NetUtil;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the NIC for an address from an in-memory copy of the kernel routing table, read from
+ * {@code /proc/net/route} and {@code /proc/net/ipv6_route}. This answers the same question as
+ * {@link IpRouteNicResolver} without forking {@code ip route get}, which matters because the
+ * lookup runs on Netty worker threads.
+ *
+ * <p>The IPv4 file only exposes the main routing table, so policy routing rules are not taken into
+ * account. The table is loaded on first use and re-read every {@code refreshInterval}; the lookup
+ * structure is only rebuilt when the file contents changed.
+ */
+public class RoutingTableNicResolver implements NicResolver {
+  private static final Logger logger = Logger.getLogger(RoutingTableNicResolver.class.getName());
+
+  public static final Path PROC_NET_ROUTE = Path.of("/proc/net/route");
+  public static final Path PROC_NET_IPV6_ROUTE = Path.of("/proc/net/ipv6_route");
+
+  private static final int RTF_UP = 0x0001;
+  private static final int RTF_REJECT = 0x0200;
+
+  private final Path ipv4RoutesPath;
+  private final Path ipv6RoutesPath;
+  private final Duration refreshInterval;
+
+  private volatile RouteTable routeTable;
+  private String lastIpv4Routes;
+  private String lastIpv6Routes;
+  private ScheduledExecutorService refresher;
+
+  public RoutingTableNicResolver(Duration refreshInterval) {
+    this(PROC_NET_ROUTE, PROC_NET_IPV6_ROUTE, refreshInterval);
+  }
+
+  RoutingTableNicResolver(Path ipv4RoutesPath, Path ipv6RoutesPath, Duration refreshInterval) {
+    this.ipv4RoutesPath = ipv4RoutesPath;
+    this.ipv6RoutesPath = ipv6RoutesPath;
+    this.refreshInterval = refreshInterval;
+  }
+
+  public static boolean isAvailable() {
+    return Files.isReadable(PROC_NET_ROUTE);
+  }
+
+  @Override
+  public String resolve(String hostIp) throws IOException {
+    byte[] address = NetUtil.createByteArrayFromIpAddressString(hostIp);
+    if (address == null) {
+      throw new IllegalArgumentException("Not an IP address: " + hostIp);
+    }
+    RouteTable table = routeTable;
+    if (table == null) {
+      table = loadAndScheduleRefresh();
+    }
+    String nic = table.lookup(address);
+    if (nic == null) {
+      throw new RuntimeException("No route found for " + hostIp);
+    }
+    return nic;
+  }
+
+  // Once the table is loaded a lookup is a walk over at most 128 trie nodes.
+  @Override
+  public String resolveIfReady(String hostIp) {
+    RouteTable table = routeTable;
+    byte[] address = NetUtil.createByteArrayFromIpAddressString(hostIp);
+    return table == null || address == null ? null : table.lookup(address);
+  }
+
+  private synchronized RouteTable loadAndScheduleRefresh() throws IOException {
+    if (routeTable == null) {
+      refresh();
+      refresher =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "routing-table-refresh");
+                thread.setDaemon(true);
+                return thread;
+              });
+      refresher.scheduleWithFixedDelay(
+          this::refreshQuietly,
+          refreshInterval.toMillis(),
+          refreshInterval.toMillis(),
+          TimeUnit.MILLISECONDS);
+    }
+    return routeTable;
+  }
+
+  private void refreshQuietly() {
+    try {
+      refresh();
+    } catch (Exception e) {
+      logger.warning("Failed to refresh routing table, keeping previous one: " + e.getMessage());
+    }
+  }
+
+  synchronized void refresh() throws IOException {
+    String ipv4Routes = Files.readString(ipv4RoutesPath);
+    String ipv6Routes = readIfExists(ipv6RoutesPath);
+    if (ipv4Routes.equals(lastIpv4Routes) && ipv6Routes.equals(lastIpv6Routes)) {
+      return;
+    }
+    routeTable = RouteTable.parse(ipv4Routes, ipv6Routes);
+    lastIpv4Routes = ipv4Routes;
+    lastIpv6Routes = ipv6Routes;
+    logger.info("Loaded routing table from " + ipv4RoutesPath + " and " + ipv6RoutesPath);
+  }
+
+  private static String readIfExists(Path path) throws IOException {
+    try {
+      return Files.readString(path);
+    } catch (NoSuchFileException e) {
+      // IPv6 may be disabled on the host.
+      return "";
+    }
+  }
+
+  private record Route(byte[] destination, int prefixLength, long metric, String nic) {}
+
+  static final class RouteTable {
+    private final PrefixTrie<String> ipv4 = new PrefixTrie<>();
+    private final PrefixTrie<String> ipv6 = new PrefixTrie<>();
+
+    static RouteTable parse(String ipv4Routes, String ipv6Routes) {
+      RouteTable table = new RouteTable();
+      insertByMetric(table.ipv4, parseIpv4Routes(ipv4Routes));
+      insertByMetric(table.ipv6, parseIpv6Routes(ipv6Routes));
+      return table;
+    }
+
+    String lookup(byte[] address) {
+      return address.length == 4 ? ipv4.longestMatch(address) : ipv6.longestMatch(address);
+    }
+
+    // Inserting the highest metric first lets the preferred route overwrite equal prefixes.
+    private static void insertByMetric(PrefixTrie<String> trie, List<Route> routes) {
+      routes.sort(Comparator.comparingLong(Route::metric).reversed());
+      for (Route route : routes) {
+        trie.put(route.destination(), route.prefixLength(), route.nic());
+      }
+    }
+
+    // Iface Destination Gateway Flags RefCnt Use Metric Mask MTU Window IRTT, with addresses as
+    // hex in host byte order.
+    private static List<Route> parseIpv4Routes(String contents) {
+      List<Route> routes = new ArrayList<>();
+      String[] lines = contents.split("\n");
+      for (int i = 1; i < lines.length; i++) {
+        String[] fields = lines[i].trim().split("\\s+");
+        if (fields.length < 8 || !isUsable(Integer.parseInt(fields[3], 16))) {
+          continue;
+        }
+        int destination = hostOrderToNetworkOrder((int) Long.parseLong(fields[1], 16));
+        int mask = (int) Long.parseLong(fields[7], 16);
+        routes.add(
+            new Route(
+                toBytes(destination),
+                Integer.bitCount(mask),
+                Long.parseLong(fields[6]),
+                fields[0]));
+      }
+      return routes;
+    }
+
+    // Destination PrefixLength Source SourcePrefixLength NextHop Metric RefCnt Use Flags Iface,
+    // with the address in network byte order and numbers in hex.
+    private static List<Route> parseIpv6Routes(String contents) {
+      List<Route> routes = new ArrayList<>();
+      for (String line : contents.split("\n")) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 10 || !isUsable((int) Long.parseLong(fields[8], 16))) {
+          continue;
+        }
+        byte[] destination = new byte[16];
+        for (int i = 0; i < 16; i++) {
+          destination[i] = (byte) Integer.parseInt(fields[0].substring(i * 2, i * 2 + 2), 16);
+        }
+        routes.add(
+            new Route(
+                destination,
+                Integer.parseInt(fields[1], 16),
+                Long.parseLong(fields[5], 16),
+                fields[9]));
+      }
+      return routes;
+    }
+
+    private static boolean isUsable(int flags) {
+      return (flags & RTF_UP) != 0 && (flags & RTF_REJECT) == 0;
+    }
+
+    private static int hostOrderToNetworkOrder(int value) {
+      return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+          ? Integer.reverseBytes(value)
+          : value;
+    }
+
+    private static byte[] toBytes(int networkOrder) {
+      return new byte[] {
+        (byte) (networkOrder >>> 24),
+        (byte) (networkOrder >>> 16),
+        (byte) (networkOrder >>> 8),
+        (byte) networkOrder
+      };
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Head of an upstream response whose body is still being received. When written through a {@link
+ * DeferredHttpResponse}, the body follows as {@code HttpContent} chunks as they arrive, and the
+ * upstream connection is only read while the client connection is writable.
+ */
+public final class StreamedHttpResponse extends DefaultHttpResponse {
+  private final Body body;
+
+  StreamedHttpResponse(HttpResponse head, Body body) {
+    super(head.protocolVersion(), head.status(), head.headers());
+    this.body = body;
+    if (isCloseDelimited(head)) {
+      // The client can only find the end of such a body by the connection closing.
+      HttpUtil.setKeepAlive(this, false);
+    }
+  }
+
+  /**
+   * Writes the body to {@code target} after the head. The returned future completes once the last
+   * chunk has been written, or exceptionally if the upstream connection failed first.
+   */
+  CompletableFuture<Void> relayTo(ChannelHandlerContext target) {
+    return body.relayTo(target);
+  }
+
+  /** Resumes reading from upstream if the target connection has become writable again. */
+  void writabilityChanged() {
+    body.writabilityChanged();
+  }
+
+  /** Drops the rest of the body and closes the upstream connection. */
+  void abort() {
+    body.abort();
+  }
+
+  private static boolean isCloseDelimited(HttpResponse head) {
+    int code = head.status().code();
+    return head.status().codeClass() != HttpStatusClass.INFORMATIONAL
+        && code != 204
+        && code != 304
+        && !HttpUtil.isContentLengthSet(head)
+        && !HttpUtil.isTransferEncodingChunked(head);
+  }
+
+  interface Body {
+    CompletableFuture<Void> relayTo(ChannelHandlerContext target);
+
+    void writabilityChanged();
+
+    void abort();
+  }
+}
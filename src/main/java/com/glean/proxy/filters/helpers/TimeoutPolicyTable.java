@@ -0,0 +1,176 @@
+package com.glean.proxy.filters.helpers;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connect and idle timeouts for upstream connections, chosen by destination host and {@link
+ * TrafficClass}. Rules are tried in order and the first match applies; destinations no rule
+ * matches get the proxy-wide defaults.
+ *
+ * <p>Rules are written {@code host,class,connect,idle} and separated by semicolons. The host is an
+ * exact name, {@code *.suffix} for any subdomain of suffix, or {@code *}. The class is a {@link
+ * TrafficClass} name or {@code *}. The connect timeout is in milliseconds, and the idle timeout is
+ * in seconds; either may be left empty to keep the default. For example:
+ *
+ * <pre>
+ *   *.corp.example.com,*,adaptive:10000,60;api.github.com,EGRESS_CONNECT,3000,
+ * </pre>
+ *
+ * <p>An {@code adaptive} connect timeout follows the connect times observed for each host: a
+ * multiple of their 99th percentile, bounded below so that a single lost SYN is still retried and
+ * above by the given ceiling, or by the default connect timeout if none is given. Until a host has
+ * enough samples, it gets the ceiling.
+ */
+public final class TimeoutPolicyTable {
+  @VisibleForTesting static final int MIN_SAMPLES = 8;
+  private static final int WINDOW = 64;
+  private static final double PERCENTILE = 0.99;
+  private static final int MULTIPLIER = 3;
+  // Linux retransmits an unanswered SYN after one second.
+  @VisibleForTesting static final Duration ADAPTIVE_FLOOR = Duration.ofSeconds(2);
+  private static final int MAX_TRACKED_HOSTS = 10_000;
+
+  private final List<Rule> rules;
+  private final Policy defaultPolicy;
+  private final Map<String, ConnectTimes> connectTimes = new ConcurrentHashMap<>();
+
+  /** What applies to one upstream connection. */
+  public record Policy(Duration connectTimeout, boolean adaptive, Duration idleTimeout) {}
+
+  private record Rule(String host, TrafficClass trafficClass, Policy policy) {
+    boolean matches(String target, TrafficClass targetClass) {
+      if (trafficClass != null && trafficClass != targetClass) {
+        return false;
+      }
+      if (host.equals("*")) {
+        return true;
+      }
+      if (target == null) {
+        return false;
+      }
+      if (host.startsWith("*.")) {
+        return target.endsWith(host.substring(1));
+      }
+      return target.equals(host);
+    }
+  }
+
+  private TimeoutPolicyTable(List<Rule> rules, Policy defaultPolicy) {
+    this.rules = rules;
+    this.defaultPolicy = defaultPolicy;
+  }
+
+  /** Parses the rules described in the class comment. A null or empty string has no rules. */
+  public static TimeoutPolicyTable parse(
+      String rules, Duration defaultConnectTimeout, Duration defaultIdleTimeout) {
+    List<Rule> parsed = new ArrayList<>();
+    if (rules != null) {
+      for (String rule : rules.split(";")) {
+        if (!rule.isBlank()) {
+          parsed.add(parseRule(rule, defaultConnectTimeout, defaultIdleTimeout));
+        }
+      }
+    }
+    return new TimeoutPolicyTable(
+        List.copyOf(parsed), new Policy(defaultConnectTimeout, false, defaultIdleTimeout));
+  }
+
+  private static Rule parseRule(
+      String rule, Duration defaultConnectTimeout, Duration defaultIdleTimeout) {
+    String[] fields = Arrays.stream(rule.split(",", -1)).map(String::trim).toArray(String[]::new);
+    if (fields.length != 4 || fields[0].isEmpty() || fields[1].isEmpty()) {
+      throw new IllegalArgumentException("Timeout policy must be host,class,connect,idle: " + rule);
+    }
+    TrafficClass trafficClass = fields[1].equals("*") ? null : TrafficClass.valueOf(fields[1]);
+    boolean adaptive = fields[2].startsWith("adaptive");
+    String connect = adaptive ? fields[2].substring("adaptive".length()) : fields[2];
+    if (adaptive && !connect.isEmpty()) {
+      if (!connect.startsWith(":")) {
+        throw new IllegalArgumentException("Adaptive timeout must be adaptive[:ceiling]: " + rule);
+      }
+      connect = connect.substring(1);
+    }
+    Duration connectTimeout =
+        connect.isEmpty() ? defaultConnectTimeout : Duration.ofMillis(Long.parseLong(connect));
+    Duration idleTimeout =
+        fields[3].isEmpty() ? defaultIdleTimeout : Duration.ofSeconds(Long.parseLong(fields[3]));
+    return new Rule(
+        fields[0].toLowerCase(), trafficClass, new Policy(connectTimeout, adaptive, idleTimeout));
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  public Policy defaultPolicy() {
+    return defaultPolicy;
+  }
+
+  /** {@code host} may be null when the request names none; only {@code *} rules match it then. */
+  public Policy policyFor(String host, TrafficClass trafficClass) {
+    for (Rule rule : rules) {
+      if (rule.matches(host, trafficClass)) {
+        return rule.policy();
+      }
+    }
+    return defaultPolicy;
+  }
+
+  /** The connect timeout for one connection to {@code host} under {@code policy}. */
+  public Duration connectTimeout(Policy policy, String host) {
+    if (!policy.adaptive() || host == null) {
+      return policy.connectTimeout();
+    }
+    ConnectTimes times = connectTimes.get(host);
+    long percentileNanos = times == null ? -1 : times.percentileNanos();
+    if (percentileNanos < 0) {
+      return policy.connectTimeout();
+    }
+    long timeoutNanos = Math.max(ADAPTIVE_FLOOR.toNanos(), percentileNanos * MULTIPLIER);
+    return Duration.ofNanos(Math.min(timeoutNanos, policy.connectTimeout().toNanos()));
+  }
+
+  /** Records how long a successful connection to {@code host} took to set up. */
+  public void recordConnect(String host, Duration elapsed) {
+    if (host == null) {
+      return;
+    }
+    ConnectTimes times = connectTimes.get(host);
+    if (times == null) {
+      if (connectTimes.size() >= MAX_TRACKED_HOSTS) {
+        return;
+      }
+      times = connectTimes.computeIfAbsent(host, unused -> new ConnectTimes());
+    }
+    times.add(elapsed.toNanos());
+  }
+
+  /** The most recent connect times to one host. */
+  private static final class ConnectTimes {
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    synchronized void add(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % WINDOW;
+      count = Math.min(count + 1, WINDOW);
+    }
+
+    /** Returns -1 until there are enough samples. */
+    synchronized long percentileNanos() {
+      if (count < MIN_SAMPLES) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted[(int) Math.ceil(PERCENTILE * count) - 1];
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import java.net.URI;
+
+/** The kinds of traffic the proxy carries, which call for different connection handling. */
+public enum TrafficClass {
+  /** HTTPS egress through a CONNECT tunnel. */
+  EGRESS_CONNECT,
+  /** Plain HTTP requests forwarded to an absolute URI. */
+  PLAIN_HTTP,
+  /** Webhook and API requests arriving at {@code /proxy} for the on-premises target. */
+  WEBHOOK_INGRESS;
+
+  public static TrafficClass of(HttpRequest request) {
+    if (HttpMethod.CONNECT.equals(request.method())) {
+      return EGRESS_CONNECT;
+    }
+    return request.uri().startsWith("/proxy") ? WEBHOOK_INGRESS : PLAIN_HTTP;
+  }
+
+  /**
+   * The lower-cased host a request is sent to, or null if it names none. For ingress requests this
+   * is only known once the target has been rewritten into the URI.
+   */
+  public static String hostOf(HttpRequest request) {
+    String uri = request.uri();
+    if (HttpMethod.CONNECT.equals(request.method())) {
+      int colon = uri.lastIndexOf(':');
+      return (colon < 0 ? uri : uri.substring(0, colon)).trim().toLowerCase();
+    }
+    try {
+      String host = new URI(uri).getHost();
+      if (host != null) {
+        return host.toLowerCase();
+      }
+    } catch (Exception e) {
+      // Fall back to the Host header.
+    }
+    String header = request.headers().get(HttpHeaderNames.HOST);
+    if (header == null || header.isEmpty()) {
+      return null;
+    }
+    int colon = header.lastIndexOf(':');
+    return (colon < 0 || header.endsWith("]") ? header : header.substring(0, colon)).toLowerCase();
+  }
+}
@@ -0,0 +1,175 @@
+package com.glean.proxy.filters.helpers;
+
+import com.glean.proxy.schemas.TrafficShapingResponse;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.traffic.ChannelTrafficShapingHandler;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import io.netty.handler.traffic.TrafficCounter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Bandwidth ceilings for upstream connections, applied with Netty's traffic shaping handlers on the
+ * proxy's side of each connection: reads are bytes coming from the destination, and writes are
+ * bytes sent to it. Limits are in bytes per second, and 0 means unlimited.
+ *
+ * <p>A {@link TrafficClass} limit is shared by all connections of that class, so that, for
+ * example, crawl downloads can be held below what the instance's network can carry and leave room
+ * for webhook traffic. Class limits are written {@code class,read,write} and separated by
+ * semicolons; a class listed with {@code 0,0} is measured but not limited. Connections of classes
+ * that are not listed are neither.
+ *
+ * <p>Host limits apply to each connection on its own. They are written {@code host,read,write},
+ * where the host is an exact name, {@code *.suffix} for any subdomain of suffix, or {@code *}, and
+ * the first matching rule applies.
+ */
+public final class TrafficShaper {
+  // The names of the handlers in the pipeline of a shaped connection.
+  private static final String CLASS_HANDLER = "class-traffic-shaping";
+  private static final String HOST_HANDLER = "host-traffic-shaping";
+
+  private final Map<TrafficClass, GlobalTrafficShapingHandler> classHandlers;
+  private final List<HostRule> hostRules;
+
+  private record HostRule(String host, long readLimit, long writeLimit) {
+    boolean matches(String target) {
+      if (host.equals("*")) {
+        return true;
+      }
+      if (target == null) {
+        return false;
+      }
+      if (host.startsWith("*.")) {
+        return target.endsWith(host.substring(1));
+      }
+      return target.equals(host);
+    }
+  }
+
+  private TrafficShaper(
+      Map<TrafficClass, GlobalTrafficShapingHandler> classHandlers, List<HostRule> hostRules) {
+    this.classHandlers = classHandlers;
+    this.hostRules = hostRules;
+  }
+
+  /** Parses the limits described in the class comment. Null or empty strings have no limits. */
+  public static TrafficShaper parse(String classLimits, String hostLimits) {
+    Map<TrafficClass, long[]> parsedClassLimits = new EnumMap<>(TrafficClass.class);
+    for (String[] fields : split(classLimits)) {
+      parsedClassLimits.put(TrafficClass.valueOf(fields[0]), limits(fields));
+    }
+    List<HostRule> parsedHostRules = new ArrayList<>();
+    for (String[] fields : split(hostLimits)) {
+      long[] limits = limits(fields);
+      parsedHostRules.add(new HostRule(fields[0].toLowerCase(), limits[0], limits[1]));
+    }
+
+    Map<TrafficClass, GlobalTrafficShapingHandler> classHandlers =
+        new EnumMap<>(TrafficClass.class);
+    if (!parsedClassLimits.isEmpty()) {
+      // Only recomputes the counters and releases delayed writes, so one thread serves all
+      // classes.
+      ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "traffic-shaping");
+                thread.setDaemon(true);
+                return thread;
+              });
+      parsedClassLimits.forEach(
+          (trafficClass, limits) ->
+              classHandlers.put(
+                  trafficClass, new GlobalTrafficShapingHandler(executor, limits[1], limits[0])));
+    }
+    return new TrafficShaper(classHandlers, List.copyOf(parsedHostRules));
+  }
+
+  private static List<String[]> split(String rules) {
+    List<String[]> split = new ArrayList<>();
+    if (rules == null) {
+      return split;
+    }
+    for (String rule : rules.split(";")) {
+      if (rule.isBlank()) {
+        continue;
+      }
+      String[] fields = Arrays.stream(rule.split(",", -1)).map(String::trim).toArray(String[]::new);
+      if (fields.length != 3 || fields[0].isEmpty()) {
+        throw new IllegalArgumentException("Bandwidth limit must be target,read,write: " + rule);
+      }
+      split.add(fields);
+    }
+    return split;
+  }
+
+  private static long[] limits(String[] fields) {
+    long read = fields[1].isEmpty() ? 0 : Long.parseLong(fields[1]);
+    long write = fields[2].isEmpty() ? 0 : Long.parseLong(fields[2]);
+    if (read < 0 || write < 0) {
+      throw new IllegalArgumentException("Bandwidth limits must not be negative: " + fields[0]);
+    }
+    return new long[] {read, write};
+  }
+
+  public boolean isEmpty() {
+    return classHandlers.isEmpty() && hostRules.isEmpty();
+  }
+
+  /** Applies the limits for {@code trafficClass} and {@code host} to a new upstream connection. */
+  public void shape(Channel channel, TrafficClass trafficClass, String host) {
+    GlobalTrafficShapingHandler classHandler = classHandlers.get(trafficClass);
+    HostRule hostRule = hostRuleFor(host);
+    if (classHandler == null && hostRule == null) {
+      return;
+    }
+    channel
+        .eventLoop()
+        .execute(
+            () -> {
+              ChannelPipeline pipeline = channel.pipeline();
+              // Added first so that they are next to the socket, host limit outermost.
+              if (classHandler != null && pipeline.get(CLASS_HANDLER) == null) {
+                pipeline.addFirst(CLASS_HANDLER, classHandler);
+              }
+              if (hostRule != null && pipeline.get(HOST_HANDLER) == null) {
+                pipeline.addFirst(
+                    HOST_HANDLER,
+                    new ChannelTrafficShapingHandler(hostRule.writeLimit(), hostRule.readLimit()));
+              }
+            });
+  }
+
+  private HostRule hostRuleFor(String host) {
+    for (HostRule rule : hostRules) {
+      if (rule.matches(host)) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  public TrafficShapingResponse snapshot() {
+    TrafficShapingResponse response = new TrafficShapingResponse();
+    classHandlers.forEach(
+        (trafficClass, handler) -> {
+          TrafficCounter counter = handler.trafficCounter();
+          TrafficShapingResponse.TrafficClassThroughput throughput =
+              new TrafficShapingResponse.TrafficClassThroughput();
+          throughput.trafficClass = trafficClass.name();
+          throughput.readLimitBytesPerSecond = handler.getReadLimit();
+          throughput.writeLimitBytesPerSecond = handler.getWriteLimit();
+          throughput.readBytesPerSecond = counter.lastReadThroughput();
+          throughput.writeBytesPerSecond = counter.lastWriteThroughput();
+          throughput.totalReadBytes = counter.cumulativeReadBytes();
+          throughput.totalWrittenBytes = counter.cumulativeWrittenBytes();
+          response.trafficClasses.add(throughput);
+        });
+    return response;
+  }
+}
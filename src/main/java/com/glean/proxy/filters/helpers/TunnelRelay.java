@@ -0,0 +1,138 @@
+package com.glean.proxy.filters.helpers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator.ExtendedHandle;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.UncheckedBooleanSupplier;
+
+/**
+ * Bulk relay settings for connections that have become CONNECT tunnels. Once a tunnel is
+ * established the proxy only copies opaque bytes from one socket to the other, a read followed by
+ * a write and flush for each buffer. Reading in larger buffers means fewer of those system calls
+ * per byte relayed, and raising the write watermarks to match keeps a single read from pausing the
+ * other side of the tunnel.
+ *
+ * <p>Netty caches a channel's read size estimator when the channel first reads, so the allocator is
+ * installed by {@link #prepare} when the connection is created and switched over by {@link #relay}
+ * later on.
+ */
+public final class TunnelRelay {
+  private static final RecvByteBufAllocator DEFAULT_ALLOCATOR = new AdaptiveRecvByteBufAllocator();
+  private static final int MINIMUM_READ_BUFFER_SIZE = 64;
+
+  private final int readBufferSize;
+  private final RecvByteBufAllocator bulkAllocator;
+
+  public TunnelRelay(int readBufferSize) {
+    this.readBufferSize = readBufferSize;
+    this.bulkAllocator =
+        new AdaptiveRecvByteBufAllocator(MINIMUM_READ_BUFFER_SIZE, readBufferSize, readBufferSize);
+  }
+
+  public int getReadBufferSize() {
+    return readBufferSize;
+  }
+
+  /** Applied to every client and server connection before it first reads. */
+  public void prepare(Channel channel) {
+    channel.config().setRecvByteBufAllocator(new SwitchableAllocator());
+  }
+
+  /** Switches one side of an established tunnel to bulk reads. Takes effect on its next read. */
+  public void relay(Channel channel) {
+    if (channel.config().getRecvByteBufAllocator() instanceof SwitchableAllocator allocator) {
+      allocator.bulk = true;
+    }
+    channel
+        .config()
+        .setWriteBufferWaterMark(new WriteBufferWaterMark(readBufferSize, 2 * readBufferSize));
+  }
+
+  /** Sizes reads like Netty's default until the channel is switched to bulk reads. */
+  private final class SwitchableAllocator implements RecvByteBufAllocator {
+    private volatile boolean bulk;
+
+    @Override
+    public ExtendedHandle newHandle() {
+      return new SwitchableHandle(this);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private final class SwitchableHandle implements ExtendedHandle {
+    private final SwitchableAllocator allocator;
+    private boolean switched;
+    private ExtendedHandle delegate;
+
+    SwitchableHandle(SwitchableAllocator allocator) {
+      this.allocator = allocator;
+      this.delegate = (ExtendedHandle) DEFAULT_ALLOCATOR.newHandle();
+    }
+
+    // Netty resets the handle at the start of each read loop, so the switch never lands in the
+    // middle of one.
+    @Override
+    public void reset(ChannelConfig config) {
+      if (!switched && allocator.bulk) {
+        switched = true;
+        delegate = (ExtendedHandle) bulkAllocator.newHandle();
+      }
+      delegate.reset(config);
+    }
+
+    @Override
+    public ByteBuf allocate(ByteBufAllocator alloc) {
+      return delegate.allocate(alloc);
+    }
+
+    @Override
+    public int guess() {
+      return delegate.guess();
+    }
+
+    @Override
+    public void incMessagesRead(int numMessages) {
+      delegate.incMessagesRead(numMessages);
+    }
+
+    @Override
+    public void lastBytesRead(int bytes) {
+      delegate.lastBytesRead(bytes);
+    }
+
+    @Override
+    public int lastBytesRead() {
+      return delegate.lastBytesRead();
+    }
+
+    @Override
+    public void attemptedBytesRead(int bytes) {
+      delegate.attemptedBytesRead(bytes);
+    }
+
+    @Override
+    public int attemptedBytesRead() {
+      return delegate.attemptedBytesRead();
+    }
+
+    @Override
+    public boolean continueReading() {
+      return delegate.continueReading();
+    }
+
+    @Override
+    public boolean continueReading(UncheckedBooleanSupplier maybeMoreDataSupplier) {
+      return delegate.continueReading(maybeMoreDataSupplier);
+    }
+
+    @Override
+    public void readComplete() {
+      delegate.readComplete();
+    }
+  }
+}
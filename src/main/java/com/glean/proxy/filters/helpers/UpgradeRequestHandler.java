@@ -1,164 +1,154 @@
 package com.glean.proxy.filters.helpers;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.util.CharsetUtil;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpHeaders;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 
 public class UpgradeRequestHandler {
 
   private static final Logger LOGGER = Logger.getLogger(UpgradeRequestHandler.class.getName());
+  // Matches the aggregation limit that LittleProxy used to apply to every request.
+  private static final int MAX_REQUEST_SIZE_BYTES = 5 * 1024 * 1024;
   public static final List<String> HEADERS_TO_COPY =
-      Arrays.asList(HttpHeaders.AUTHORIZATION, HttpHeaders.USER_AGENT, HttpHeaders.ACCEPT);
+      Arrays.asList("Authorization", "User-Agent", "Accept");
 
   /**
-   * Forwards a Netty HTTP request to an upgraded URI using Apache HttpClient, copying select
-   * headers and handling the response. If an error occurs during forwarding, it returns a 500.
+   * Forwards a Netty HTTP request to an upgraded URI, copying select headers, on the client
+   * connection's event loop using {@link NettyHttpsClient}, so the calling worker thread is not
+   * blocked for the upstream round trip. The request body is read from the client before the
+   * request is sent, and the response body is streamed to the client as it arrives.
    *
+   * @param ctx the client-to-proxy context passed to the filter
    * @param nettyRequest the incoming Netty HttpRequest to be forwarded
    * @param upgradedUri the HTTPS target URI to which the request should be sent
    * @param proxyHeader the value to use for the User-Agent header if not present
-   * @return the Netty HttpResponse received from the upgraded URI, or a 500 error response on
-   *     failure
+   * @return a placeholder to return from the filter hook; the upstream response, or a 500 on
+   *     failure, is written to the client when it arrives
    */
-  public static HttpResponse sendUpgradedRequest(
-      HttpRequest nettyRequest, String upgradedUri, String proxyHeader) {
-    HttpRequestBase apacheRequest = createApacheRequest(nettyRequest, upgradedUri, proxyHeader);
-    CloseableHttpClient httpClient = HttpClientFactory.getHttpClient();
+  public static HttpResponse sendUpgradedRequestAsync(
+      ChannelHandlerContext ctx, HttpRequest nettyRequest, String upgradedUri, String proxyHeader) {
+    CompletableFuture<HttpResponse> response;
     try {
-      org.apache.http.HttpResponse response = httpClient.execute(apacheRequest);
-      return copyApacheResponseToNetty(response);
+      URI uri = new URI(upgradedUri);
+      response =
+          RequestBodyAggregator.aggregate(ctx, nettyRequest, MAX_REQUEST_SIZE_BYTES)
+              .thenCompose(
+                  fullRequest -> {
+                    FullHttpRequest request;
+                    try {
+                      request = createUpstreamRequest(fullRequest, uri, proxyHeader);
+                    } finally {
+                      fullRequest.release();
+                    }
+                    return NettyHttpsClient.getClient()
+                        .stream(ctx.channel().eventLoop(), uri, request);
+                  })
+              .handle(
+                  (upstreamResponse, e) -> {
+                    if (e == null) {
+                      return upstreamResponse;
+                    }
+                    Throwable cause =
+                        e instanceof CompletionException && e.getCause() != null
+                            ? e.getCause()
+                            : e;
+                    if (cause instanceof TooLongFrameException) {
+                      LOGGER.warning("Rejected request: " + cause.getMessage());
+                      return requestTooLargeResponse();
+                    }
+                    LOGGER.severe("Failed to get response: " + cause);
+                    return serverErrorResponse();
+                  });
     } catch (Exception e) {
-      StringWriter sw = new StringWriter();
-      PrintWriter pw = new PrintWriter(sw);
-      e.printStackTrace(pw);
-      String stackTrace = sw.toString(); // stack trace as a string
-      LOGGER.severe("Failed to get response: " + stackTrace);
-      DefaultFullHttpResponse response =
-          new DefaultFullHttpResponse(
-              HttpVersion.HTTP_1_1,
-              HttpResponseStatus.INTERNAL_SERVER_ERROR,
-              Unpooled.copiedBuffer("Server error during request forwarding", CharsetUtil.UTF_8));
-      response.headers().set("Content-Type", "text/plain; charset=UTF-8");
-      return response;
+      LOGGER.severe("Failed to forward request: " + e);
+      response = CompletableFuture.completedFuture(serverErrorResponse());
     }
+    return DeferredHttpResponse.defer(ctx, response);
   }
 
-  private static HttpResponse copyApacheResponseToNetty(org.apache.http.HttpResponse apacheResponse)
-      throws IOException {
-    int statusCode = apacheResponse.getStatusLine().getStatusCode();
-    HttpVersion version;
-    try {
-      version = HttpVersion.valueOf(apacheResponse.getProtocolVersion().toString());
-    } catch (IllegalArgumentException e) {
-      version = HttpVersion.HTTP_1_1;
-    }
-
-    DefaultFullHttpResponse nettyResponse =
+  private static HttpResponse serverErrorResponse() {
+    DefaultFullHttpResponse response =
         new DefaultFullHttpResponse(
-            version,
-            new HttpResponseStatus(statusCode, apacheResponse.getStatusLine().getReasonPhrase()));
-
-    for (Header header : apacheResponse.getAllHeaders()) {
-      nettyResponse.headers().add(header.getName(), header.getValue());
-    }
+            HttpVersion.HTTP_1_1,
+            HttpResponseStatus.INTERNAL_SERVER_ERROR,
+            Unpooled.copiedBuffer("Server error during request forwarding", CharsetUtil.UTF_8));
+    response.headers().set("Content-Type", "text/plain; charset=UTF-8");
+    return response;
+  }
 
-    HttpEntity entity = apacheResponse.getEntity();
-    if (entity != null) {
-      byte[] contentBytes = EntityUtils.toByteArray(entity);
-      ByteBuf contentBuf = Unpooled.wrappedBuffer(contentBytes);
-      try {
-        nettyResponse.content().writeBytes(contentBuf);
-      } finally {
-        contentBuf.release();
-      }
-    }
-    return nettyResponse;
+  // The rest of the oversized body is not read, so the connection cannot be reused.
+  private static HttpResponse requestTooLargeResponse() {
+    DefaultFullHttpResponse response =
+        new DefaultFullHttpResponse(
+            HttpVersion.HTTP_1_1, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+    HttpUtil.setContentLength(response, 0);
+    HttpUtil.setKeepAlive(response, false);
+    return response;
   }
 
   /**
-   * Method to create an Apache HttpRequestBase object based on the HttpMethod. Only supports GET,
+   * Creates the request sent upstream by {@link #sendUpgradedRequestAsync}. Only supports GET,
    * POST, and PUT.
    */
-  private static HttpRequestBase createApacheRequest(
-      HttpRequest nettyRequest, String uri, String proxyHeader) {
+  private static FullHttpRequest createUpstreamRequest(
+      HttpRequest nettyRequest, URI uri, String proxyHeader) {
     HttpMethod method = nettyRequest.method();
-    LOGGER.info("Creating Apache request for URI: " + uri + " with method: " + method);
-    HttpRequestBase apacheRequest =
-        switch (method.name()) {
-          case "GET" -> new HttpGet(uri);
-          case "POST", "PUT" -> getHttpEntityEnclosingRequestBase(nettyRequest, method, uri);
-          default -> null;
-        };
-    if (apacheRequest == null) {
-      LOGGER.severe("Unsupported HTTP method: " + method);
-      return null;
+    LOGGER.info("Creating upstream request for URI: " + uri + " with method: " + method);
+    if (!method.equals(HttpMethod.GET)
+        && !method.equals(HttpMethod.POST)
+        && !method.equals(HttpMethod.PUT)) {
+      throw new IllegalArgumentException("Unsupported HTTP method: " + method);
     }
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+    if (uri.getRawQuery() != null) {
+      path += "?" + uri.getRawQuery();
+    }
+    ByteBuf content =
+        !method.equals(HttpMethod.GET) && nettyRequest instanceof HttpContent httpContent
+            ? httpContent.content().retainedDuplicate()
+            : Unpooled.EMPTY_BUFFER;
+    FullHttpRequest request =
+        new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, content);
+
+    String host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    request.headers().set(HttpHeaderNames.HOST, host);
     HEADERS_TO_COPY.forEach(
         headerKey -> {
           if (nettyRequest.headers().contains(headerKey)) {
-            apacheRequest.addHeader(headerKey, nettyRequest.headers().get(headerKey));
+            request.headers().set(headerKey, nettyRequest.headers().get(headerKey));
           }
         });
-
     // Write default header if user-agent header doesn't exist for logging purpose.
-    Header userAgent = apacheRequest.getFirstHeader(HttpHeaders.USER_AGENT);
-    if (userAgent == null) {
-      apacheRequest.addHeader(HttpHeaders.USER_AGENT, proxyHeader);
+    if (!request.headers().contains(HttpHeaderNames.USER_AGENT)) {
+      request.headers().set(HttpHeaderNames.USER_AGENT, proxyHeader);
     }
-    return apacheRequest;
-  }
-
-  /**
-   * Creates an HttpEntityEnclosingRequestBase for POST and PUT methods using the provided Netty
-   * request and URI. Other methods are not handled.
-   */
-  private static HttpEntityEnclosingRequestBase getHttpEntityEnclosingRequestBase(
-      HttpRequest nettyRequest, HttpMethod method, String uri) {
-    // Create the appropriate request type based on the method
-    HttpEntityEnclosingRequestBase requestWithEntity =
-        method.equals(HttpMethod.POST) ? new HttpPost(uri) : new HttpPut(uri);
-    if (nettyRequest instanceof HttpContent) {
-      HttpContent httpContent = (HttpContent) nettyRequest;
-      ByteBuf contentBuf = httpContent.content();
-      InputStream inputStream = new ByteBufInputStream(contentBuf);
-      InputStreamEntity streamEntity =
-          new InputStreamEntity(
-              inputStream,
-              contentBuf.readableBytes(),
-              ContentType.create(
-                  nettyRequest
-                      .headers()
-                      .get(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream")));
-      requestWithEntity.setEntity(streamEntity);
+    if (!method.equals(HttpMethod.GET)) {
+      request
+          .headers()
+          .set(
+              HttpHeaderNames.CONTENT_TYPE,
+              nettyRequest.headers().get(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream"));
+      HttpUtil.setContentLength(request, content.readableBytes());
     }
-    return requestWithEntity;
+    return request;
   }
 }
@@ -18,4 +18,10 @@ public class Utils {
     HttpHeaders.setHeader(response, HttpHeaders.Names.CONTENT_TYPE, "text/plain");
     return response;
   }
+
+  public static HttpResponse createJsonResponse(String json, HttpResponseStatus status) {
+    HttpResponse response = createHTTPResponse(json, status);
+    HttpHeaders.setHeader(response, HttpHeaders.Names.CONTENT_TYPE, "application/json");
+    return response;
+  }
 }
@@ -0,0 +1,32 @@
+package com.glean.proxy.metrics;
+
+/** The {@code HttpFilters} hooks whose latency is recorded for each filter. */
+public enum FilterHook {
+  CLIENT_TO_PROXY_REQUEST("clientToProxyRequest"),
+  PROXY_TO_SERVER_CONNECTION_QUEUED("proxyToServerConnectionQueued"),
+  PROXY_TO_SERVER_RESOLUTION_STARTED("proxyToServerResolutionStarted"),
+  PROXY_TO_SERVER_RESOLUTION_FAILED("proxyToServerResolutionFailed"),
+  PROXY_TO_SERVER_RESOLUTION_SUCCEEDED("proxyToServerResolutionSucceeded"),
+  PROXY_TO_SERVER_REQUEST("proxyToServerRequest"),
+  PROXY_TO_SERVER_CONNECTION_STARTED("proxyToServerConnectionStarted"),
+  PROXY_TO_SERVER_CONNECTION_SSL_HANDSHAKE_STARTED("proxyToServerConnectionSSLHandshakeStarted"),
+  PROXY_TO_SERVER_CONNECTION_FAILED("proxyToServerConnectionFailed"),
+  PROXY_TO_SERVER_CONNECTION_SUCCEEDED("proxyToServerConnectionSucceeded"),
+  PROXY_TO_SERVER_REQUEST_SENDING("proxyToServerRequestSending"),
+  PROXY_TO_SERVER_REQUEST_SENT("proxyToServerRequestSent"),
+  SERVER_TO_PROXY_RESPONSE_RECEIVING("serverToProxyResponseReceiving"),
+  SERVER_TO_PROXY_RESPONSE("serverToProxyResponse"),
+  SERVER_TO_PROXY_RESPONSE_RECEIVED("serverToProxyResponseReceived"),
+  SERVER_TO_PROXY_RESPONSE_TIMED_OUT("serverToProxyResponseTimedOut"),
+  PROXY_TO_CLIENT_RESPONSE("proxyToClientResponse");
+
+  private final String methodName;
+
+  FilterHook(String methodName) {
+    this.methodName = methodName;
+  }
+
+  public String methodName() {
+    return methodName;
+  }
+}
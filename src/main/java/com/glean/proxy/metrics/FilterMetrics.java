@@ -0,0 +1,64 @@
+package com.glean.proxy.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Hook latencies and request verdicts of one filter class. */
+public final class FilterMetrics {
+  private static final int MAX_STATUS = 600;
+
+  private final String filterName;
+  private final Histogram[] hooks = new Histogram[FilterHook.values().length];
+  private final LongAdder passed = new LongAdder();
+  // Created the first time the filter answers with each status.
+  private final AtomicReferenceArray<LongAdder> answered = new AtomicReferenceArray<>(MAX_STATUS);
+
+  FilterMetrics(String filterName) {
+    this.filterName = filterName;
+    for (int i = 0; i < hooks.length; i++) {
+      hooks[i] = new Histogram();
+    }
+  }
+
+  public String filterName() {
+    return filterName;
+  }
+
+  public void recordHook(FilterHook hook, long nanos) {
+    hooks[hook.ordinal()].record(nanos);
+  }
+
+  /** Records that the filter let a request through to the filters after it. */
+  public void recordPassed() {
+    passed.increment();
+  }
+
+  /** Records that the filter answered a request itself, with {@code status}. */
+  public void recordAnswered(int status) {
+    int index = status < 0 || status >= MAX_STATUS ? 0 : status;
+    LongAdder counter = answered.get(index);
+    if (counter == null) {
+      answered.compareAndSet(index, null, new LongAdder());
+      counter = answered.get(index);
+    }
+    counter.increment();
+  }
+
+  Histogram hook(FilterHook hook) {
+    return hooks[hook.ordinal()];
+  }
+
+  long passed() {
+    return passed.sum();
+  }
+
+  /** Returns 0 for statuses the filter never answered with. */
+  long answered(int status) {
+    LongAdder counter = answered.get(status);
+    return counter == null ? 0 : counter.sum();
+  }
+
+  static int maxStatus() {
+    return MAX_STATUS;
+  }
+}
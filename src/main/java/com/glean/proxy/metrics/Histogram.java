@@ -0,0 +1,73 @@
+package com.glean.proxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed power-of-two buckets from about a microsecond to about eight
+ * seconds. Recording picks the bucket with a bit count and adds to a preallocated striped counter,
+ * so it neither locks nor allocates.
+ */
+public final class Histogram {
+  // The first bucket holds durations up to 2^10 ns, and each one after it twice as long.
+  private static final int FIRST_BUCKET_BITS = 10;
+  private static final int FINITE_BUCKETS = 24;
+  private static final String[] UPPER_BOUNDS = new String[FINITE_BUCKETS + 1];
+
+  static {
+    for (int i = 0; i < FINITE_BUCKETS; i++) {
+      UPPER_BOUNDS[i] = Double.toString((1L << (FIRST_BUCKET_BITS + i)) / 1e9);
+    }
+    UPPER_BOUNDS[FINITE_BUCKETS] = "+Inf";
+  }
+
+  private final LongAdder[] buckets = new LongAdder[FINITE_BUCKETS + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  public Histogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    buckets[bucketOf(nanos)].increment();
+    sumNanos.add(Math.max(0, nanos));
+  }
+
+  static int bucketOf(long nanos) {
+    if (nanos <= 1L << FIRST_BUCKET_BITS) {
+      return 0;
+    }
+    // The number of bits in nanos - 1 is the exponent of the smallest power of two >= nanos.
+    int bits = Long.SIZE - Long.numberOfLeadingZeros(nanos - 1);
+    return Math.min(bits - FIRST_BUCKET_BITS, FINITE_BUCKETS);
+  }
+
+  public long count() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /** Appends the cumulative buckets, sum and count of this histogram in Prometheus text format. */
+  void writeTo(StringBuilder out, String name, String labels) {
+    long cumulative = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      cumulative += buckets[i].sum();
+      out.append(name)
+          .append("_bucket{")
+          .append(labels)
+          .append(",le=\"")
+          .append(UPPER_BOUNDS[i])
+          .append("\"} ")
+          .append(cumulative)
+          .append('\n');
+    }
+    out.append(name).append("_sum{").append(labels).append("} ");
+    out.append(sumNanos.sum() / 1e9).append('\n');
+    out.append(name).append("_count{").append(labels).append("} ");
+    out.append(cumulative).append('\n');
+  }
+}
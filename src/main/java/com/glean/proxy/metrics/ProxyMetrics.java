@@ -0,0 +1,131 @@
+package com.glean.proxy.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request counts and filter latencies, exported in the Prometheus text format. Everything that is
+ * recorded on a worker thread goes to counters created ahead of time or on first use, so recording
+ * does not lock or allocate.
+ */
+public final class ProxyMetrics {
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  public static final int DEFAULT_MAX_PHASE_HOSTS = 100;
+
+  /** The routes {@code DynamicHttpFiltersSourceAdapter} sends requests down. */
+  public enum Route {
+    LIVENESS,
+    READINESS,
+    METRICS,
+    DEBUG,
+    INGRESS,
+    EGRESS
+  }
+
+  private final LongAdder[] requests = new LongAdder[Route.values().length];
+  // Sorted so that scrapes list filters in a stable order.
+  private final Map<String, FilterMetrics> filtersByName = new ConcurrentSkipListMap<>();
+  private final ClassValue<FilterMetrics> filters =
+      new ClassValue<>() {
+        @Override
+        protected FilterMetrics computeValue(Class<?> filterClass) {
+          return filtersByName.computeIfAbsent(filterClass.getSimpleName(), FilterMetrics::new);
+        }
+      };
+
+  private final UpstreamPhaseMetrics upstreamPhases;
+  private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+  private record Counter(String help, LongSupplier value) {}
+
+  public ProxyMetrics() {
+    this(DEFAULT_MAX_PHASE_HOSTS);
+  }
+
+  /** {@code maxPhaseHosts} caps the hosts with upstream phase histograms of their own. */
+  public ProxyMetrics(int maxPhaseHosts) {
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = new LongAdder();
+    }
+    upstreamPhases = new UpstreamPhaseMetrics(maxPhaseHosts);
+  }
+
+  public void recordRequest(Route route) {
+    requests[route.ordinal()].increment();
+  }
+
+  /** The metrics of a filter class, which are shared with other classes of the same name. */
+  public FilterMetrics filter(Class<?> filterClass) {
+    return filters.get(filterClass);
+  }
+
+  public UpstreamPhaseMetrics upstreamPhases() {
+    return upstreamPhases;
+  }
+
+  /** Exports a counter kept by another component, which is read at every scrape. */
+  public void addCounter(String name, String help, LongSupplier value) {
+    counters.put(name, new Counter(help, value));
+  }
+
+  public String scrape() {
+    StringBuilder out = new StringBuilder(4096);
+    out.append("# HELP proxy_requests_total Requests received, by route.\n");
+    out.append("# TYPE proxy_requests_total counter\n");
+    for (Route route : Route.values()) {
+      out.append("proxy_requests_total{route=\"")
+          .append(route.name().toLowerCase())
+          .append("\"} ")
+          .append(requests[route.ordinal()].sum())
+          .append('\n');
+    }
+
+    out.append("# HELP proxy_filter_verdicts_total Requests each filter passed on or answered, by")
+        .append(" the status it answered with.\n");
+    out.append("# TYPE proxy_filter_verdicts_total counter\n");
+    for (FilterMetrics filter : filtersByName.values()) {
+      appendVerdict(out, filter.filterName(), "pass", filter.passed());
+      for (int status = 0; status < FilterMetrics.maxStatus(); status++) {
+        long answered = filter.answered(status);
+        if (answered > 0) {
+          appendVerdict(out, filter.filterName(), String.valueOf(status), answered);
+        }
+      }
+    }
+
+    out.append("# HELP proxy_filter_hook_duration_seconds Time spent in each filter hook.\n");
+    out.append("# TYPE proxy_filter_hook_duration_seconds histogram\n");
+    for (FilterMetrics filter : filtersByName.values()) {
+      for (FilterHook hook : FilterHook.values()) {
+        Histogram histogram = filter.hook(hook);
+        if (histogram.count() > 0) {
+          histogram.writeTo(
+              out,
+              "proxy_filter_hook_duration_seconds",
+              String.format("filter=\"%s\",hook=\"%s\"", filter.filterName(), hook.methodName()));
+        }
+      }
+    }
+    upstreamPhases.writeTo(out);
+    counters.forEach(
+        (name, counter) -> {
+          out.append("# HELP ").append(name).append(' ').append(counter.help()).append('\n');
+          out.append("# TYPE ").append(name).append(" counter\n");
+          out.append(name).append(' ').append(counter.value().getAsLong()).append('\n');
+        });
+    return out.toString();
+  }
+
+  private static void appendVerdict(
+      StringBuilder out, String filterName, String verdict, long count) {
+    out.append("proxy_filter_verdicts_total{filter=\"")
+        .append(filterName)
+        .append("\",verdict=\"")
+        .append(verdict)
+        .append("\"} ")
+        .append(count)
+        .append('\n');
+  }
+}
@@ -0,0 +1,25 @@
+package com.glean.proxy.metrics;
+
+/** The steps a request to an upstream server spends its time in. */
+public enum UpstreamPhase {
+  /** Resolving the server's address. */
+  DNS("dns"),
+  /** Opening the TCP connection. */
+  CONNECT("connect"),
+  /** The TLS handshake, for connections on which the proxy itself speaks TLS. */
+  TLS("tls"),
+  /** From the request being sent until the response starts to arrive. */
+  FIRST_BYTE("first_byte"),
+  /** From the start of the response until its end. */
+  TRANSFER("transfer");
+
+  private final String label;
+
+  UpstreamPhase(String label) {
+    this.label = label;
+  }
+
+  public String label() {
+    return label;
+  }
+}
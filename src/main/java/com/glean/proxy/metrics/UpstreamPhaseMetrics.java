@@ -0,0 +1,161 @@
+package com.glean.proxy.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograms of the time requests spend in each {@link UpstreamPhase}, for each destination host.
+ * To bound the number of series, only {@code maxHosts} hosts get histograms of their own and the
+ * rest share the {@code other} host.
+ *
+ * <p>The hosts are the ones with the most requests, estimated with a space-saving counter over a
+ * few times as many hosts: a host that is not counted takes over the smallest counter, and its
+ * count. Every refresh interval the counts are halved and the tracked hosts re-chosen from them, so
+ * that they follow the hosts in use. A host that drops out loses its histograms.
+ */
+public final class UpstreamPhaseMetrics {
+  static final String OTHER_HOST = "other";
+  private static final int COUNTERS_PER_HOST = 4;
+  private static final long REFRESH_INTERVAL_NANOS = 60 * 1_000_000_000L;
+
+  private final int maxHosts;
+  private final int maxCounters;
+  private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+  // Replaced whole rather than updated, so that the hot path reads it without locking.
+  private volatile Map<String, HostPhases> hosts = Collections.emptyMap();
+  private final HostPhases other = new HostPhases();
+  private final AtomicLong nextRefreshNanos =
+      new AtomicLong(System.nanoTime() + REFRESH_INTERVAL_NANOS);
+
+  private static final class HostPhases {
+    final Histogram[] phases = new Histogram[UpstreamPhase.values().length];
+
+    HostPhases() {
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new Histogram();
+      }
+    }
+  }
+
+  public UpstreamPhaseMetrics(int maxHosts) {
+    this.maxHosts = maxHosts;
+    this.maxCounters = COUNTERS_PER_HOST * maxHosts;
+  }
+
+  /** Counts a request to {@code host}, which may be null if the request names none. */
+  public void recordRequest(String host) {
+    if (host == null || maxHosts <= 0) {
+      return;
+    }
+    counterOf(host).increment();
+    if (hosts.size() < maxHosts && !hosts.containsKey(host)) {
+      admit(host);
+    }
+    long now = System.nanoTime();
+    long due = nextRefreshNanos.get();
+    if (now - due >= 0 && nextRefreshNanos.compareAndSet(due, now + REFRESH_INTERVAL_NANOS)) {
+      refresh();
+    }
+  }
+
+  public void record(String host, UpstreamPhase phase, long nanos) {
+    phasesOf(host).phases[phase.ordinal()].record(nanos);
+  }
+
+  private HostPhases phasesOf(String host) {
+    HostPhases phases = host == null ? null : hosts.get(host);
+    return phases != null ? phases : other;
+  }
+
+  private LongAdder counterOf(String host) {
+    LongAdder counter = counts.get(host);
+    if (counter != null) {
+      return counter;
+    }
+    synchronized (counts) {
+      counter = counts.get(host);
+      if (counter != null) {
+        return counter;
+      }
+      counter = new LongAdder();
+      if (counts.size() >= maxCounters) {
+        Map.Entry<String, LongAdder> smallest = null;
+        long smallestCount = Long.MAX_VALUE;
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+          long count = entry.getValue().sum();
+          if (count < smallestCount) {
+            smallest = entry;
+            smallestCount = count;
+          }
+        }
+        counts.remove(smallest.getKey());
+        counter.add(smallestCount);
+      }
+      counts.put(host, counter);
+      return counter;
+    }
+  }
+
+  private void admit(String host) {
+    synchronized (counts) {
+      if (hosts.size() < maxHosts && !hosts.containsKey(host)) {
+        Map<String, HostPhases> admitted = new HashMap<>(hosts);
+        admitted.put(host, new HostPhases());
+        hosts = admitted;
+      }
+    }
+  }
+
+  /** Halves the request counts and re-chooses the tracked hosts from them. */
+  void refresh() {
+    synchronized (counts) {
+      List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+      for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+        long count = entry.getValue().sumThenReset();
+        entry.getValue().add(count / 2);
+        ranked.add(Map.entry(entry.getKey(), count));
+      }
+      ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+      Map<String, HostPhases> chosen = new HashMap<>();
+      for (Map.Entry<String, Long> entry : ranked.subList(0, Math.min(maxHosts, ranked.size()))) {
+        HostPhases phases = hosts.get(entry.getKey());
+        chosen.put(entry.getKey(), phases != null ? phases : new HostPhases());
+      }
+      hosts = chosen;
+    }
+  }
+
+  /** Appends the histograms of every tracked host in Prometheus text format. */
+  void writeTo(StringBuilder out) {
+    String name = "proxy_upstream_phase_duration_seconds";
+    out.append("# HELP ").append(name).append(" Time requests spent in each upstream phase.\n");
+    out.append("# TYPE ").append(name).append(" histogram\n");
+    Map<String, HostPhases> sorted = new TreeMap<>(hosts);
+    sorted.put(OTHER_HOST, other);
+    sorted.forEach(
+        (host, phases) -> {
+          for (UpstreamPhase phase : UpstreamPhase.values()) {
+            Histogram histogram = phases.phases[phase.ordinal()];
+            if (histogram.count() > 0) {
+              histogram.writeTo(
+                  out,
+                  name,
+                  String.format(
+                      "host=\"%s\",phase=\"%s\"", escapeLabelValue(host), phase.label()));
+            }
+          }
+        });
+  }
+
+  /** Escapes a label value as the Prometheus text format requires. */
+  static String escapeLabelValue(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,20 @@
+package com.glean.proxy.schemas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The circuit breaker of every upstream destination with recent connect failures.
+public class CircuitBreakerResponse {
+  public int failureThreshold;
+  public long openSeconds;
+  public List<Destination> destinations = new ArrayList<>();
+
+  public static class Destination {
+    public String hostAndPort;
+    // CLOSED, OPEN or HALF_OPEN.
+    public String state;
+    public int consecutiveFailures;
+    // How long until a request is next let through as a probe.
+    public long retryAfterMillis;
+  }
+}
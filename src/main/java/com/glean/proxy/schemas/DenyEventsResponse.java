@@ -0,0 +1,21 @@
+package com.glean.proxy.schemas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The hosts and clients that filters have denied the most requests for.
+public class DenyEventsResponse {
+  public long intervalSeconds;
+  public int trackedKeys;
+  // Denials for hosts and clients beyond the tracked ones, which are only counted.
+  public long untracked;
+  public List<Offender> topOffenders = new ArrayList<>();
+
+  public static class Offender {
+    // The simple name of the filter that denied the requests.
+    public String filter;
+    // The host a request was sent to or the client it came from, depending on the filter.
+    public String subject;
+    public long denied;
+  }
+}
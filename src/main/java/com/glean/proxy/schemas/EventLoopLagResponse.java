@@ -0,0 +1,19 @@
+package com.glean.proxy.schemas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// How late a no-op task most recently ran on each sampled Netty event loop.
+public class EventLoopLagResponse {
+  public long sampleIntervalMillis;
+  public long warnThresholdMillis;
+  public List<EventLoop> eventLoops = new ArrayList<>();
+
+  public static class EventLoop {
+    public String name;
+    public long lagMillis;
+    public long maxLagMillis;
+    // Samples that ran at least warnThresholdMillis late.
+    public long stalls;
+  }
+}
@@ -0,0 +1,20 @@
+package com.glean.proxy.schemas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The destination hosts with the most requests and response bytes since startup. Each estimate
+// may exceed the true count by up to the error bound of its measure.
+public class TopHostsResponse {
+  public long totalRequests;
+  public long requestsErrorBound;
+  public List<Host> byRequests = new ArrayList<>();
+  public long totalResponseBytes;
+  public long responseBytesErrorBound;
+  public List<Host> byResponseBytes = new ArrayList<>();
+
+  public static class Host {
+    public String host;
+    public long estimate;
+  }
+}
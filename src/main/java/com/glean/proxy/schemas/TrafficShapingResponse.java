@@ -0,0 +1,20 @@
+package com.glean.proxy.schemas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Upstream throughput of each traffic class with a bandwidth limit, over the last second.
+public class TrafficShapingResponse {
+  public List<TrafficClassThroughput> trafficClasses = new ArrayList<>();
+
+  public static class TrafficClassThroughput {
+    public String trafficClass;
+    // 0 when unlimited.
+    public long readLimitBytesPerSecond;
+    public long writeLimitBytesPerSecond;
+    public long readBytesPerSecond;
+    public long writeBytesPerSecond;
+    public long totalReadBytes;
+    public long totalWrittenBytes;
+  }
+}
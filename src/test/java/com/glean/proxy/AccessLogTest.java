@@ -0,0 +1,67 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.metrics.ProxyMetrics.Route;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class AccessLogTest {
+
+  @Test
+  public void testWriteBatch_writesJsonLines() {
+    StringWriter out = new StringWriter();
+    AccessLog accessLog = new AccessLog(out, 4, 1);
+    HttpRequest request =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://example.com/\"a\"");
+
+    accessLog.log(Route.EGRESS, request, new InetSocketAddress("10.0.0.1", 5000));
+    accessLog.log(Route.LIVENESS, request, null);
+
+    assertThat(accessLog.writeBatch()).isEqualTo(2);
+    String[] lines = out.toString().split("\n");
+    assertThat(lines).hasSize(2);
+    assertThat(lines[0])
+        .startsWith("{\"time\":\"")
+        .endsWith(
+            "\"route\":\"egress\",\"method\":\"GET\",\"uri\":\"http://example.com/\\\"a\\\"\","
+                + "\"client\":\"10.0.0.1\"}");
+    assertThat(lines[1]).contains("\"route\":\"liveness\"").endsWith("\"client\":null}");
+    assertThat(accessLog.writeBatch()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFullBuffer_dropsAndCounts() {
+    StringWriter out = new StringWriter();
+    AccessLog accessLog = new AccessLog(out, 3, 1);
+    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a");
+
+    for (int i = 0; i < 6; i++) {
+      accessLog.log(Route.EGRESS, request, null);
+    }
+
+    // Rounded up to four slots.
+    assertThat(accessLog.dropped()).isEqualTo(2);
+    assertThat(accessLog.writeBatch()).isEqualTo(4);
+    accessLog.log(Route.EGRESS, request, null);
+    assertThat(accessLog.writeBatch()).isEqualTo(1);
+    assertThat(accessLog.dropped()).isEqualTo(2);
+  }
+
+  @Test
+  public void testZeroSampleRate_recordsNothing() {
+    StringWriter out = new StringWriter();
+    AccessLog accessLog = new AccessLog(out, 4, 0);
+    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a");
+
+    accessLog.log(Route.EGRESS, request, null);
+
+    assertThat(accessLog.writeBatch()).isEqualTo(0);
+    assertThat(accessLog.dropped()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,232 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.base.Ticker;
+import io.netty.resolver.AddressResolver;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingDnsResolverTest {
+  private static final InetAddress FIRST = address(10, 0, 0, 1);
+  private static final InetAddress SECOND = address(10, 0, 0, 2);
+
+  FakeLookup lookup;
+  FakeTicker ticker;
+  CachingDnsResolver resolver;
+
+  @Before
+  public void setUp() {
+    lookup = new FakeLookup();
+    ticker = new FakeTicker();
+    resolver =
+        new CachingDnsResolver(
+            lookup, Duration.ofSeconds(5), Duration.ofSeconds(1), /* maximumSize= */ 1000, ticker);
+  }
+
+  @Test
+  public void testResolve_cachesAnswerForItsTtl() throws Exception {
+    lookup.answerNext(FIRST, 30);
+
+    assertThat(resolver.resolve("example.com", 443).getAddress()).isEqualTo(FIRST);
+    ticker.advance(Duration.ofSeconds(29));
+    assertThat(resolver.resolve("example.com", 443).getAddress()).isEqualTo(FIRST);
+    assertThat(lookup.queries).hasSize(1);
+
+    lookup.answerNext(SECOND, 30);
+    ticker.advance(Duration.ofSeconds(1));
+    assertThat(resolver.resolve("example.com", 443).getAddress()).isEqualTo(SECOND);
+    assertThat(lookup.queries).hasSize(2);
+  }
+
+  @Test
+  public void testResolve_cachesFailuresForNegativeTtl() throws Exception {
+    lookup.failNext(new UnknownHostException("missing.example.com"));
+
+    assertThrows(UnknownHostException.class, () -> resolver.resolve("missing.example.com", 443));
+    ticker.advance(Duration.ofSeconds(4));
+    assertThrows(UnknownHostException.class, () -> resolver.resolve("missing.example.com", 443));
+    assertThat(lookup.queries).hasSize(1);
+
+    lookup.answerNext(FIRST, 30);
+    ticker.advance(Duration.ofSeconds(1));
+    assertThat(resolver.resolve("missing.example.com", 443).getAddress()).isEqualTo(FIRST);
+    assertThat(lookup.queries).hasSize(2);
+  }
+
+  @Test
+  public void testResolveAsync_concurrentMissesShareOneQuery() throws Exception {
+    CompletableFuture<InetAddress> first = resolver.resolveAsync("example.com");
+    CompletableFuture<InetAddress> second = resolver.resolveAsync("example.com");
+    assertThat(first).isNotDone();
+    assertThat(lookup.queries).hasSize(1);
+
+    lookup.queries.get(0).complete(new CachingDnsResolver.Answer(FIRST, 30));
+
+    assertThat(first.get()).isEqualTo(FIRST);
+    assertThat(second.get()).isEqualTo(FIRST);
+  }
+
+  @Test
+  public void testResolveAsync_prefetchesHotEntryCloseToExpiry() throws Exception {
+    lookup.answerNext(FIRST, 100);
+    resolver.resolveAsync("example.com").get();
+    resolver.resolveAsync("example.com").get();
+
+    ticker.advance(Duration.ofSeconds(95));
+    assertThat(resolver.resolveAsync("example.com").get()).isEqualTo(FIRST);
+    assertThat(lookup.queries).hasSize(2);
+    // The cached answer keeps being served while the prefetch is in flight.
+    assertThat(resolver.resolveAsync("example.com").get()).isEqualTo(FIRST);
+    assertThat(lookup.queries).hasSize(2);
+
+    lookup.queries.get(1).complete(new CachingDnsResolver.Answer(SECOND, 100));
+    ticker.advance(Duration.ofSeconds(10));
+    assertThat(resolver.resolveAsync("example.com").get()).isEqualTo(SECOND);
+    assertThat(lookup.queries).hasSize(2);
+  }
+
+  @Test
+  public void testResolveAsync_doesNotPrefetchColdEntry() throws Exception {
+    lookup.answerNext(FIRST, 100);
+    resolver.resolveAsync("example.com").get();
+
+    ticker.advance(Duration.ofSeconds(95));
+    assertThat(resolver.resolveAsync("example.com").get()).isEqualTo(FIRST);
+    assertThat(lookup.queries).hasSize(1);
+  }
+
+  @Test
+  public void testResolve_ipLiteralIsNotLookedUp() throws Exception {
+    assertThat(resolver.resolve("10.0.0.1", 80).getAddress()).isEqualTo(FIRST);
+    assertThat(lookup.queries).isEmpty();
+  }
+
+  @Test
+  public void testAddressResolverGroup_sharesCache() throws Exception {
+    AddressResolver<InetSocketAddress> nettyResolver =
+        resolver.addressResolverGroup().getResolver(ImmediateEventExecutor.INSTANCE);
+    lookup.answerNext(FIRST, 30);
+    resolver.resolve("example.com", 443);
+
+    InetSocketAddress resolved =
+        nettyResolver.resolve(InetSocketAddress.createUnresolved("example.com", 443)).get();
+
+    assertThat(resolved.getAddress()).isEqualTo(FIRST);
+    assertThat(resolved.getPort()).isEqualTo(443);
+    assertThat(lookup.queries).hasSize(1);
+  }
+
+  @Test
+  public void testAddressResolverGroup_failsWithUnknownHost() {
+    AddressResolver<InetSocketAddress> nettyResolver =
+        resolver.addressResolverGroup().getResolver(ImmediateEventExecutor.INSTANCE);
+    lookup.failNext(new UnknownHostException("missing.example.com"));
+
+    Future<InetSocketAddress> resolved =
+        nettyResolver.resolve(InetSocketAddress.createUnresolved("missing.example.com", 443));
+
+    assertThat(resolved.isSuccess()).isFalse();
+    assertThat(resolved.cause()).isInstanceOf(UnknownHostException.class);
+  }
+
+  @Test
+  public void testResolve_keepsAtMostMaximumSizeHosts() throws Exception {
+    resolver =
+        new CachingDnsResolver(
+            lookup, Duration.ofSeconds(5), Duration.ofSeconds(1), /* maximumSize= */ 2, ticker);
+
+    for (int i = 0; i < 10; i++) {
+      lookup.answerNext(FIRST, 30);
+      resolver.resolve("host" + i + ".example.com", 443);
+    }
+
+    assertThat(resolver.cachedHosts()).isLessThanOrEqualTo(2);
+  }
+
+  @Test
+  public void testTtlRecorder_keepsTtlsPerQuery() {
+    CachingDnsResolver.TtlRecorder ttls =
+        new CachingDnsResolver.TtlRecorder(1000, Duration.ofMinutes(1));
+    ttls.cache("short.example.com", null, FIRST, 30, null);
+    ttls.cache("long.example.com.", null, FIRST, 300, null);
+
+    assertThat(ttls.remove("long.example.com", List.of(FIRST))).isEqualTo(300);
+    assertThat(ttls.remove("short.example.com", List.of(FIRST))).isEqualTo(30);
+    // Forgotten once handed out, so a later answer falls back to the default.
+    assertThat(ttls.remove("short.example.com", List.of(FIRST))).isEqualTo(60);
+  }
+
+  @Test
+  public void testTtlRecorder_forgetsFailedQuery() {
+    CachingDnsResolver.TtlRecorder ttls =
+        new CachingDnsResolver.TtlRecorder(1000, Duration.ofMinutes(1));
+    ttls.cache("example.com", null, FIRST, 30, null);
+
+    ttls.forget("example.com");
+
+    assertThat(ttls.remove("example.com", List.of(FIRST))).isEqualTo(60);
+  }
+
+  private static InetAddress address(int a, int b, int c, int d) {
+    try {
+      return InetAddress.getByAddress(new byte[] {(byte) a, (byte) b, (byte) c, (byte) d});
+    } catch (UnknownHostException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static class FakeLookup implements CachingDnsResolver.Lookup {
+    final List<CompletableFuture<CachingDnsResolver.Answer>> queries = new ArrayList<>();
+    private CachingDnsResolver.Answer nextAnswer;
+    private Throwable nextFailure;
+
+    void answerNext(InetAddress address, long ttlSeconds) {
+      nextAnswer = new CachingDnsResolver.Answer(address, ttlSeconds);
+      nextFailure = null;
+    }
+
+    void failNext(Throwable failure) {
+      nextAnswer = null;
+      nextFailure = failure;
+    }
+
+    @Override
+    public CompletableFuture<CachingDnsResolver.Answer> lookup(String host) {
+      CompletableFuture<CachingDnsResolver.Answer> query = new CompletableFuture<>();
+      queries.add(query);
+      if (nextAnswer != null) {
+        query.complete(nextAnswer);
+      } else if (nextFailure != null) {
+        query.completeExceptionally(nextFailure);
+      }
+      nextAnswer = null;
+      nextFailure = null;
+      return query;
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import org.junit.Test;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+import org.littleshoot.proxy.ChainedProxyManager;
+
+public class ChainedProxyConfigurationTest {
+  private final ChainedProxyManager manager =
+      ChainedProxyConfiguration.create(
+          new ForwardProxyPool(
+              List.of(new InetSocketAddress("127.0.0.1", 3128)),
+              "user",
+              "secret",
+              new ForwardProxyPool.LeastOutstanding()),
+          "data.example.com, ::1");
+
+  @Test
+  public void testLookup_routesDataSourceHostsThroughSharedForwardProxy() {
+    ChainedProxy first = lookup("data.example.com:443");
+    ChainedProxy second = lookup("data.example.com");
+
+    assertThat(first).isSameAs(second);
+    assertThat(first.getChainedProxyAddress()).isEqualTo(new InetSocketAddress("127.0.0.1", 3128));
+    assertThat(first.getUsername()).isEqualTo("user");
+    assertThat(first.getPassword()).isEqualTo("secret");
+    assertThat(lookup("[::1]:8443")).isSameAs(first);
+  }
+
+  @Test
+  public void testLookup_connectsDirectlyToOtherHosts() {
+    assertThat(lookup("other.example.com:443"))
+        .isSameAs(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+    assertThat(lookup("data.example.co"))
+        .isSameAs(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+    assertThat(lookup(null)).isSameAs(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+  }
+
+  @Test
+  public void testForwardProxyAddresses_prefersListAndDefaultsPort() {
+    assertThat(
+            ChainedProxyConfiguration.forwardProxyAddresses(
+                "10.0.0.1:8080, 10.0.0.2,[::1]:3129", "10.0.0.9", "3128"))
+        .containsExactly(
+            new InetSocketAddress("10.0.0.1", 8080),
+            new InetSocketAddress("10.0.0.2", 3128),
+            new InetSocketAddress("::1", 3129));
+    assertThat(ChainedProxyConfiguration.forwardProxyAddresses(null, "10.0.0.9", "3128"))
+        .containsExactly(new InetSocketAddress("10.0.0.9", 3128));
+    assertThat(ChainedProxyConfiguration.forwardProxyAddresses(null, "10.0.0.9", null)).isEmpty();
+  }
+
+  @Test
+  public void testCreate_connectsDirectlyWhenForwardProxyIsNotConfigured() {
+    ChainedProxyManager direct = ChainedProxyConfiguration.create(null, "data.example.com");
+    Queue<ChainedProxy> chainedProxies = new ArrayDeque<>();
+
+    direct.lookupChainedProxies(request("data.example.com"), chainedProxies, null);
+
+    assertThat(chainedProxies).containsExactly(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+  }
+
+  private ChainedProxy lookup(String host) {
+    Queue<ChainedProxy> chainedProxies = new ArrayDeque<>();
+    manager.lookupChainedProxies(request(host), chainedProxies, null);
+    assertThat(chainedProxies).hasSize(1);
+    return chainedProxies.poll();
+  }
+
+  private static HttpRequest request(String host) {
+    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+    if (host != null) {
+      request.headers().set(HttpHeaderNames.HOST, host);
+    }
+    return request;
+  }
+}
@@ -1,15 +1,33 @@
 package com.glean.proxy;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import com.glean.proxy.filters.AwsDisallowInternalAddressForTransitVpc;
+import com.glean.proxy.filters.InvalidCloudPlatformFilter;
 import com.glean.proxy.filters.ProxyDebugFilter;
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import com.glean.proxy.filters.helpers.EventLoopLagMonitor;
+import com.glean.proxy.filters.helpers.TrafficShaper;
+import com.glean.proxy.filters.helpers.TunnelRelay;
+import com.glean.proxy.metrics.ProxyMetrics;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
 import org.junit.Before;
@@ -102,4 +120,183 @@ public class FilterConfigurationTest {
 
     assertThat(config.awsFilters()).hasSize(2);
   }
+
+  @Test
+  public void testCompile_resolvesPlatformFiltersAfterCrossPlatformFilters() {
+    FilterConfiguration config =
+        FilterConfiguration.fromFilterNames(
+            Collections.singletonList(
+                AwsDisallowInternalAddressForTransitVpc.class.getSimpleName()),
+            Collections.emptyList(),
+            Collections.singletonList(ProxyDebugFilter.class.getSimpleName()),
+            Collections.singletonList(ProxyDebugFilter.class.getSimpleName()));
+
+    assertThat(config.compile("AWS").platformFilterCount()).isEqualTo(2);
+    assertThat(config.compile("GOOGLE").platformFilterCount()).isEqualTo(1);
+    assertThat(config.compile("GOOGLE").debugFilterCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testCompile_invalidPlatformRejectsRequests() {
+    FilterConfiguration config =
+        FilterConfiguration.fromFilterNames(
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.emptyList());
+
+    assertThat(config.compile("AZURE").isPlatformValid()).isFalse();
+    assertThat(config.compile(null).isPlatformValid()).isFalse();
+    assertThat(config.compile(null).platformFilters(mockRequest, mockContext))
+        .isInstanceOf(InvalidCloudPlatformFilter.class);
+  }
+
+  @Test
+  public void testPlatformFilters_connectRequestsAreSwitchedToTunnelRelay() {
+    FilterPlan plan =
+        new FilterConfiguration(
+                List.of(testFilterSupplier.get()), List.of(), List.of(), List.of())
+            .compile("AWS")
+            .withTunnelRelay(new TunnelRelay(128 * 1024));
+    EmbeddedChannel client = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    EmbeddedChannel server = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+    plan.platformFilters(
+            new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://a.com/"),
+            client.pipeline().firstContext())
+        .proxyToServerConnectionSucceeded(server.pipeline().firstContext());
+    assertThat(server.config().getWriteBufferHighWaterMark()).isEqualTo(64 * 1024);
+
+    plan.platformFilters(
+            new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, "a.com:443"),
+            client.pipeline().firstContext())
+        .proxyToServerConnectionSucceeded(server.pipeline().firstContext());
+    assertThat(client.config().getWriteBufferHighWaterMark()).isEqualTo(256 * 1024);
+    assertThat(server.config().getWriteBufferHighWaterMark()).isEqualTo(256 * 1024);
+  }
+
+  @Test
+  public void testDebugFilters_endpointsFollowAccessFiltersAndPrecedeProxyDebugFilter() {
+    HttpResponse denied = mock(HttpResponse.class);
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> accessFilter =
+        (request, ctx) -> {
+          HttpFilters filter = mock(HttpFilters.class);
+          when(filter.clientToProxyRequest(any()))
+              .thenReturn(request.headers().contains("denied") ? denied : null);
+          return filter;
+        };
+    FilterPlan plan =
+        new FilterConfiguration(
+                List.of(),
+                List.of(),
+                List.of(),
+                List.of(accessFilter, (request, ctx) -> new ProxyDebugFilter(request)))
+            .compile("AWS")
+            .withEventLoopLagMonitor(
+                new EventLoopLagMonitor(Map.of(), Duration.ofSeconds(1), Duration.ofSeconds(1)));
+    HttpRequest allowed =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_debug/event_loops");
+    HttpRequest rejected =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_debug/event_loops");
+    rejected.headers().set("denied", "true");
+
+    assertThat(plan.debugFilters(allowed, mockContext).clientToProxyRequest(allowed).status())
+        .isEqualTo(HttpResponseStatus.OK);
+    assertThat(plan.debugFilters(rejected, mockContext).clientToProxyRequest(rejected))
+        .isSameAs(denied);
+  }
+
+  @Test
+  public void testDebugFilters_circuitBreakerEndpointFollowsAccessFilters() {
+    HttpResponse denied = mock(HttpResponse.class);
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> accessFilter =
+        (request, ctx) -> {
+          HttpFilters filter = mock(HttpFilters.class);
+          when(filter.clientToProxyRequest(any()))
+              .thenReturn(request.headers().contains("denied") ? denied : null);
+          return filter;
+        };
+    FilterPlan plan =
+        new FilterConfiguration(
+                List.of(),
+                List.of(),
+                List.of(),
+                List.of(accessFilter, (request, ctx) -> new ProxyDebugFilter(request)))
+            .compile("AWS")
+            .withCircuitBreakers(new CircuitBreakerRegistry(3, Duration.ofSeconds(30)));
+    HttpRequest allowed =
+        new DefaultHttpRequest(
+            HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_debug/circuit_breakers");
+    HttpRequest rejected =
+        new DefaultHttpRequest(
+            HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_debug/circuit_breakers");
+    rejected.headers().set("denied", "true");
+
+    assertThat(plan.debugFilters(allowed, mockContext).clientToProxyRequest(allowed).status())
+        .isEqualTo(HttpResponseStatus.OK);
+    assertThat(plan.debugFilters(rejected, mockContext).clientToProxyRequest(rejected))
+        .isSameAs(denied);
+  }
+
+  @Test
+  public void testDebugFilters_trafficEndpointFollowsAccessFilters() {
+    HttpResponse denied = mock(HttpResponse.class);
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> accessFilter =
+        (request, ctx) -> {
+          HttpFilters filter = mock(HttpFilters.class);
+          when(filter.clientToProxyRequest(any()))
+              .thenReturn(request.headers().contains("denied") ? denied : null);
+          return filter;
+        };
+    FilterPlan plan =
+        new FilterConfiguration(
+                List.of(),
+                List.of(),
+                List.of(),
+                List.of(accessFilter, (request, ctx) -> new ProxyDebugFilter(request)))
+            .compile("AWS")
+            .withTrafficShaping(TrafficShaper.parse("EGRESS_CONNECT,0,0", null));
+    HttpRequest allowed =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_debug/traffic");
+    HttpRequest rejected =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_debug/traffic");
+    rejected.headers().set("denied", "true");
+
+    assertThat(plan.debugFilters(allowed, mockContext).clientToProxyRequest(allowed).status())
+        .isEqualTo(HttpResponseStatus.OK);
+    assertThat(plan.debugFilters(rejected, mockContext).clientToProxyRequest(rejected))
+        .isSameAs(denied);
+  }
+
+  @Test
+  public void testDebugFilters_metricsEndpointFollowsAccessFilters() {
+    // A real response, since the verdicts of every filter are recorded by status.
+    HttpResponse denied =
+        new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.FORBIDDEN);
+    BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> accessFilter =
+        (request, ctx) -> {
+          HttpFilters filter = mock(HttpFilters.class);
+          when(filter.clientToProxyRequest(any()))
+              .thenReturn(request.headers().contains("denied") ? denied : null);
+          return filter;
+        };
+    FilterPlan plan =
+        new FilterConfiguration(
+                List.of(),
+                List.of(),
+                List.of(),
+                List.of(accessFilter, (request, ctx) -> new ProxyDebugFilter(request)))
+            .compile("AWS")
+            .withMetrics(new ProxyMetrics());
+    HttpRequest allowed =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_metrics");
+    HttpRequest rejected =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/proxy_metrics");
+    rejected.headers().set("denied", "true");
+
+    assertThat(plan.debugFilters(allowed, mockContext).clientToProxyRequest(allowed).status())
+        .isEqualTo(HttpResponseStatus.OK);
+    assertThat(plan.debugFilters(rejected, mockContext).clientToProxyRequest(rejected))
+        .isSameAs(denied);
+  }
 }
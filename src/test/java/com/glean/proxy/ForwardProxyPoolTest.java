@@ -0,0 +1,94 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import org.junit.Test;
+import org.littleshoot.proxy.ChainedProxy;
+
+public class ForwardProxyPoolTest {
+  private static final List<InetSocketAddress> ADDRESSES =
+      List.of(
+          InetSocketAddress.createUnresolved("proxy-a", 3128),
+          InetSocketAddress.createUnresolved("proxy-b", 3128),
+          InetSocketAddress.createUnresolved("proxy-c", 3128));
+
+  @Test
+  public void testLeastOutstanding_prefersLeastLoadedAndQueuesOthersAsFallbacks() {
+    ForwardProxyPool pool =
+        new ForwardProxyPool(ADDRESSES, null, null, new ForwardProxyPool.LeastOutstanding());
+    ForwardProxyPool.Member[] members = pool.members();
+    members[0].connectionSucceeded();
+    members[0].connectionSucceeded();
+    members[2].connectionSucceeded();
+
+    Queue<ChainedProxy> chainedProxies = lookup(pool, 0);
+
+    assertThat(chainedProxies.poll()).isSameAs(members[1]);
+    assertThat(chainedProxies).containsExactly(members[0], members[2]);
+  }
+
+  @Test
+  public void testConsistentHash_movesOnlyHostsOfEjectedMember() {
+    ForwardProxyPool pool =
+        new ForwardProxyPool(
+            ADDRESSES, null, null, new ForwardProxyPool.ConsistentHash(ADDRESSES));
+    ForwardProxyPool.Member[] members = pool.members();
+    ChainedProxy[] before = new ChainedProxy[1000];
+    for (int host = 0; host < before.length; host++) {
+      before[host] = lookup(pool, ("host-" + host).hashCode()).peek();
+      assertThat(lookup(pool, ("host-" + host).hashCode())).hasSize(3);
+    }
+
+    pool.recordHealthCheck(members[1], false);
+    pool.recordHealthCheck(members[1], false);
+
+    for (int host = 0; host < before.length; host++) {
+      Queue<ChainedProxy> chainedProxies = lookup(pool, ("host-" + host).hashCode());
+      assertThat(chainedProxies).hasSize(2).doesNotContain(members[1]);
+      if (before[host] != members[1]) {
+        assertThat(chainedProxies.peek()).isSameAs(before[host]);
+      }
+    }
+  }
+
+  @Test
+  public void testHealthChecks_ejectAndReadmitAfterConsecutiveResults() {
+    ForwardProxyPool pool =
+        new ForwardProxyPool(ADDRESSES, null, null, new ForwardProxyPool.LeastOutstanding());
+    ForwardProxyPool.Member member = pool.members()[0];
+
+    pool.recordHealthCheck(member, false);
+    assertThat(member.isHealthy()).isTrue();
+    pool.recordHealthCheck(member, false);
+    assertThat(member.isHealthy()).isFalse();
+    assertThat(lookup(pool, 0)).hasSize(2).doesNotContain(member);
+
+    pool.recordHealthCheck(member, true);
+    assertThat(member.isHealthy()).isFalse();
+    pool.recordHealthCheck(member, true);
+    assertThat(member.isHealthy()).isTrue();
+    assertThat(lookup(pool, 0)).hasSize(3);
+  }
+
+  @Test
+  public void testHealthChecks_offerAllMembersWhenAllAreEjected() {
+    ForwardProxyPool pool =
+        new ForwardProxyPool(ADDRESSES, null, null, new ForwardProxyPool.LeastOutstanding());
+    for (ForwardProxyPool.Member member : pool.members()) {
+      pool.recordHealthCheck(member, false);
+      pool.recordHealthCheck(member, false);
+    }
+
+    assertThat(lookup(pool, 0)).containsExactlyInAnyOrder(pool.members());
+  }
+
+  private static Queue<ChainedProxy> lookup(ForwardProxyPool pool, int hostHash) {
+    Queue<ChainedProxy> chainedProxies = new ArrayDeque<>();
+    pool.addChainedProxies(hostHash, chainedProxies);
+    return chainedProxies;
+  }
+}
@@ -1,9 +1,12 @@
 package com.glean.proxy;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 
+import java.time.Duration;
+import java.util.List;
 import org.junit.Test;
 import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
 import org.mockito.MockedStatic;
@@ -33,6 +36,24 @@ public class ProxyNetworkingTest {
       assertNotNull(result);
       assertNotNull(result.threadPoolConfiguration);
       assertNotNull(result.filterConfiguration);
+      assertNotNull(result.hostResolver);
+      assertNotNull(result.transportConfiguration);
+      assertNotNull(result.timeoutPolicies);
+      assertNotNull(result.trafficShaper);
     }
   }
+
+  @Test
+  public void testBuilder_usesGivenWarmUp() {
+    ProxyWarmUp warmUp = new ProxyWarmUp(List.of(), null, 0, Duration.ZERO);
+
+    ProxyNetworking result =
+        ProxyNetworking.builder()
+            .withThreadPoolConfiguration(new ThreadPoolConfiguration())
+            .withFilterConfiguration(mock(FilterConfiguration.class))
+            .withWarmUp(warmUp)
+            .build();
+
+    assertSame(warmUp, result.warmUp);
+  }
 }
@@ -0,0 +1,91 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.littleshoot.proxy.TransportProtocol;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+
+public class ProxyServerGroupTest {
+  ProxyServerGroup serverGroup;
+
+  @After
+  public void tearDown() {
+    if (serverGroup != null) {
+      TransportProtocol tcp = TransportProtocol.TCP;
+      serverGroup.getClientToProxyAcceptorPoolForTransport(tcp).shutdownGracefully();
+      serverGroup.getClientToProxyWorkerPoolForTransport(tcp).shutdownGracefully();
+      serverGroup.getProxyToServerWorkerPoolForTransport(tcp).shutdownGracefully();
+    }
+  }
+
+  @Test
+  public void testReusePortListeners_bindTheSamePort() throws Exception {
+    serverGroup = newServerGroup(new TransportConfiguration().withReusePortListeners(2));
+
+    Channel first = bind(new CompletableFuture<>(), 0);
+    int port = ((InetSocketAddress) first.localAddress()).getPort();
+    Channel second = bind(new CompletableFuture<>(), port);
+
+    assertThat(((InetSocketAddress) second.localAddress()).getPort()).isEqualTo(port);
+  }
+
+  @Test
+  public void testAcceptedConnections_areConfigured() throws Exception {
+    serverGroup =
+        newServerGroup(
+            new TransportConfiguration().withTcpNoDelay(false).withSendBufferSize(64 * 1024));
+    CompletableFuture<Channel> accepted = new CompletableFuture<>();
+    Channel listener = bind(accepted, 0);
+
+    try (Socket client = new Socket()) {
+      client.connect(listener.localAddress());
+      Channel child = accepted.get(5, TimeUnit.SECONDS);
+
+      assertThat(child.config().getOption(ChannelOption.TCP_NODELAY)).isFalse();
+      // Linux doubles the requested size to leave room for bookkeeping.
+      assertThat(child.config().getOption(ChannelOption.SO_SNDBUF))
+          .isGreaterThanOrEqualTo(64 * 1024);
+    }
+  }
+
+  private static ProxyServerGroup newServerGroup(TransportConfiguration transport) {
+    return new ProxyServerGroup(
+        "test",
+        new ThreadPoolConfiguration()
+            .withAcceptorThreads(1)
+            .withClientToProxyWorkerThreads(1)
+            .withProxyToServerWorkerThreads(1),
+        transport);
+  }
+
+  private Channel bind(CompletableFuture<Channel> accepted, int port) throws Exception {
+    return new ServerBootstrap()
+        .group(
+            serverGroup.getClientToProxyAcceptorPoolForTransport(TransportProtocol.TCP),
+            serverGroup.getClientToProxyWorkerPoolForTransport(TransportProtocol.TCP))
+        .channel(NioServerSocketChannel.class)
+        .childHandler(
+            new ChannelInitializer<>() {
+              @Override
+              protected void initChannel(Channel channel) {
+                channel.pipeline().addLast(new ChannelInboundHandlerAdapter());
+                accepted.complete(channel);
+              }
+            })
+        .bind(new InetSocketAddress("127.0.0.1", port))
+        .sync()
+        .channel();
+  }
+}
@@ -0,0 +1,177 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.filters.AwsFilterEgressTrafficByDomain;
+import com.glean.proxy.filters.RateLimitFilter;
+import com.glean.proxy.filters.helpers.AllowedEgressDomains;
+import com.glean.proxy.filters.helpers.DenyEventAggregator;
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import com.glean.proxy.filters.helpers.RateLimiter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HostResolver;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+public class ProxyWarmUpTest {
+  EventLoopGroup workers;
+  Queue<String> resolvedHosts;
+  Queue<String> routedClients;
+  Queue<String> admittedRequests;
+
+  @Before
+  public void setUp() {
+    workers = new DefaultEventLoopGroup(1);
+    resolvedHosts = new ConcurrentLinkedQueue<>();
+    routedClients = new ConcurrentLinkedQueue<>();
+    admittedRequests = new ConcurrentLinkedQueue<>();
+  }
+
+  @After
+  public void tearDown() {
+    workers.shutdownGracefully();
+  }
+
+  @Test
+  public void testWarmUpHosts_skipsWildcardsAndDuplicates() {
+    assertThat(ProxyWarmUp.warmUpHosts("a.com, *.b.com,C.com", null, "a.com,d.*.com,e.com"))
+        .containsExactly("a.com", "c.com", "e.com");
+  }
+
+  @Test
+  public void testRun_drivesSyntheticRequestsForResolvedHosts() {
+    HostResolver resolver =
+        (host, port) -> {
+          if (host.equals("missing.com")) {
+            throw new UnknownHostException(host);
+          }
+          return new InetSocketAddress("10.0.0.1", port);
+        };
+    ProxyWarmUp warmUp =
+        new ProxyWarmUp(
+            List.of("a.com", "missing.com", "b.com"), null, 10, Duration.ofSeconds(5));
+
+    warmUp.run(resolver, planWith(RecordingFilter::new), workers);
+
+    assertThat(resolvedHosts).hasSize(10);
+    assertThat(resolvedHosts).containsOnly("a.com:443", "b.com:443");
+    assertThat(routedClients).hasSize(10).containsOnly("/127.0.0.1:0");
+  }
+
+  @Test
+  public void testRun_doesNotAdmitSyntheticRequests() {
+    ProxyWarmUp warmUp = new ProxyWarmUp(List.of("a.com"), null, 10, Duration.ofSeconds(5));
+
+    warmUp.run(
+        (host, port) -> new InetSocketAddress("10.0.0.1", port),
+        planWith(RecordingFilter::new),
+        workers);
+
+    assertThat(resolvedHosts).hasSize(10);
+    assertThat(admittedRequests).isEmpty();
+  }
+
+  @Test
+  public void testRun_withoutResolvedHostsSendsNothing() {
+    ProxyWarmUp warmUp =
+        new ProxyWarmUp(List.of("missing.com"), null, 10, Duration.ofSeconds(5));
+
+    warmUp.run(
+        (host, port) -> {
+          throw new UnknownHostException(host);
+        },
+        planWith(RecordingFilter::new),
+        workers);
+
+    assertThat(resolvedHosts).isEmpty();
+  }
+
+  @Test
+  public void testRun_leavesRateLimitsUntouched() {
+    RateLimiter rateLimiter = RateLimiter.parse("a.com,1,1");
+    ProxyWarmUp warmUp = new ProxyWarmUp(List.of("a.com"), null, 10, Duration.ofSeconds(5));
+
+    warmUp.run(
+        (host, port) -> new InetSocketAddress("10.0.0.1", port),
+        planWith((request, ctx) -> new RateLimitFilter(request, ctx, rateLimiter)),
+        workers);
+
+    assertThat(rateLimiter.tryAcquire("a.com", "127.0.0.1")).isZero();
+  }
+
+  @Test
+  public void testRun_recordsNoDenyEvents() {
+    AllowedEgressDomains allowedEgressDomains = new AllowedEgressDomains("b.com");
+    DenyEventAggregator denyEvents = new DenyEventAggregator(Duration.ofSeconds(60));
+    ProxyWarmUp warmUp = new ProxyWarmUp(List.of("a.com"), null, 10, Duration.ofSeconds(5));
+
+    warmUp.run(
+        (host, port) -> new InetSocketAddress("10.0.0.1", port),
+        planWith(
+            (request, ctx) ->
+                new AwsFilterEgressTrafficByDomain(
+                    request, true, allowedEgressDomains, denyEvents)),
+        workers);
+
+    assertThat(denyEvents.snapshot().trackedKeys).isZero();
+  }
+
+  @Test
+  public void testRun_leavesTopHostsUntouched() {
+    HostHeavyHitters heavyHitters = new HostHeavyHitters(20);
+    ProxyWarmUp warmUp = new ProxyWarmUp(List.of("a.com"), null, 10, Duration.ofSeconds(5));
+
+    warmUp.run(
+        (host, port) -> new InetSocketAddress("10.0.0.1", port),
+        planWith(RecordingFilter::new).withTopHosts(heavyHitters),
+        workers);
+
+    assertThat(resolvedHosts).hasSize(10);
+    assertThat(heavyHitters.snapshot().totalRequests).isZero();
+  }
+
+  private FilterPlan planWith(
+      BiFunction<HttpRequest, ChannelHandlerContext, HttpFilters> filterConstructor) {
+    return new FilterConfiguration(List.of(filterConstructor), List.of(), List.of(), List.of())
+        .compile("AWS");
+  }
+
+  private class RecordingFilter extends HttpFiltersAdapter {
+    RecordingFilter(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+      super(originalRequest, ctx);
+    }
+
+    @Override
+    public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+      admittedRequests.add(originalRequest.uri());
+      return null;
+    }
+
+    @Override
+    public void proxyToServerResolutionSucceeded(
+        String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
+      resolvedHosts.add(serverHostAndPort);
+    }
+
+    @Override
+    public HttpResponse proxyToServerRequest(HttpObject httpObject) {
+      routedClients.add(ctx.channel().remoteAddress().toString());
+      return null;
+    }
+  }
+}
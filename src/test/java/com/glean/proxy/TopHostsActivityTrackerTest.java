@@ -0,0 +1,30 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.glean.proxy.filters.helpers.HostHeavyHitters;
+import com.glean.proxy.schemas.TopHostsResponse;
+import org.junit.Test;
+import org.littleshoot.proxy.FullFlowContext;
+
+public class TopHostsActivityTrackerTest {
+
+  @Test
+  public void testBytesReceivedFromServer_countsForHostWithoutPort() {
+    HostHeavyHitters heavyHitters = new HostHeavyHitters(2);
+    TopHostsActivityTracker tracker = new TopHostsActivityTracker(heavyHitters);
+    FullFlowContext flowContext = mock(FullFlowContext.class);
+    when(flowContext.getServerHostAndPort()).thenReturn("Example.com:443");
+
+    tracker.bytesReceivedFromServer(flowContext, 1000);
+    tracker.bytesReceivedFromServer(flowContext, 500);
+
+    TopHostsResponse snapshot = heavyHitters.snapshot();
+    assertThat(snapshot.totalResponseBytes).isEqualTo(1500);
+    assertThat(snapshot.byResponseBytes).hasSize(1);
+    assertThat(snapshot.byResponseBytes.get(0).host).isEqualTo("example.com");
+    assertThat(snapshot.byResponseBytes.get(0).estimate).isEqualTo(1500);
+  }
+}
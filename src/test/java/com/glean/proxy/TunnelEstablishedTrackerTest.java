@@ -0,0 +1,232 @@
+package com.glean.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable;
+import com.glean.proxy.filters.helpers.TrafficShaper;
+import com.glean.proxy.filters.helpers.TunnelRelay;
+import com.glean.proxy.metrics.ProxyMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.handler.traffic.ChannelTrafficShapingHandler;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.littleshoot.proxy.FullFlowContext;
+import org.littleshoot.proxy.HttpFilters;
+
+public class TunnelEstablishedTrackerTest {
+  private final TunnelEstablishedTracker tracker = new TunnelEstablishedTracker();
+  private final InetSocketAddress clientAddress = new InetSocketAddress("10.0.0.1", 40000);
+  private final Channel clientChannel = mock(Channel.class);
+  private final ChannelPromise clientCloseFuture =
+      new DefaultChannelPromise(clientChannel, ImmediateEventExecutor.INSTANCE);
+  private final ChannelHandlerContext clientCtx = mock(ChannelHandlerContext.class);
+  private final ChannelHandlerContext serverCtx = mock(ChannelHandlerContext.class);
+  private final FullFlowContext flowContext = mock(FullFlowContext.class);
+  private final HttpFilters filters = mock(HttpFilters.class);
+
+  public TunnelEstablishedTrackerTest() {
+    when(clientChannel.remoteAddress()).thenReturn(clientAddress);
+    when(clientChannel.closeFuture()).thenReturn(clientCloseFuture);
+    when(clientCtx.channel()).thenReturn(clientChannel);
+    when(flowContext.getClientAddress()).thenReturn(clientAddress);
+    when(flowContext.getProxyToServerContext()).thenReturn(serverCtx);
+  }
+
+  @Test
+  public void testResponseSentToClient_reportsEstablishedTunnelOnce() {
+    tracker.watch(request(HttpMethod.CONNECT, "example.com:443"), clientCtx, filters);
+
+    sendResponse(HttpResponseStatus.OK);
+    sendResponse(HttpResponseStatus.OK);
+
+    verify(filters).proxyToServerConnectionSucceeded(serverCtx);
+  }
+
+  @Test
+  public void testResponseSentToClient_deniedTunnelIsNotReported() {
+    tracker.watch(request(HttpMethod.CONNECT, "example.com:443"), clientCtx, filters);
+
+    sendResponse(HttpResponseStatus.FORBIDDEN);
+    sendResponse(HttpResponseStatus.OK);
+
+    verify(filters, never()).proxyToServerConnectionSucceeded(any());
+  }
+
+  @Test
+  public void testResponseSentToClient_ignoresPlainRequests() {
+    tracker.watch(request(HttpMethod.GET, "http://example.com/"), clientCtx, filters);
+
+    sendResponse(HttpResponseStatus.OK);
+
+    verify(filters, never()).proxyToServerConnectionSucceeded(any());
+  }
+
+  @Test
+  public void testWatch_forgetsTunnelWhenClientDisconnects() {
+    tracker.watch(request(HttpMethod.CONNECT, "example.com:443"), clientCtx, filters);
+
+    clientCloseFuture.setSuccess();
+    sendResponse(HttpResponseStatus.OK);
+
+    verify(filters, never()).proxyToServerConnectionSucceeded(any());
+  }
+
+  @Test
+  public void testResponseSentToClient_switchesTunnelToBulkRelay() {
+    FilterPlan plan =
+        new FilterConfiguration(List.of(), List.of(), List.of(), List.of())
+            .compile("AWS")
+            .withTunnelRelay(new TunnelRelay(128 * 1024));
+    EmbeddedChannel client = clientChannel();
+    EmbeddedChannel server = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext tunnelClientCtx = client.pipeline().firstContext();
+    HttpRequest connect = request(HttpMethod.CONNECT, "example.com:443");
+    tracker.watch(connect, tunnelClientCtx, plan.platformFilters(connect, tunnelClientCtx));
+    when(flowContext.getProxyToServerContext()).thenReturn(server.pipeline().firstContext());
+
+    sendResponse(HttpResponseStatus.OK);
+
+    assertThat(client.config().getWriteBufferHighWaterMark()).isEqualTo(256 * 1024);
+    assertThat(server.config().getWriteBufferHighWaterMark()).isEqualTo(256 * 1024);
+  }
+
+  @Test
+  public void testResponseSentToClient_settlesShortTunnelConnectTimeout() {
+    FilterPlan plan =
+        new FilterConfiguration(List.of(), List.of(), List.of(), List.of())
+            .compile("AWS")
+            .withTimeoutPolicies(
+                TimeoutPolicyTable.parse(
+                    "example.com,EGRESS_CONNECT,3000,60",
+                    Duration.ofMinutes(20),
+                    Duration.ofMinutes(20)));
+    EmbeddedChannel client = clientChannel();
+    EmbeddedChannel server = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    server.pipeline().addFirst("idle", new IdleStateHandler(0, 0, 1200));
+    ChannelHandlerContext tunnelClientCtx = client.pipeline().lastContext();
+    HttpRequest connect = request(HttpMethod.CONNECT, "example.com:443");
+    HttpFilters tunnelFilters =
+        tracker.watch(connect, tunnelClientCtx, plan.platformFilters(connect, tunnelClientCtx));
+    when(flowContext.getProxyToServerContext()).thenReturn(server.pipeline().lastContext());
+
+    tunnelFilters.clientToProxyRequest(connect);
+    tunnelFilters.proxyToServerConnectionStarted();
+    client.advanceTimeBy(2, TimeUnit.SECONDS);
+    sendResponse(HttpResponseStatus.OK);
+    server.runPendingTasks();
+    client.advanceTimeBy(10, TimeUnit.SECONDS);
+    client.runScheduledPendingTasks();
+
+    assertThat(client.isOpen()).isTrue();
+    assertThat(client.<Object>readOutbound()).isNull();
+    assertThat(((IdleStateHandler) server.pipeline().get("idle")).getAllIdleTimeInMillis())
+        .isEqualTo(60_000);
+  }
+
+  @Test
+  public void testResponseSentToClient_resetsCircuitBreakerFailures() {
+    CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(2, Duration.ofMinutes(1));
+    FilterPlan plan =
+        new FilterConfiguration(List.of(), List.of(), List.of(), List.of())
+            .compile("AWS")
+            .withCircuitBreakers(circuitBreakers);
+    ChannelHandlerContext tunnelClientCtx = clientChannel().pipeline().firstContext();
+    HttpRequest connect = request(HttpMethod.CONNECT, "example.com:443");
+    HttpFilters tunnelFilters =
+        tracker.watch(connect, tunnelClientCtx, plan.platformFilters(connect, tunnelClientCtx));
+    circuitBreakers.onFailure("example.com:443");
+
+    tunnelFilters.clientToProxyRequest(connect);
+    sendResponse(HttpResponseStatus.OK);
+    circuitBreakers.onFailure("example.com:443");
+
+    assertThat(circuitBreakers.tryAcquire("example.com:443")).isZero();
+  }
+
+  @Test
+  public void testResponseSentToClient_shapesTunnel() {
+    FilterPlan plan =
+        new FilterConfiguration(List.of(), List.of(), List.of(), List.of())
+            .compile("AWS")
+            .withTrafficShaping(TrafficShaper.parse(null, "example.com,1000,2000"));
+    EmbeddedChannel server = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext tunnelClientCtx = clientChannel().pipeline().firstContext();
+    HttpRequest connect = request(HttpMethod.CONNECT, "example.com:443");
+    HttpFilters tunnelFilters =
+        tracker.watch(connect, tunnelClientCtx, plan.platformFilters(connect, tunnelClientCtx));
+    when(flowContext.getProxyToServerContext()).thenReturn(server.pipeline().firstContext());
+
+    tunnelFilters.clientToProxyRequest(connect);
+    sendResponse(HttpResponseStatus.OK);
+    server.runPendingTasks();
+
+    ChannelTrafficShapingHandler shaping =
+        server.pipeline().get(ChannelTrafficShapingHandler.class);
+    assertThat(shaping).isNotNull();
+    assertThat(shaping.getReadLimit()).isEqualTo(1000);
+    assertThat(shaping.getWriteLimit()).isEqualTo(2000);
+  }
+
+  @Test
+  public void testResponseSentToClient_timesTunnelConnect() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    FilterPlan plan =
+        new FilterConfiguration(List.of(), List.of(), List.of(), List.of())
+            .compile("AWS")
+            .withMetrics(metrics);
+    ChannelHandlerContext tunnelClientCtx = clientChannel().pipeline().firstContext();
+    HttpRequest connect = request(HttpMethod.CONNECT, "example.com:443");
+    HttpFilters tunnelFilters =
+        tracker.watch(connect, tunnelClientCtx, plan.platformFilters(connect, tunnelClientCtx));
+
+    tunnelFilters.clientToProxyRequest(connect);
+    tunnelFilters.proxyToServerConnectionStarted();
+    sendResponse(HttpResponseStatus.OK);
+
+    assertThat(metrics.scrape())
+        .contains(
+            "proxy_upstream_phase_duration_seconds_count"
+                + "{host=\"example.com\",phase=\"connect\"} 1\n");
+  }
+
+  private EmbeddedChannel clientChannel() {
+    return new EmbeddedChannel(new ChannelInboundHandlerAdapter()) {
+      @Override
+      public SocketAddress remoteAddress() {
+        return clientAddress;
+      }
+    };
+  }
+
+  private void sendResponse(HttpResponseStatus status) {
+    tracker.responseSentToClient(
+        flowContext, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status));
+  }
+
+  private static HttpRequest request(HttpMethod method, String uri) {
+    return new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+  }
+}
@@ -0,0 +1,63 @@
+package com.glean.proxy.filters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerFilterTest {
+  CircuitBreakerRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new CircuitBreakerRegistry(2, Duration.ofSeconds(30));
+  }
+
+  @Test
+  public void testOpenBreaker_answersServiceUnavailable() {
+    HttpRequest request = connect("down.example.com:443");
+    for (int i = 0; i < 2; i++) {
+      CircuitBreakerFilter filter = new CircuitBreakerFilter(request, null, registry);
+      assertThat(filter.clientToProxyRequest(request)).isNull();
+      filter.proxyToServerConnectionFailed();
+    }
+
+    HttpResponse response =
+        new CircuitBreakerFilter(request, null, registry).clientToProxyRequest(request);
+
+    assertThat(response.status()).isEqualTo(HttpResponseStatus.SERVICE_UNAVAILABLE);
+    assertThat(response.headers().get(HttpHeaderNames.RETRY_AFTER)).isEqualTo("30");
+    HttpRequest other = connect("up.example.com:443");
+    assertThat(new CircuitBreakerFilter(other, null, registry).clientToProxyRequest(other))
+        .isNull();
+  }
+
+  @Test
+  public void testHostAndPortOf_defaultsToPortEighty() {
+    HttpRequest absolute =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://Example.com/a");
+    HttpRequest withPort =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://example.com:8080/");
+    HttpRequest relative = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a");
+    relative.headers().set(HttpHeaderNames.HOST, "example.com");
+
+    assertThat(CircuitBreakerFilter.hostAndPortOf(absolute)).isEqualTo("example.com:80");
+    assertThat(CircuitBreakerFilter.hostAndPortOf(withPort)).isEqualTo("example.com:8080");
+    assertThat(CircuitBreakerFilter.hostAndPortOf(relative)).isEqualTo("example.com:80");
+    assertThat(CircuitBreakerFilter.hostAndPortOf(connect("Example.com:443")))
+        .isEqualTo("example.com:443");
+  }
+
+  private static HttpRequest connect(String hostAndPort) {
+    return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, hostAndPort);
+  }
+}
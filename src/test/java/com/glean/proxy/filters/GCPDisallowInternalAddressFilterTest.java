@@ -5,11 +5,31 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.glean.proxy.filters.helpers.AsyncNicResolver;
+import com.glean.proxy.filters.helpers.CidrSet;
 import com.glean.proxy.filters.helpers.NicResolver;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -107,4 +127,227 @@ public class GCPDisallowInternalAddressFilterTest {
     HttpResponse response = filter.proxyToServerRequest(mock(HttpObject.class));
     verifyHttpResponse(response, "Unknown proxy type: TGW", 500);
   }
+
+  @Test
+  public void test_Transit_async_verdictReadyBeforeRequest() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("10.64.32.2", 8080);
+    AsyncNicResolver asyncNicResolver = hostIp -> CompletableFuture.completedFuture("eth1");
+    GCPDisallowInternalAddressFilter filter =
+        new GCPDisallowInternalAddressFilter(
+            request,
+            null,
+            "TRANSIT",
+            asyncNicResolver,
+            Duration.ofSeconds(5),
+            CidrSet.parse(testGkeServiceIpRange));
+    filter.proxyToServerResolutionSucceeded("10.64.32.2:8080", address);
+
+    HttpResponse response = filter.proxyToServerRequest(mock(HttpObject.class));
+    verifyHttpResponse(response, "Ingress Route not allowed For Private IPs: 10.64.32.2", 403);
+  }
+
+  @Test
+  public void test_Transit_async_holdsWritesUntilAllowed() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("10.64.32.2", 8080);
+    CompletableFuture<String> nic = new CompletableFuture<>();
+    when(request.method()).thenReturn(HttpMethod.GET);
+    EmbeddedChannel clientChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    EmbeddedChannel serverChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    GCPDisallowInternalAddressFilter filter =
+        new GCPDisallowInternalAddressFilter(
+            request,
+            clientChannel.pipeline().firstContext(),
+            "TRANSIT",
+            hostIp -> nic,
+            Duration.ofSeconds(5),
+            CidrSet.parse(testGkeServiceIpRange));
+    filter.proxyToServerResolutionSucceeded("10.64.32.2:8080", address);
+    assertThat(filter.proxyToServerRequest(mock(HttpObject.class))).isNull();
+    filter.proxyToServerConnectionSucceeded(serverChannel.pipeline().lastContext());
+
+    serverChannel.writeOutbound("GET / HTTP/1.1");
+    assertThat(serverChannel.<Object>readOutbound()).isNull();
+
+    nic.complete("eth0");
+    serverChannel.runPendingTasks();
+    assertThat((String) serverChannel.readOutbound()).isEqualTo("GET / HTTP/1.1");
+    assertThat(serverChannel.isOpen()).isTrue();
+  }
+
+  @Test
+  public void test_Transit_async_deniedAfterConnect() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("10.64.32.2", 8080);
+    CompletableFuture<String> nic = new CompletableFuture<>();
+    when(request.method()).thenReturn(HttpMethod.GET);
+    EmbeddedChannel clientChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    EmbeddedChannel serverChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    GCPDisallowInternalAddressFilter filter =
+        new GCPDisallowInternalAddressFilter(
+            request,
+            clientChannel.pipeline().firstContext(),
+            "TRANSIT",
+            hostIp -> nic,
+            Duration.ofSeconds(5),
+            CidrSet.parse(testGkeServiceIpRange));
+    filter.proxyToServerResolutionSucceeded("10.64.32.2:8080", address);
+    filter.proxyToServerConnectionSucceeded(serverChannel.pipeline().lastContext());
+    serverChannel.writeOutbound("GET / HTTP/1.1");
+
+    nic.complete("eth1");
+    serverChannel.runPendingTasks();
+    clientChannel.runPendingTasks();
+
+    assertThat(serverChannel.<Object>readOutbound()).isNull();
+    assertThat(serverChannel.isOpen()).isFalse();
+    HttpResponse response = clientChannel.readOutbound();
+    verifyHttpResponse(response, "Ingress Route not allowed For Private IPs: 10.64.32.2", 403);
+    assertThat(clientChannel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void test_Transit_async_deniedBetweenRequestAndConnect() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("10.64.32.2", 8080);
+    CompletableFuture<String> nic = new CompletableFuture<>();
+    when(request.method()).thenReturn(HttpMethod.CONNECT);
+    EmbeddedChannel clientChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    EmbeddedChannel serverChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    GCPDisallowInternalAddressFilter filter =
+        new GCPDisallowInternalAddressFilter(
+            request,
+            clientChannel.pipeline().firstContext(),
+            "TRANSIT",
+            hostIp -> nic,
+            Duration.ofSeconds(5),
+            CidrSet.parse(testGkeServiceIpRange));
+    filter.proxyToServerResolutionSucceeded("10.64.32.2:8080", address);
+    assertThat(filter.proxyToServerRequest(mock(HttpObject.class))).isNull();
+
+    nic.complete("eth1");
+    filter.proxyToServerConnectionSucceeded(serverChannel.pipeline().lastContext());
+    serverChannel.runPendingTasks();
+    clientChannel.runPendingTasks();
+
+    assertThat(serverChannel.<Object>readOutbound()).isNull();
+    assertThat(serverChannel.isOpen()).isFalse();
+    assertThat(clientChannel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void test_Transit_async_tunnelHeldUntilHoldAddedOnServerLoop() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("10.64.32.2", 8080);
+    CompletableFuture<String> nic = new CompletableFuture<>();
+    when(request.method()).thenReturn(HttpMethod.CONNECT);
+    EventLoopGroup clientLoop = new DefaultEventLoopGroup(1);
+    EventLoopGroup serverLoop = new DefaultEventLoopGroup(1);
+    BlockingQueue<Object> relayed = new LinkedBlockingQueue<>();
+    BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    try {
+      LocalAddress upstreamAddress = new LocalAddress("upstream");
+      new ServerBootstrap()
+          .group(serverLoop)
+          .channel(LocalServerChannel.class)
+          .childHandler(
+              new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                  received.add((String) msg);
+                }
+              })
+          .bind(upstreamAddress)
+          .sync();
+      Channel serverChannel =
+          new Bootstrap()
+              .group(serverLoop)
+              .channel(LocalChannel.class)
+              .handler(new ChannelInboundHandlerAdapter())
+              .connect(upstreamAddress)
+              .sync()
+              .channel();
+
+      // Stands in for the proxy's client connection, relaying tunnel reads to the server.
+      LocalAddress proxyAddress = new LocalAddress("proxy");
+      CompletableFuture<Channel> proxyClientChannel = new CompletableFuture<>();
+      new ServerBootstrap()
+          .group(clientLoop)
+          .channel(LocalServerChannel.class)
+          .childHandler(
+              new ChannelInboundHandlerAdapter() {
+                @Override
+                public void handlerAdded(ChannelHandlerContext ctx) {
+                  proxyClientChannel.complete(ctx.channel());
+                }
+
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                  relayed.add(msg);
+                  serverChannel.writeAndFlush(msg);
+                }
+              })
+          .bind(proxyAddress)
+          .sync();
+      Channel client =
+          new Bootstrap()
+              .group(clientLoop)
+              .channel(LocalChannel.class)
+              .handler(new ChannelInboundHandlerAdapter())
+              .connect(proxyAddress)
+              .sync()
+              .channel();
+      ChannelHandlerContext clientCtx =
+          proxyClientChannel.get(5, TimeUnit.SECONDS).pipeline().lastContext();
+
+      GCPDisallowInternalAddressFilter filter =
+          new GCPDisallowInternalAddressFilter(
+              request,
+              clientCtx,
+              "TRANSIT",
+              hostIp -> nic,
+              Duration.ofSeconds(5),
+              CidrSet.parse(testGkeServiceIpRange));
+      filter.proxyToServerResolutionSucceeded("10.64.32.2:8080", address);
+      assertThat(filter.proxyToServerRequest(mock(HttpObject.class))).isNull();
+
+      CountDownLatch serverLoopBusy = new CountDownLatch(1);
+      serverLoop.execute(
+          () -> {
+            try {
+              serverLoopBusy.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+      clientLoop
+          .submit(
+              () ->
+                  filter.proxyToServerConnectionSucceeded(
+                      serverChannel.pipeline().firstContext()))
+          .sync();
+      client.writeAndFlush("tunnel bytes").sync();
+      clientLoop.submit(() -> {}).sync();
+      assertThat(relayed).isEmpty();
+
+      serverLoopBusy.countDown();
+      assertThat(relayed.poll(5, TimeUnit.SECONDS)).isEqualTo("tunnel bytes");
+      serverLoop.submit(() -> {}).sync();
+      assertThat(received).isEmpty();
+
+      nic.complete("eth0");
+      assertThat(received.poll(5, TimeUnit.SECONDS)).isEqualTo("tunnel bytes");
+    } finally {
+      clientLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+      serverLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void test_StandAlone_anyOfSeveralServiceRanges() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("34.118.250.1", 443);
+    GCPDisallowInternalAddressFilter filter =
+        new GCPDisallowInternalAddressFilter(
+            request, "STANDALONE", nicResolver, "34.118.224.0/20,34.118.248.0/21");
+    filter.proxyToServerResolutionSucceeded("34.118.250.1:443", address);
+
+    HttpResponse response = filter.proxyToServerRequest(mock(HttpObject.class));
+    verifyHttpResponse(response, "Ingress Route not allowed For Private IPs: 34.118.250.1", 403);
+  }
 }
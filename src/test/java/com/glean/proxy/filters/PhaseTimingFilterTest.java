@@ -0,0 +1,62 @@
+package com.glean.proxy.filters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.glean.proxy.metrics.ProxyMetrics;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class PhaseTimingFilterTest {
+  private static final String COUNT = "proxy_upstream_phase_duration_seconds_count";
+
+  @Test
+  public void testNewConnection_timesEveryPhase() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    HttpRequest request =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://example.com/a");
+    PhaseTimingFilter filter =
+        new PhaseTimingFilter(request, mock(ChannelHandlerContext.class), metrics.upstreamPhases());
+
+    filter.clientToProxyRequest(request);
+    filter.proxyToServerResolutionStarted("example.com:80");
+    filter.proxyToServerResolutionSucceeded(
+        "example.com:80", InetSocketAddress.createUnresolved("example.com", 80));
+    filter.proxyToServerConnectionStarted();
+    filter.proxyToServerConnectionSSLHandshakeStarted();
+    filter.proxyToServerConnectionSucceeded(mock(ChannelHandlerContext.class));
+    filter.proxyToServerRequestSent();
+    filter.serverToProxyResponseReceiving();
+    filter.serverToProxyResponseReceived();
+
+    String scrape = metrics.scrape();
+    for (String phase : new String[] {"dns", "connect", "tls", "first_byte", "transfer"}) {
+      assertThat(scrape).contains(COUNT + "{host=\"example.com\",phase=\"" + phase + "\"} 1\n");
+    }
+  }
+
+  @Test
+  public void testReusedConnection_skipsConnectPhases() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    HttpRequest request =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://example.com/a");
+    PhaseTimingFilter filter =
+        new PhaseTimingFilter(request, mock(ChannelHandlerContext.class), metrics.upstreamPhases());
+
+    filter.clientToProxyRequest(request);
+    filter.proxyToServerRequestSent();
+    filter.serverToProxyResponseReceiving();
+    filter.serverToProxyResponseReceived();
+
+    assertThat(metrics.scrape())
+        .contains(COUNT + "{host=\"example.com\",phase=\"first_byte\"} 1\n")
+        .doesNotContain("phase=\"dns\"")
+        .doesNotContain("phase=\"connect\"")
+        .doesNotContain("phase=\"tls\"");
+  }
+}
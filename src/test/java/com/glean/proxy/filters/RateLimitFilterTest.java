@@ -0,0 +1,38 @@
+package com.glean.proxy.filters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.filters.helpers.RateLimiter;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+public class RateLimitFilterTest {
+
+  @Test
+  public void testOverLimit_answersTooManyRequestsWithRetryAfter() {
+    RateLimiter rateLimiter = RateLimiter.parse("api.example.com,0.1,1");
+    EmbeddedChannel client = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    HttpRequest request =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, "api.example.com:443");
+
+    HttpResponse first =
+        new RateLimitFilter(request, client.pipeline().lastContext(), rateLimiter)
+            .clientToProxyRequest(request);
+    HttpResponse second =
+        new RateLimitFilter(request, client.pipeline().lastContext(), rateLimiter)
+            .clientToProxyRequest(request);
+
+    assertThat(first).isNull();
+    assertThat(second.status()).isEqualTo(HttpResponseStatus.TOO_MANY_REQUESTS);
+    assertThat(Long.parseLong(second.headers().get(HttpHeaderNames.RETRY_AFTER)))
+        .isBetween(9L, 10L);
+  }
+}
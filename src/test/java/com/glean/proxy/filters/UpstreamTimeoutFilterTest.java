@@ -0,0 +1,93 @@
+package com.glean.proxy.filters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.timeout.IdleStateHandler;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpstreamTimeoutFilterTest {
+  TimeoutPolicyTable table;
+  EmbeddedChannel client;
+
+  @Before
+  public void setUp() {
+    table =
+        TimeoutPolicyTable.parse(
+            "slow.com,EGRESS_CONNECT,3000,60", Duration.ofMinutes(20), Duration.ofMinutes(20));
+    client = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+  }
+
+  @Test
+  public void testConnectTimeout_answersGatewayTimeoutAndCloses() {
+    UpstreamTimeoutFilter filter = start(connect("slow.com:443"));
+
+    client.advanceTimeBy(2999, TimeUnit.MILLISECONDS);
+    client.runScheduledPendingTasks();
+    assertThat(client.isOpen()).isTrue();
+    client.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    client.runScheduledPendingTasks();
+
+    HttpResponse response = client.readOutbound();
+    assertThat(response.status()).isEqualTo(HttpResponseStatus.GATEWAY_TIMEOUT);
+    assertThat(client.isOpen()).isFalse();
+    filter.proxyToServerConnectionFailed();
+  }
+
+  @Test
+  public void testConnectSucceeded_cancelsTimeoutAndReplacesIdleHandlers() {
+    UpstreamTimeoutFilter filter = start(connect("slow.com:443"));
+    EmbeddedChannel server = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    server.pipeline().addFirst("idle", new IdleStateHandler(0, 0, 1200));
+    client.pipeline().addFirst("idle", new IdleStateHandler(0, 0, 1200));
+
+    filter.proxyToServerConnectionSucceeded(server.pipeline().lastContext());
+    server.runPendingTasks();
+    client.runPendingTasks();
+    client.advanceTimeBy(1, TimeUnit.MINUTES);
+    client.runScheduledPendingTasks();
+
+    assertThat(client.isOpen()).isTrue();
+    assertThat(client.<Object>readOutbound()).isNull();
+    assertThat(idleSeconds(server)).isEqualTo(60);
+    assertThat(idleSeconds(client)).isEqualTo(60);
+  }
+
+  @Test
+  public void testUnmatchedDestination_keepsProxyWideTimeouts() {
+    start(connect("fast.com:443"));
+
+    client.advanceTimeBy(10, TimeUnit.MINUTES);
+    client.runScheduledPendingTasks();
+
+    assertThat(client.isOpen()).isTrue();
+  }
+
+  private UpstreamTimeoutFilter start(HttpRequest request) {
+    ChannelHandlerContext ctx = client.pipeline().lastContext();
+    UpstreamTimeoutFilter filter = new UpstreamTimeoutFilter(request, ctx, table);
+    assertThat(filter.clientToProxyRequest(request)).isNull();
+    filter.proxyToServerConnectionStarted();
+    return filter;
+  }
+
+  private static HttpRequest connect(String hostAndPort) {
+    return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, hostAndPort);
+  }
+
+  private static long idleSeconds(EmbeddedChannel channel) {
+    return ((IdleStateHandler) channel.pipeline().get("idle")).getAllIdleTimeInMillis() / 1000;
+  }
+}
@@ -1,11 +1,20 @@
 package com.glean.proxy.filters.helpers;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -36,4 +45,97 @@ public class CachedNicResolverTest {
     // function should be called once due to caching
     verify(mockedDelegate, times(1)).resolve("10.0.2.3");
   }
+
+  @Test
+  public void testResolve_boundedSize() throws Exception {
+    when(mockedDelegate.resolve("10.0.2.4")).thenReturn("eth0");
+    when(mockedDelegate.resolve("10.0.2.5")).thenReturn("eth1");
+    FakeTicker ticker = new FakeTicker();
+    resolver =
+        new CachedNicResolver(
+            mockedDelegate, 1, Duration.ofMinutes(5), Duration.ofSeconds(5), ticker);
+
+    resolver.resolve("10.0.2.4");
+    resolver.resolve("10.0.2.5");
+    resolver.resolve("10.0.2.4");
+
+    verify(mockedDelegate, times(2)).resolve("10.0.2.4");
+    assertThat(resolver.stats().evictionCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testResolve_expiresAfterTtl() throws Exception {
+    when(mockedDelegate.resolve("10.0.2.6")).thenReturn("eth0", "eth1");
+    FakeTicker ticker = new FakeTicker();
+    resolver =
+        new CachedNicResolver(
+            mockedDelegate, 100, Duration.ofMinutes(5), Duration.ofSeconds(5), ticker);
+
+    assertThat(resolver.resolve("10.0.2.6")).isEqualTo("eth0");
+    ticker.advance(Duration.ofMinutes(4));
+    assertThat(resolver.resolve("10.0.2.6")).isEqualTo("eth0");
+    ticker.advance(Duration.ofMinutes(1));
+    assertThat(resolver.resolve("10.0.2.6")).isEqualTo("eth1");
+    assertThat(resolver.stats().hitCount()).isEqualTo(1);
+    assertThat(resolver.stats().missCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testResolve_cachesFailuresForNegativeTtl() throws Exception {
+    when(mockedDelegate.resolve("10.0.2.7"))
+        .thenThrow(new RuntimeException("NIC not found in route output"))
+        .thenReturn("eth1");
+    FakeTicker ticker = new FakeTicker();
+    resolver =
+        new CachedNicResolver(
+            mockedDelegate, 100, Duration.ofMinutes(5), Duration.ofSeconds(5), ticker);
+
+    assertThrows(RuntimeException.class, () -> resolver.resolve("10.0.2.7"));
+    assertThrows(RuntimeException.class, () -> resolver.resolve("10.0.2.7"));
+    verify(mockedDelegate, times(1)).resolve("10.0.2.7");
+
+    ticker.advance(Duration.ofSeconds(5));
+    assertThat(resolver.resolve("10.0.2.7")).isEqualTo("eth1");
+    verify(mockedDelegate, times(2)).resolve("10.0.2.7");
+  }
+
+  @Test
+  public void testResolve_concurrentMissesShareOneLoad() throws Exception {
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch releaseLoad = new CountDownLatch(1);
+    when(mockedDelegate.resolve("10.0.2.8"))
+        .thenAnswer(
+            invocation -> {
+              loadStarted.countDown();
+              releaseLoad.await();
+              return "eth1";
+            });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = executor.submit(() -> resolver.resolve("10.0.2.8"));
+      loadStarted.await();
+      Future<String> second = executor.submit(() -> resolver.resolve("10.0.2.8"));
+      Thread.sleep(50);
+      releaseLoad.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("eth1");
+      assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("eth1");
+      verify(mockedDelegate, times(1)).resolve("10.0.2.8");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
 }
@@ -0,0 +1,38 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.net.InetAddress;
+import org.junit.Test;
+
+public class CidrSetTest {
+  @Test
+  public void testContains_multipleRanges() throws Exception {
+    CidrSet cidrSet = CidrSet.parse("34.118.224.0/20, 10.96.0.0/12,fd00::/8");
+
+    assertThat(cidrSet.contains(InetAddress.getByName("34.118.224.1"))).isTrue();
+    assertThat(cidrSet.contains(InetAddress.getByName("34.118.239.255"))).isTrue();
+    assertThat(cidrSet.contains(InetAddress.getByName("34.118.240.0"))).isFalse();
+    assertThat(cidrSet.contains(InetAddress.getByName("10.100.1.2"))).isTrue();
+    assertThat(cidrSet.contains(InetAddress.getByName("10.112.0.0"))).isFalse();
+    assertThat(cidrSet.contains(InetAddress.getByName("fd12::1"))).isTrue();
+    assertThat(cidrSet.contains(InetAddress.getByName("fe80::1"))).isFalse();
+  }
+
+  @Test
+  public void testContains_bareAddressAndEmptySet() throws Exception {
+    assertThat(CidrSet.parse("10.128.0.3").contains(InetAddress.getByName("10.128.0.3"))).isTrue();
+    assertThat(CidrSet.parse("10.128.0.3").contains(InetAddress.getByName("10.128.0.4")))
+        .isFalse();
+    assertThat(CidrSet.parse(null).contains(InetAddress.getByName("10.128.0.3"))).isFalse();
+    assertThat(CidrSet.parse("0.0.0.0/0").contains(InetAddress.getByName("8.8.8.8"))).isTrue();
+  }
+
+  @Test
+  public void testParse_invalidRange() {
+    assertThrows(IllegalArgumentException.class, () -> CidrSet.parse("10.0.0.0/33"));
+    assertThrows(IllegalArgumentException.class, () -> CidrSet.parse("not-an-ip/8"));
+    assertThrows(IllegalArgumentException.class, () -> CidrSet.parse("10.0.0.0/x"));
+  }
+}
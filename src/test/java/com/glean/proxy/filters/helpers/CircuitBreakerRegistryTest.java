@@ -0,0 +1,110 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.filters.helpers.CircuitBreakerRegistry.State;
+import com.glean.proxy.schemas.CircuitBreakerResponse;
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerRegistryTest {
+  private static final String DESTINATION = "down.example.com:443";
+
+  FakeTicker ticker;
+  CircuitBreakerRegistry registry;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    registry = new CircuitBreakerRegistry(3, Duration.ofSeconds(30), ticker);
+  }
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    registry.onFailure(DESTINATION);
+    registry.onFailure(DESTINATION);
+    assertThat(registry.tryAcquire(DESTINATION)).isZero();
+
+    registry.onFailure(DESTINATION);
+
+    assertThat(registry.state(DESTINATION)).isEqualTo(State.OPEN);
+    assertThat(registry.tryAcquire(DESTINATION)).isEqualTo(Duration.ofSeconds(30));
+    assertThat(registry.tryAcquire("up.example.com:443")).isZero();
+  }
+
+  @Test
+  public void testSuccessResetsFailureCount() {
+    registry.onFailure(DESTINATION);
+    registry.onFailure(DESTINATION);
+    registry.onSuccess(DESTINATION);
+    registry.onFailure(DESTINATION);
+    registry.onFailure(DESTINATION);
+
+    assertThat(registry.state(DESTINATION)).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void testHalfOpen_letsOneProbeThroughAndClosesOnSuccess() {
+    open();
+    ticker.advance(Duration.ofSeconds(30));
+
+    assertThat(registry.tryAcquire(DESTINATION)).isZero();
+    assertThat(registry.state(DESTINATION)).isEqualTo(State.HALF_OPEN);
+    assertThat(registry.tryAcquire(DESTINATION)).isEqualTo(Duration.ofSeconds(30));
+
+    registry.onSuccess(DESTINATION);
+
+    assertThat(registry.state(DESTINATION)).isEqualTo(State.CLOSED);
+    assertThat(registry.tryAcquire(DESTINATION)).isZero();
+    assertThat(registry.snapshot().destinations).isEmpty();
+  }
+
+  @Test
+  public void testHalfOpen_reopensWhenProbeFails() {
+    open();
+    ticker.advance(Duration.ofSeconds(30));
+    registry.tryAcquire(DESTINATION);
+    ticker.advance(Duration.ofSeconds(1));
+
+    registry.onFailure(DESTINATION);
+
+    CircuitBreakerResponse response = registry.snapshot();
+    assertThat(response.destinations).hasSize(1);
+    assertThat(response.destinations.get(0).state).isEqualTo("OPEN");
+    assertThat(response.destinations.get(0).consecutiveFailures).isEqualTo(4);
+    assertThat(response.destinations.get(0).retryAfterMillis).isEqualTo(30_000);
+  }
+
+  @Test
+  public void testHalfOpen_grantsAnotherProbeWhenOneNeverReports() {
+    open();
+    ticker.advance(Duration.ofSeconds(30));
+    registry.tryAcquire(DESTINATION);
+
+    ticker.advance(Duration.ofSeconds(30));
+
+    assertThat(registry.tryAcquire(DESTINATION)).isZero();
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      registry.onFailure(DESTINATION);
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
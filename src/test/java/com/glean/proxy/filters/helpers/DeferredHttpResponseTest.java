@@ -0,0 +1,163 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+public class DeferredHttpResponseTest {
+  @Test
+  public void testDefer_writesResponseInPlaceOfPlaceholder() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+
+    HttpResponse placeholder = DeferredHttpResponse.defer(ctx, response);
+    channel.writeAndFlush(placeholder);
+    channel.writeAndFlush(Unpooled.EMPTY_BUFFER);
+    assertThat(channel.<Object>readOutbound()).isNull();
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    response.complete(
+        new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.ACCEPTED));
+    channel.runPendingTasks();
+
+    FullHttpResponse written = channel.readOutbound();
+    assertThat(written.status()).isEqualTo(HttpResponseStatus.ACCEPTED);
+    assertThat(channel.<Object>readOutbound()).isEqualTo(Unpooled.EMPTY_BUFFER);
+    assertThat(channel.config().isAutoRead()).isTrue();
+  }
+
+  @Test
+  public void testDefer_holdsCloseUntilResponseIsWritten() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+
+    HttpResponse placeholder = DeferredHttpResponse.defer(ctx, response);
+    HttpUtil.setKeepAlive(placeholder, false);
+    channel.writeAndFlush(placeholder);
+    channel.close();
+    assertThat(channel.isOpen()).isTrue();
+
+    response.complete(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    channel.runPendingTasks();
+
+    FullHttpResponse written = channel.readOutbound();
+    assertThat(written.status()).isEqualTo(HttpResponseStatus.OK);
+    assertThat(channel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void testDefer_closesAfterResponseThatIsNotKeepAlive() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    HttpResponse response =
+        new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    HttpUtil.setKeepAlive(response, false);
+
+    channel.writeAndFlush(
+        DeferredHttpResponse.defer(ctx, CompletableFuture.completedFuture(response)));
+    channel.runPendingTasks();
+
+    assertThat(channel.<Object>readOutbound()).isSameAs(response);
+    assertThat(channel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void testDefer_writesResponseInPlaceOfReplacedPlaceholder() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+
+    DeferredHttpResponse.defer(ctx, response);
+    // A response filter returned its own object in place of the placeholder.
+    channel.writeAndFlush(
+        new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    channel.writeAndFlush(Unpooled.EMPTY_BUFFER);
+    assertThat(channel.<Object>readOutbound()).isNull();
+
+    response.complete(
+        new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.ACCEPTED));
+    channel.runPendingTasks();
+
+    FullHttpResponse written = channel.readOutbound();
+    assertThat(written.status()).isEqualTo(HttpResponseStatus.ACCEPTED);
+    assertThat(channel.<Object>readOutbound()).isEqualTo(Unpooled.EMPTY_BUFFER);
+  }
+
+  @Test
+  public void testDefer_closesWhenPlaceholderIsNeverWritten() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+
+    DeferredHttpResponse.defer(ctx, response);
+    channel.close();
+
+    assertThat(channel.isOpen()).isFalse();
+    assertThat(channel.config().isAutoRead()).isTrue();
+  }
+
+  @Test
+  public void testDefer_holdsLaterWritesUntilStreamedBodyIsRelayed() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    CompletableFuture<Void> relayed = new CompletableFuture<>();
+    List<ChannelHandlerContext> targets = new ArrayList<>();
+    StreamedHttpResponse head =
+        new StreamedHttpResponse(
+            new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK),
+            new StreamedHttpResponse.Body() {
+              @Override
+              public CompletableFuture<Void> relayTo(ChannelHandlerContext target) {
+                targets.add(target);
+                return relayed;
+              }
+
+              @Override
+              public void writabilityChanged() {}
+
+              @Override
+              public void abort() {}
+            });
+
+    channel.writeAndFlush(
+        DeferredHttpResponse.defer(ctx, CompletableFuture.completedFuture(head)));
+    channel.writeAndFlush(Unpooled.EMPTY_BUFFER);
+    channel.runPendingTasks();
+    targets.get(0).writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+
+    assertThat(channel.<Object>readOutbound()).isSameAs(head);
+    assertThat(channel.<Object>readOutbound()).isSameAs(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertThat(channel.<Object>readOutbound()).isNull();
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    relayed.complete(null);
+
+    assertThat(channel.<Object>readOutbound()).isEqualTo(Unpooled.EMPTY_BUFFER);
+    assertThat(channel.config().isAutoRead()).isTrue();
+    // Without a length or chunked encoding, the body ends when the connection closes.
+    assertThat(channel.isOpen()).isFalse();
+  }
+}
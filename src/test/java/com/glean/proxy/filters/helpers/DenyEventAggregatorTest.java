@@ -0,0 +1,114 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.schemas.DenyEventsResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DenyEventAggregatorTest {
+  Logger logger = Logger.getLogger(DenyEventAggregator.class.getName());
+  List<String> messages = new CopyOnWriteArrayList<>();
+  Handler handler =
+      new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+          messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+      };
+
+  @Before
+  public void setUp() {
+    logger.addHandler(handler);
+  }
+
+  @After
+  public void tearDown() {
+    logger.removeHandler(handler);
+  }
+
+  @Test
+  public void testRepeatedDenials_logOnceThenSummarize() {
+    DenyEventAggregator denyEvents = new DenyEventAggregator(Duration.ofSeconds(60));
+
+    for (int i = 0; i < 5; i++) {
+      denyEvents.record(String.class, "forbidden.example.com", "Blocked forbidden.example.com");
+    }
+    assertThat(messages).containsExactly("Blocked forbidden.example.com");
+
+    denyEvents.report();
+    assertThat(messages)
+        .hasSize(2)
+        .last()
+        .isEqualTo(
+            "String denied 4 more requests for forbidden.example.com in the last 60 seconds");
+
+    denyEvents.report();
+    assertThat(messages).hasSize(2);
+  }
+
+  @Test
+  public void testSnapshot_listsMostDeniedFirst() {
+    DenyEventAggregator denyEvents = new DenyEventAggregator(Duration.ofSeconds(60));
+    denyEvents.record(String.class, "a.example.com", "a");
+    for (int i = 0; i < 3; i++) {
+      denyEvents.record(Integer.class, "10.0.0.1", "b");
+    }
+
+    DenyEventsResponse snapshot = denyEvents.snapshot();
+
+    assertThat(snapshot.trackedKeys).isEqualTo(2);
+    assertThat(snapshot.topOffenders).hasSize(2);
+    assertThat(snapshot.topOffenders.get(0).filter).isEqualTo("Integer");
+    assertThat(snapshot.topOffenders.get(0).subject).isEqualTo("10.0.0.1");
+    assertThat(snapshot.topOffenders.get(0).denied).isEqualTo(3);
+    assertThat(snapshot.topOffenders.get(1).subject).isEqualTo("a.example.com");
+  }
+
+  @Test
+  public void testFullMap_countsUntrackedWithoutLogging() {
+    DenyEventAggregator denyEvents = new DenyEventAggregator(Duration.ofSeconds(60));
+    for (int i = 0; i < DenyEventAggregator.MAX_TRACKED_KEYS; i++) {
+      denyEvents.record(String.class, "host-" + i, "first");
+    }
+    messages.clear();
+
+    denyEvents.record(String.class, "one-too-many", "first");
+    denyEvents.record(String.class, "one-too-many", "first");
+
+    assertThat(messages).isEmpty();
+    assertThat(denyEvents.snapshot().untracked).isEqualTo(2);
+    denyEvents.report();
+    assertThat(messages)
+        .containsExactly(
+            "Denied 2 requests for untracked hosts and clients in the last 60 seconds");
+  }
+
+  @Test
+  public void testIdleKeys_areEvicted() {
+    DenyEventAggregator denyEvents = new DenyEventAggregator(Duration.ofSeconds(60));
+    denyEvents.record(String.class, "a.example.com", "a");
+
+    for (int i = 0; i < DenyEventAggregator.IDLE_INTERVALS_BEFORE_EVICTION; i++) {
+      assertThat(denyEvents.snapshot().trackedKeys).isEqualTo(1);
+      denyEvents.report();
+    }
+
+    assertThat(denyEvents.snapshot().trackedKeys).isEqualTo(0);
+    denyEvents.record(String.class, "a.example.com", "a");
+    assertThat(messages).containsExactly("a", "a");
+  }
+}
@@ -0,0 +1,61 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.junit.Test;
+
+public class EgressDomainMatcherTest {
+
+  @Test
+  public void testExactDomains() {
+    EgressDomainMatcher matcher =
+        EgressDomainMatcher.compile(List.of("glean.com", "api.glean.com"), List.of(), List.of());
+
+    assertThat(matcher.matches("glean.com")).isTrue();
+    assertThat(matcher.matches("api.glean.com")).isTrue();
+    assertThat(matcher.matches("app.glean.com")).isFalse();
+    assertThat(matcher.matches("com")).isFalse();
+    assertThat(matcher.matches("")).isFalse();
+  }
+
+  @Test
+  public void testPrefixWildcardMatchesAnyDepthButNotTheSuffixItself() {
+    EgressDomainMatcher matcher =
+        EgressDomainMatcher.compile(List.of(), List.of("temu.com", "com"), List.of());
+
+    assertThat(matcher.matches("a.temu.com")).isTrue();
+    assertThat(matcher.matches("a.b.temu.com")).isTrue();
+    assertThat(matcher.matches("temu.com")).isFalse();
+    assertThat(matcher.matches("xtemu.com")).isFalse();
+    // A wildcarded bare TLD is ignored, as it was before the trie.
+    assertThat(matcher.matches("example.com")).isFalse();
+  }
+
+  @Test
+  public void testWildcardLabels() {
+    EgressDomainMatcher matcher =
+        EgressDomainMatcher.compile(
+            List.of(), List.of(), List.of("api.*.example.com", "*.bruh.*", "app-*-eu.*.io"));
+
+    assertThat(matcher.matches("api.v1.example.com")).isTrue();
+    assertThat(matcher.matches("api.v1.v2.example.com")).isFalse();
+    assertThat(matcher.matches("web.v1.example.com")).isFalse();
+    assertThat(matcher.matches("app.bruh.io")).isTrue();
+    assertThat(matcher.matches("bruh.io")).isFalse();
+    assertThat(matcher.matches("app-west-eu.x.io")).isTrue();
+    assertThat(matcher.matches("app--eu.x.io")).isFalse();
+    assertThat(matcher.matches("app-west-us.x.io")).isFalse();
+  }
+
+  @Test
+  public void testOverlappingEntriesBacktrack() {
+    EgressDomainMatcher matcher =
+        EgressDomainMatcher.compile(
+            List.of("a.b.example.com"), List.of(), List.of("*.c.example.com", "x.*.example.com"));
+
+    assertThat(matcher.matches("x.c.example.com")).isTrue();
+    assertThat(matcher.matches("x.b.example.com")).isTrue();
+    assertThat(matcher.matches("y.b.example.com")).isFalse();
+  }
+}
@@ -0,0 +1,111 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.schemas.EventLoopLagResponse;
+import com.google.common.base.Ticker;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventLoopLagMonitorTest {
+  EventLoopGroup group;
+  FakeTicker ticker;
+  EventLoopLagMonitor monitor;
+
+  @Before
+  public void setUp() {
+    group = new DefaultEventLoopGroup(1);
+    ticker = new FakeTicker();
+    monitor =
+        new EventLoopLagMonitor(
+            Map.of("Worker", group), Duration.ofSeconds(1), Duration.ofMillis(100), ticker);
+  }
+
+  @After
+  public void tearDown() {
+    group.shutdownGracefully();
+  }
+
+  @Test
+  public void testSample_recordsHowLateTheTaskRan() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    group.execute(() -> awaitUninterruptibly(blocked));
+
+    monitor.sample();
+    ticker.advance(Duration.ofMillis(250));
+    assertThat(snapshotOnlyLoop().lagMillis).isEqualTo(250);
+    blocked.countDown();
+    drain();
+
+    EventLoopLagResponse.EventLoop loop = snapshotOnlyLoop();
+    assertThat(loop.name).isEqualTo("Worker-0");
+    assertThat(loop.lagMillis).isEqualTo(250);
+    assertThat(loop.maxLagMillis).isEqualTo(250);
+    assertThat(loop.stalls).isEqualTo(1);
+  }
+
+  @Test
+  public void testSample_promptTaskIsNotAStall() throws Exception {
+    monitor.sample();
+    drain();
+
+    assertThat(snapshotOnlyLoop().lagMillis).isZero();
+    assertThat(snapshotOnlyLoop().stalls).isZero();
+  }
+
+  @Test
+  public void testSample_doesNotQueueAnotherTaskWhileOneIsPending() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    group.execute(() -> awaitUninterruptibly(blocked));
+
+    monitor.sample();
+    ticker.advance(Duration.ofMillis(150));
+    monitor.sample();
+    ticker.advance(Duration.ofMillis(150));
+    blocked.countDown();
+    drain();
+
+    assertThat(snapshotOnlyLoop().lagMillis).isEqualTo(300);
+    assertThat(snapshotOnlyLoop().stalls).isEqualTo(1);
+  }
+
+  private EventLoopLagResponse.EventLoop snapshotOnlyLoop() {
+    EventLoopLagResponse response = monitor.snapshot();
+    assertThat(response.eventLoops).hasSize(1);
+    return response.eventLoops.get(0);
+  }
+
+  // Tasks run in order, so once this one has run every earlier sample has too.
+  private void drain() throws Exception {
+    group.submit(() -> {}).get(5, TimeUnit.SECONDS);
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ExecutorAsyncNicResolverTest {
+  @Test
+  public void testResolveAsync_readyAnswerCompletesImmediately() throws Exception {
+    NicResolver delegate = mock(NicResolver.class);
+    when(delegate.resolveIfReady("10.0.2.2")).thenReturn("eth1");
+    ExecutorAsyncNicResolver resolver = new ExecutorAsyncNicResolver(delegate, 1, 1);
+
+    CompletableFuture<String> nic = resolver.resolveAsync("10.0.2.2");
+
+    assertThat(nic).isCompletedWithValue("eth1");
+    verify(delegate, never()).resolve("10.0.2.2");
+  }
+
+  @Test
+  public void testResolveAsync_resolvesOnPool() throws Exception {
+    NicResolver delegate = mock(NicResolver.class);
+    when(delegate.resolve("10.0.2.3")).thenReturn("eth0");
+    ExecutorAsyncNicResolver resolver = new ExecutorAsyncNicResolver(delegate, 1, 1);
+
+    assertThat(resolver.resolveAsync("10.0.2.3").get(5, TimeUnit.SECONDS)).isEqualTo("eth0");
+  }
+
+  @Test
+  public void testResolveAsync_failsWhenQueueIsFull() throws Exception {
+    CountDownLatch releaseResolver = new CountDownLatch(1);
+    NicResolver delegate =
+        hostIp -> {
+          releaseResolver.await();
+          return "eth0";
+        };
+    ExecutorAsyncNicResolver resolver = new ExecutorAsyncNicResolver(delegate, 1, 1);
+
+    CompletableFuture<String> running = resolver.resolveAsync("10.0.2.4");
+    CompletableFuture<String> queued = resolver.resolveAsync("10.0.2.5");
+    CompletableFuture<String> rejected = resolver.resolveAsync("10.0.2.6");
+    releaseResolver.countDown();
+
+    assertThat(rejected).isCompletedExceptionally();
+    assertThat(rejected.handle((nic, e) -> e))
+        .isCompletedWithValueMatching(e -> e instanceof RejectedExecutionException);
+    assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo("eth0");
+    assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("eth0");
+  }
+}
@@ -0,0 +1,48 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.schemas.TopHostsResponse;
+import java.util.List;
+import org.junit.Test;
+
+public class HostHeavyHittersTest {
+
+  @Test
+  public void testHeavyHosts_riseAboveManyLightOnes() {
+    HostHeavyHitters heavyHitters = new HostHeavyHitters(3);
+    for (int i = 0; i < 20_000; i++) {
+      heavyHitters.recordRequest("light-" + i + ".example.com");
+      if (i % 10 == 0) {
+        heavyHitters.recordRequest("heavy.example.com");
+      }
+      if (i % 20 == 0) {
+        heavyHitters.recordRequest("medium.example.com");
+      }
+    }
+
+    TopHostsResponse snapshot = heavyHitters.snapshot();
+
+    assertThat(snapshot.totalRequests).isEqualTo(23_000);
+    assertThat(snapshot.byRequests).hasSize(3);
+    assertThat(snapshot.byRequests.get(0).host).isEqualTo("heavy.example.com");
+    assertThat(snapshot.byRequests.get(0).estimate)
+        .isBetween(2_000L, 2_000L + snapshot.requestsErrorBound);
+    assertThat(snapshot.byRequests.get(1).host).isEqualTo("medium.example.com");
+    assertThat(snapshot.byResponseBytes).isEmpty();
+  }
+
+  @Test
+  public void testLateHeavyHost_displacesLowestCandidate() {
+    HostHeavyHitters heavyHitters = new HostHeavyHitters(2);
+    heavyHitters.recordResponseBytes("a.example.com", 100);
+    heavyHitters.recordResponseBytes("b.example.com", 200);
+    heavyHitters.recordResponseBytes("c.example.com", 50);
+    heavyHitters.recordResponseBytes("c.example.com", 100);
+
+    List<TopHostsResponse.Host> top = heavyHitters.snapshot().byResponseBytes;
+
+    assertThat(top).extracting(host -> host.host).containsExactly("b.example.com", "c.example.com");
+    assertThat(top).extracting(host -> host.estimate).containsExactly(200L, 150L);
+  }
+}
@@ -0,0 +1,228 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetNameResolver;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NettyHttpsClientTest {
+  EventLoopGroup group;
+  Channel serverChannel;
+  AtomicInteger connections;
+  NettyHttpsClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    group = new NioEventLoopGroup(1);
+    connections = new AtomicInteger();
+    serverChannel =
+        new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(
+                new ChannelInitializer<SocketChannel>() {
+                  @Override
+                  protected void initChannel(SocketChannel channel) {
+                    connections.incrementAndGet();
+                    channel
+                        .pipeline()
+                        .addLast(new HttpServerCodec())
+                        .addLast(new HttpObjectAggregator(1024))
+                        .addLast(new EchoPathHandler());
+                  }
+                })
+            .bind("127.0.0.1", 0)
+            .sync()
+            .channel();
+    client = new NettyHttpsClient(SslContextBuilder.forClient().build());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    serverChannel.close().sync();
+    group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+  }
+
+  @Test
+  public void testSend_reusesPooledConnection() throws Exception {
+    int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    EventLoop eventLoop = group.next();
+
+    FullHttpResponse first =
+        client
+            .send(eventLoop, new URI("http://127.0.0.1:" + port + "/a?b=c"), request("/a?b=c"))
+            .get(5, TimeUnit.SECONDS);
+    FullHttpResponse second =
+        client
+            .send(eventLoop, new URI("http://127.0.0.1:" + port + "/d"), request("/d"))
+            .get(5, TimeUnit.SECONDS);
+
+    assertThat(first.content().toString(CharsetUtil.UTF_8)).isEqualTo("/a?b=c");
+    assertThat(second.content().toString(CharsetUtil.UTF_8)).isEqualTo("/d");
+    assertThat(connections.get()).isEqualTo(1);
+    first.release();
+    second.release();
+  }
+
+  @Test
+  public void testPreconnect_connectionIsReusedBySend() throws Exception {
+    int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    EventLoop eventLoop = group.next();
+    URI uri = new URI("http://127.0.0.1:" + port + "/warm");
+
+    client.preconnect(eventLoop, uri).get(5, TimeUnit.SECONDS);
+    FullHttpResponse response =
+        client.send(eventLoop, uri, request("/warm")).get(5, TimeUnit.SECONDS);
+
+    assertThat(response.content().toString(CharsetUtil.UTF_8)).isEqualTo("/warm");
+    assertThat(connections.get()).isEqualTo(1);
+    response.release();
+  }
+
+  @Test
+  public void testSend_failsWhenConnectionIsRefused() throws Exception {
+    int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    serverChannel.close().sync();
+
+    assertThat(client.send(group.next(), new URI("http://127.0.0.1:" + port + "/"), request("/")))
+        .failsWithin(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testSend_resolvesHostWithGivenResolver() throws Exception {
+    int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    List<String> resolvedHosts = new CopyOnWriteArrayList<>();
+    AddressResolverGroup<InetSocketAddress> resolver =
+        new AddressResolverGroup<>() {
+          @Override
+          protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+            return new InetNameResolver(executor) {
+              @Override
+              protected void doResolve(String host, Promise<InetAddress> promise) {
+                resolvedHosts.add(host);
+                promise.setSuccess(InetAddress.getLoopbackAddress());
+              }
+
+              @Override
+              protected void doResolveAll(String host, Promise<List<InetAddress>> promise) {
+                resolvedHosts.add(host);
+                promise.setSuccess(List.of(InetAddress.getLoopbackAddress()));
+              }
+            }.asAddressResolver();
+          }
+        };
+    client = new NettyHttpsClient(SslContextBuilder.forClient().build(), resolver);
+
+    FullHttpResponse response =
+        client
+            .send(group.next(), new URI("http://upstream.test:" + port + "/a"), request("/a"))
+            .get(5, TimeUnit.SECONDS);
+
+    assertThat(response.content().toString(CharsetUtil.UTF_8)).isEqualTo("/a");
+    assertThat(resolvedHosts).containsExactly("upstream.test");
+    response.release();
+  }
+
+  @Test
+  public void testStream_relaysChunksAndReusesConnection() throws Exception {
+    int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    EventLoop eventLoop = group.next();
+    URI uri = new URI("http://127.0.0.1:" + port + "/chunked");
+
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 2; i++) {
+      StreamedHttpResponse head =
+          (StreamedHttpResponse)
+              client.stream(eventLoop, uri, request("/chunked")).get(5, TimeUnit.SECONDS);
+      EmbeddedChannel target = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+      ChannelHandlerContext targetCtx = target.pipeline().firstContext();
+      eventLoop.submit(() -> head.relayTo(targetCtx)).get().get(5, TimeUnit.SECONDS);
+
+      body.setLength(0);
+      Object written;
+      while ((written = target.readOutbound()) != null) {
+        HttpContent content = (HttpContent) written;
+        body.append(content.content().toString(CharsetUtil.UTF_8));
+        content.release();
+      }
+      assertThat(HttpUtil.isTransferEncodingChunked(head)).isTrue();
+    }
+
+    assertThat(body.toString()).isEqualTo("/chunked/chunked");
+    assertThat(connections.get()).isEqualTo(1);
+  }
+
+  private static FullHttpRequest request(String path) {
+    FullHttpRequest request =
+        new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+    request.headers().set(HttpHeaderNames.HOST, "127.0.0.1");
+    return request;
+  }
+
+  private static class EchoPathHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+      if (request.uri().equals("/chunked")) {
+        HttpResponse response =
+            new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        HttpUtil.setTransferEncodingChunked(response, true);
+        ctx.write(response);
+        ctx.write(new DefaultHttpContent(Unpooled.copiedBuffer(request.uri(), CharsetUtil.UTF_8)));
+        ctx.writeAndFlush(
+            new DefaultLastHttpContent(Unpooled.copiedBuffer(request.uri(), CharsetUtil.UTF_8)));
+        return;
+      }
+      FullHttpResponse response =
+          new DefaultFullHttpResponse(
+              HttpVersion.HTTP_1_1,
+              HttpResponseStatus.OK,
+              Unpooled.copiedBuffer(request.uri(), CharsetUtil.UTF_8));
+      HttpUtil.setContentLength(response, response.content().readableBytes());
+      ctx.writeAndFlush(response);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimiterTest {
+  FakeTicker ticker;
+  RateLimiter limiter;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    limiter = RateLimiter.parse("api.example.com,2,3,client;*.example.com,10,1", ticker);
+  }
+
+  @Test
+  public void testTryAcquire_allowsBurstThenRefillsAtRate() {
+    for (int i = 0; i < 3; i++) {
+      assertThat(limiter.tryAcquire("api.example.com", "10.0.0.1")).isZero();
+    }
+    assertThat(limiter.tryAcquire("api.example.com", "10.0.0.1"))
+        .isEqualTo(Duration.ofMillis(500));
+
+    ticker.advance(Duration.ofMillis(500));
+
+    assertThat(limiter.tryAcquire("api.example.com", "10.0.0.1")).isZero();
+    assertThat(limiter.tryAcquire("api.example.com", "10.0.0.1")).isPositive();
+  }
+
+  @Test
+  public void testTryAcquire_keysBucketsByHostAndOptionallyClient() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("api.example.com", "10.0.0.1");
+    }
+    limiter.tryAcquire("a.example.com", "10.0.0.1");
+
+    assertThat(limiter.tryAcquire("api.example.com", "10.0.0.2")).isZero();
+    assertThat(limiter.tryAcquire("a.example.com", "10.0.0.2")).isPositive();
+    assertThat(limiter.tryAcquire("b.example.com", "10.0.0.1")).isZero();
+    assertThat(limiter.tryAcquire("other.com", "10.0.0.1")).isZero();
+    assertThat(limiter.tryAcquire(null, "10.0.0.1")).isZero();
+  }
+
+  @Test
+  public void testSweep_dropsRefilledBuckets() {
+    limiter.tryAcquire("a.example.com", "10.0.0.1");
+    limiter.tryAcquire("b.example.com", "10.0.0.1");
+    assertThat(limiter.bucketCount()).isEqualTo(2);
+
+    ticker.advance(RateLimiter.SWEEP_INTERVAL);
+    limiter.tryAcquire("c.example.com", "10.0.0.1");
+
+    assertThat(limiter.bucketCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testParse_rejectsMalformedRules() {
+    assertThat(RateLimiter.parse(null).isEmpty()).isTrue();
+    assertThatThrownBy(() -> RateLimiter.parse("example.com,10"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> RateLimiter.parse("example.com,10,5,server"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> RateLimiter.parse("example.com,0,5"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+public class RequestBodyAggregatorTest {
+  @Test
+  public void testAggregate_collectsChunksBeforeTheyReachTheHandler() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    HttpRequest head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/hook");
+    HttpUtil.setTransferEncodingChunked(head, true);
+
+    CompletableFuture<FullHttpRequest> aggregated = RequestBodyAggregator.aggregate(ctx, head, 16);
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("ab", CharsetUtil.UTF_8)));
+    assertThat(aggregated).isNotDone();
+    channel.writeInbound(
+        new DefaultLastHttpContent(Unpooled.copiedBuffer("cd", CharsetUtil.UTF_8)));
+
+    FullHttpRequest request = aggregated.join();
+    assertThat(request.uri()).isEqualTo("/hook");
+    assertThat(request.content().toString(CharsetUtil.UTF_8)).isEqualTo("abcd");
+    assertThat(channel.<Object>readInbound()).isNull();
+    assertThat(channel.pipeline().get(RequestBodyAggregator.class)).isNull();
+    assertThat(channel.pipeline().get(HttpContentDecompressor.class)).isNull();
+    request.release();
+  }
+
+  @Test
+  public void testAggregate_failsWhenBodyIsTooLarge() {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().context("handler");
+    HttpRequest head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/hook");
+    HttpUtil.setContentLength(head, 32);
+
+    CompletableFuture<FullHttpRequest> aggregated = RequestBodyAggregator.aggregate(ctx, head, 16);
+
+    assertThat(aggregated).isCompletedExceptionally();
+    assertThat(aggregated.handle((request, e) -> e).join())
+        .isInstanceOf(TooLongFrameException.class);
+    assertThat(channel.<Object>readOutbound()).isNull();
+  }
+}
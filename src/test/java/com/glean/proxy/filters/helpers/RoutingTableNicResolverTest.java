@@ -0,0 +1,88 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RoutingTableNicResolverTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  Path ipv4Routes;
+  Path ipv6Routes;
+  RoutingTableNicResolver resolver;
+
+  @Before
+  public void setUp() throws Exception {
+    ipv4Routes = temporaryFolder.getRoot().toPath().resolve("route");
+    ipv6Routes = temporaryFolder.getRoot().toPath().resolve("ipv6_route");
+    resolver = new RoutingTableNicResolver(ipv4Routes, ipv6Routes, Duration.ofHours(1));
+  }
+
+  @Test
+  public void testResolve_longestPrefixWins() throws Exception {
+    Files.writeString(
+        ipv4Routes,
+        "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT\n"
+            + "eth0\t00000000\t0100800A\t0003\t0\t0\t0\t00000000\t0\t0\t0\n"
+            + "eth0\t0000800A\t00000000\t0001\t0\t0\t0\t0000FFFF\t0\t0\t0\n"
+            + "eth1\t0000400A\t0100800A\t0003\t0\t0\t0\t0000FFFF\t0\t0\t0\n");
+
+    assertThat(resolver.resolve("10.64.32.2")).isEqualTo("eth1");
+    assertThat(resolver.resolve("10.128.0.3")).isEqualTo("eth0");
+    assertThat(resolver.resolve("8.8.8.8")).isEqualTo("eth0");
+  }
+
+  @Test
+  public void testResolve_lowestMetricWinsAndRejectRoutesAreSkipped() throws Exception {
+    Files.writeString(
+        ipv4Routes,
+        "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT\n"
+            + "eth2\t0000400A\t00000000\t0001\t0\t0\t100\t0000FFFF\t0\t0\t0\n"
+            + "eth1\t0000400A\t00000000\t0001\t0\t0\t0\t0000FFFF\t0\t0\t0\n"
+            + "lo\t0020400A\t00000000\t0201\t0\t0\t0\t00FFFFFF\t0\t0\t0\n");
+
+    assertThat(resolver.resolve("10.64.32.2")).isEqualTo("eth1");
+    assertThrows(RuntimeException.class, () -> resolver.resolve("8.8.8.8"));
+  }
+
+  @Test
+  public void testResolve_ipv6() throws Exception {
+    Files.writeString(
+        ipv4Routes,
+        "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT\n");
+    Files.writeString(
+        ipv6Routes,
+        "20010db8000000000000000000000000 20 00000000000000000000000000000000 00"
+            + " 00000000000000000000000000000000 00000100 00000001 00000000 00000001     eth1\n"
+            + "00000000000000000000000000000000 00 00000000000000000000000000000000 00"
+            + " fe800000000000000000000000000001 00000400 00000001 00000000 00000003     eth0\n");
+
+    assertThat(resolver.resolve("2001:db8::1")).isEqualTo("eth1");
+    assertThat(resolver.resolve("2607:f8b0::1")).isEqualTo("eth0");
+  }
+
+  @Test
+  public void testRefresh_picksUpChangedRoutes() throws Exception {
+    Files.writeString(
+        ipv4Routes,
+        "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT\n"
+            + "eth0\t00000000\t0100800A\t0003\t0\t0\t0\t00000000\t0\t0\t0\n");
+    assertThat(resolver.resolve("10.64.32.2")).isEqualTo("eth0");
+
+    Files.writeString(
+        ipv4Routes,
+        "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT\n"
+            + "eth0\t00000000\t0100800A\t0003\t0\t0\t0\t00000000\t0\t0\t0\n"
+            + "eth1\t0000400A\t0100800A\t0003\t0\t0\t0\t0000FFFF\t0\t0\t0\n");
+    resolver.refresh();
+
+    assertThat(resolver.resolve("10.64.32.2")).isEqualTo("eth1");
+  }
+}
@@ -0,0 +1,76 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.glean.proxy.filters.helpers.TimeoutPolicyTable.Policy;
+import java.time.Duration;
+import org.junit.Test;
+
+public class TimeoutPolicyTableTest {
+  private static final Duration CONNECT = Duration.ofMinutes(20);
+  private static final Duration IDLE = Duration.ofMinutes(20);
+
+  @Test
+  public void testPolicyFor_firstMatchingRuleApplies() {
+    TimeoutPolicyTable table =
+        TimeoutPolicyTable.parse(
+            "api.github.com,EGRESS_CONNECT,3000,;*.corp.example.com,*,5000,60;*,PLAIN_HTTP,,30",
+            CONNECT,
+            IDLE);
+
+    assertThat(table.policyFor("api.github.com", TrafficClass.EGRESS_CONNECT))
+        .isEqualTo(new Policy(Duration.ofSeconds(3), false, IDLE));
+    assertThat(table.policyFor("jira.corp.example.com", TrafficClass.WEBHOOK_INGRESS))
+        .isEqualTo(new Policy(Duration.ofSeconds(5), false, Duration.ofSeconds(60)));
+    assertThat(table.policyFor("api.github.com", TrafficClass.PLAIN_HTTP))
+        .isEqualTo(new Policy(CONNECT, false, Duration.ofSeconds(30)));
+    assertThat(table.policyFor("corp.example.com", TrafficClass.EGRESS_CONNECT))
+        .isEqualTo(table.defaultPolicy());
+    assertThat(table.policyFor(null, TrafficClass.EGRESS_CONNECT)).isEqualTo(table.defaultPolicy());
+  }
+
+  @Test
+  public void testParse_rejectsMalformedRules() {
+    assertThrows(
+        IllegalArgumentException.class, () -> TimeoutPolicyTable.parse("a.com,*,1", CONNECT, IDLE));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> TimeoutPolicyTable.parse("a.com,SMTP,1,1", CONNECT, IDLE));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> TimeoutPolicyTable.parse("a.com,*,adaptive5000,", CONNECT, IDLE));
+    assertThat(TimeoutPolicyTable.parse(null, CONNECT, IDLE).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testConnectTimeout_adaptiveFollowsObservedConnectTimes() {
+    TimeoutPolicyTable table = TimeoutPolicyTable.parse("*,*,adaptive:10000,", CONNECT, IDLE);
+    Policy policy = table.policyFor("a.com", TrafficClass.EGRESS_CONNECT);
+
+    for (int i = 1; i < TimeoutPolicyTable.MIN_SAMPLES; i++) {
+      table.recordConnect("a.com", Duration.ofMillis(1000));
+    }
+    assertThat(table.connectTimeout(policy, "a.com")).isEqualTo(Duration.ofSeconds(10));
+
+    table.recordConnect("a.com", Duration.ofMillis(1000));
+    assertThat(table.connectTimeout(policy, "a.com")).isEqualTo(Duration.ofSeconds(3));
+    assertThat(table.connectTimeout(policy, "b.com")).isEqualTo(Duration.ofSeconds(10));
+
+    table.recordConnect("a.com", Duration.ofMillis(5000));
+    assertThat(table.connectTimeout(policy, "a.com")).isEqualTo(Duration.ofSeconds(10));
+  }
+
+  @Test
+  public void testConnectTimeout_adaptiveIsBoundedBelow() {
+    TimeoutPolicyTable table = TimeoutPolicyTable.parse("*,*,adaptive,", CONNECT, IDLE);
+    Policy policy = table.policyFor("a.com", TrafficClass.EGRESS_CONNECT);
+
+    for (int i = 0; i < TimeoutPolicyTable.MIN_SAMPLES; i++) {
+      table.recordConnect("a.com", Duration.ofMillis(20));
+    }
+
+    assertThat(table.connectTimeout(policy, "a.com"))
+        .isEqualTo(TimeoutPolicyTable.ADAPTIVE_FLOOR);
+  }
+}
@@ -0,0 +1,68 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.glean.proxy.schemas.TrafficShapingResponse;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.traffic.ChannelTrafficShapingHandler;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import org.junit.Test;
+
+public class TrafficShaperTest {
+
+  @Test
+  public void testShape_addsClassAndHostHandlers() {
+    TrafficShaper shaper =
+        TrafficShaper.parse("EGRESS_CONNECT,1000000,0", "*.example.com,50000,20000;*,0,0");
+    EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+    shaper.shape(channel, TrafficClass.EGRESS_CONNECT, "files.example.com");
+    channel.runPendingTasks();
+
+    GlobalTrafficShapingHandler classHandler =
+        channel.pipeline().get(GlobalTrafficShapingHandler.class);
+    ChannelTrafficShapingHandler hostHandler =
+        channel.pipeline().get(ChannelTrafficShapingHandler.class);
+    assertThat(classHandler.getReadLimit()).isEqualTo(1_000_000);
+    assertThat(hostHandler.getReadLimit()).isEqualTo(50_000);
+    assertThat(hostHandler.getWriteLimit()).isEqualTo(20_000);
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testShape_leavesUnlimitedConnectionsAlone() {
+    TrafficShaper shaper = TrafficShaper.parse("EGRESS_CONNECT,1000000,0", "*.example.com,1,1");
+    EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+    shaper.shape(channel, TrafficClass.PLAIN_HTTP, "other.com");
+    channel.runPendingTasks();
+
+    assertThat(channel.pipeline().get(GlobalTrafficShapingHandler.class)).isNull();
+    assertThat(channel.pipeline().get(ChannelTrafficShapingHandler.class)).isNull();
+  }
+
+  @Test
+  public void testSnapshot_listsLimitedClasses() {
+    TrafficShaper shaper = TrafficShaper.parse("PLAIN_HTTP,0,0;WEBHOOK_INGRESS,100,200", null);
+
+    TrafficShapingResponse response = shaper.snapshot();
+
+    assertThat(response.trafficClasses).hasSize(2);
+    assertThat(response.trafficClasses.get(1).trafficClass).isEqualTo("WEBHOOK_INGRESS");
+    assertThat(response.trafficClasses.get(1).readLimitBytesPerSecond).isEqualTo(100);
+    assertThat(response.trafficClasses.get(1).writeLimitBytesPerSecond).isEqualTo(200);
+  }
+
+  @Test
+  public void testParse_rejectsMalformedLimits() {
+    assertThat(TrafficShaper.parse(null, "").isEmpty()).isTrue();
+    assertThatThrownBy(() -> TrafficShaper.parse("EGRESS,1,1", null))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> TrafficShaper.parse(null, "a.com,1"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> TrafficShaper.parse(null, "a.com,-1,0"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,39 @@
+package com.glean.proxy.filters.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.channel.RecvByteBufAllocator.ExtendedHandle;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+public class TunnelRelayTest {
+  private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+  @Test
+  public void testRelay_switchesToBulkReadsOnNextReadLoop() {
+    TunnelRelay relay = new TunnelRelay(READ_BUFFER_SIZE);
+    EmbeddedChannel channel = new EmbeddedChannel();
+    relay.prepare(channel);
+    ExtendedHandle handle = (ExtendedHandle) channel.config().getRecvByteBufAllocator().newHandle();
+
+    handle.reset(channel.config());
+    int defaultGuess = handle.guess();
+    relay.relay(channel);
+
+    assertThat(handle.guess()).isEqualTo(defaultGuess);
+    handle.reset(channel.config());
+    assertThat(handle.guess()).isEqualTo(READ_BUFFER_SIZE);
+    assertThat(defaultGuess).isLessThan(READ_BUFFER_SIZE);
+  }
+
+  @Test
+  public void testRelay_raisesWriteWatermarks() {
+    TunnelRelay relay = new TunnelRelay(READ_BUFFER_SIZE);
+    EmbeddedChannel channel = new EmbeddedChannel();
+
+    relay.relay(channel);
+
+    assertThat(channel.config().getWriteBufferLowWaterMark()).isEqualTo(READ_BUFFER_SIZE);
+    assertThat(channel.config().getWriteBufferHighWaterMark()).isEqualTo(2 * READ_BUFFER_SIZE);
+  }
+}
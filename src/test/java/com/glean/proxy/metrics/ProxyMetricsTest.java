@@ -0,0 +1,140 @@
+package com.glean.proxy.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.glean.proxy.metrics.ProxyMetrics.Route;
+import org.junit.Test;
+
+public class ProxyMetricsTest {
+
+  @Test
+  public void testHistogramBuckets_arePowersOfTwoNanoseconds() {
+    assertThat(Histogram.bucketOf(0)).isEqualTo(0);
+    assertThat(Histogram.bucketOf(1024)).isEqualTo(0);
+    assertThat(Histogram.bucketOf(1025)).isEqualTo(1);
+    assertThat(Histogram.bucketOf(2048)).isEqualTo(1);
+    assertThat(Histogram.bucketOf(2049)).isEqualTo(2);
+    assertThat(Histogram.bucketOf(Long.MAX_VALUE)).isEqualTo(24);
+  }
+
+  @Test
+  public void testScrape_reportsRequestsAndVerdicts() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    metrics.recordRequest(Route.EGRESS);
+    metrics.recordRequest(Route.EGRESS);
+    FilterMetrics filter = metrics.filter(String.class);
+    filter.recordPassed();
+    filter.recordAnswered(403);
+    filter.recordAnswered(403);
+
+    String scrape = metrics.scrape();
+
+    assertThat(scrape)
+        .contains("proxy_requests_total{route=\"egress\"} 2\n")
+        .contains("proxy_requests_total{route=\"ingress\"} 0\n")
+        .contains("proxy_filter_verdicts_total{filter=\"String\",verdict=\"pass\"} 1\n")
+        .contains("proxy_filter_verdicts_total{filter=\"String\",verdict=\"403\"} 2\n")
+        .doesNotContain("verdict=\"200\"");
+  }
+
+  @Test
+  public void testScrape_writesCumulativeHookHistograms() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    FilterMetrics filter = metrics.filter(String.class);
+    filter.recordHook(FilterHook.CLIENT_TO_PROXY_REQUEST, 1_000);
+    filter.recordHook(FilterHook.CLIENT_TO_PROXY_REQUEST, 3_000);
+
+    String scrape = metrics.scrape();
+
+    String labels = "filter=\"String\",hook=\"clientToProxyRequest\"";
+    assertThat(scrape)
+        .contains("proxy_filter_hook_duration_seconds_bucket{" + labels + ",le=\"1.024E-6\"} 1\n")
+        .contains("proxy_filter_hook_duration_seconds_bucket{" + labels + ",le=\"4.096E-6\"} 2\n")
+        .contains("proxy_filter_hook_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 2\n")
+        .contains("proxy_filter_hook_duration_seconds_sum{" + labels + "} 4.0E-6\n")
+        .contains("proxy_filter_hook_duration_seconds_count{" + labels + "} 2\n")
+        .doesNotContain("hook=\"proxyToServerRequest\"");
+  }
+
+  @Test
+  public void testUpstreamPhases_sharesOtherHostBeyondCap() {
+    ProxyMetrics metrics = new ProxyMetrics(1);
+    UpstreamPhaseMetrics phases = metrics.upstreamPhases();
+    phases.recordRequest("a.example.com");
+    phases.recordRequest("b.example.com");
+    phases.record("a.example.com", UpstreamPhase.DNS, 1_000);
+    phases.record("b.example.com", UpstreamPhase.DNS, 1_000);
+    phases.record(null, UpstreamPhase.CONNECT, 1_000);
+
+    String scrape = metrics.scrape();
+
+    String name = "proxy_upstream_phase_duration_seconds_count";
+    assertThat(scrape)
+        .contains(name + "{host=\"a.example.com\",phase=\"dns\"} 1\n")
+        .contains(name + "{host=\"other\",phase=\"dns\"} 1\n")
+        .contains(name + "{host=\"other\",phase=\"connect\"} 1\n")
+        .doesNotContain("b.example.com");
+  }
+
+  @Test
+  public void testUpstreamPhases_tracksHostsWithMostRequests() {
+    ProxyMetrics metrics = new ProxyMetrics(1);
+    UpstreamPhaseMetrics phases = metrics.upstreamPhases();
+    phases.recordRequest("a.example.com");
+    for (int i = 0; i < 3; i++) {
+      phases.recordRequest("b.example.com");
+    }
+    phases.refresh();
+    phases.record("a.example.com", UpstreamPhase.DNS, 1_000);
+    phases.record("b.example.com", UpstreamPhase.DNS, 1_000);
+
+    String scrape = metrics.scrape();
+
+    String name = "proxy_upstream_phase_duration_seconds_count";
+    assertThat(scrape)
+        .contains(name + "{host=\"b.example.com\",phase=\"dns\"} 1\n")
+        .contains(name + "{host=\"other\",phase=\"dns\"} 1\n")
+        .doesNotContain("a.example.com");
+  }
+
+  @Test
+  public void testUpstreamPhases_countsEvictedHostsFromSmallestCounter() {
+    // One tracked host has room for four counters.
+    UpstreamPhaseMetrics phases = new UpstreamPhaseMetrics(1);
+    for (String host : new String[] {"a", "a", "b", "b", "c", "c", "d", "d", "d"}) {
+      phases.recordRequest(host);
+    }
+    // "e" takes over a counter of 2, so one more request puts it ahead of "d".
+    phases.recordRequest("e");
+    phases.recordRequest("e");
+    phases.refresh();
+    phases.record("e", UpstreamPhase.DNS, 1_000);
+
+    StringBuilder out = new StringBuilder();
+    phases.writeTo(out);
+
+    assertThat(out.toString())
+        .contains("proxy_upstream_phase_duration_seconds_count{host=\"e\",phase=\"dns\"} 1\n");
+  }
+
+  @Test
+  public void testUpstreamPhases_escapesHostLabel() {
+    UpstreamPhaseMetrics phases = new UpstreamPhaseMetrics(1);
+    phases.recordRequest("a\"b\\c\nd");
+    phases.record("a\"b\\c\nd", UpstreamPhase.DNS, 1_000);
+
+    StringBuilder out = new StringBuilder();
+    phases.writeTo(out);
+
+    assertThat(out.toString()).contains("{host=\"a\\\"b\\\\c\\nd\",phase=\"dns\"} 1\n");
+  }
+
+  @Test
+  public void testScrape_readsAddedCounters() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    metrics.addCounter("proxy_things_total", "Things.", () -> 7);
+
+    assertThat(metrics.scrape())
+        .contains("# TYPE proxy_things_total counter\nproxy_things_total 7\n");
+  }
+}